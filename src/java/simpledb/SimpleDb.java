@@ -1,4 +1,5 @@
 package simpledb;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
@@ -7,6 +8,15 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
 
 public class SimpleDb {
     public static void main (String[] args)
@@ -15,6 +25,10 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
+                    // a trailing "columnar" writes the columns of a ColumnFile instead
+                    boolean columnar = args[args.length - 1].equalsIgnoreCase("columnar");
+                    if (columnar)
+                        args = Arrays.copyOf(args, args.length - 1);
                     if (args.length < 3 || args.length > 5) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
@@ -41,6 +55,8 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varchar"))
+                                ts[index++] = Type.VARCHAR_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -50,8 +66,12 @@ public class SimpleDb {
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (columnar)
+                        ColumnFile.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), ts, fieldSeparator);
+                    else
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -75,11 +95,56 @@ public class SimpleDb {
                     it.close();
                 }
                 break;
+            case "metrics":
+                if (args.length < 2) {
+                    System.err.println("Usage: metrics <host:port> | metrics <catalog> [table ...]");
+                    return;
+                }
+                try {
+                    if (args.length == 2 && args[1].matches("[^/\\\\]+:\\d+")) {
+                        // dump the metrics of a running database over JMX
+                        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + args[1] + "/jmxrmi");
+                        try (JMXConnector connector = JMXConnectorFactory.connect(url)) {
+                            MBeanServerConnection server = connector.getMBeanServerConnection();
+                            System.out.println(server.invoke(new ObjectName(StorageMetrics.OBJECT_NAME),
+                                    "report", null, null));
+                        }
+                        break;
+                    }
+                    // scan the given tables, or all of them, and dump what that took
+                    Database.getCatalog().loadSchema(args[1]);
+                    List<Integer> tableIds = new ArrayList<>();
+                    if (args.length > 2) {
+                        for (int i = 2; i < args.length; i++)
+                            tableIds.add(Database.getCatalog().getTableId(args[i]));
+                    } else {
+                        Database.getCatalog().tableIdIterator().forEachRemaining(tableIds::add);
+                    }
+                    TransactionId scanTid = new TransactionId();
+                    for (int tableId : tableIds) {
+                        DbFileIterator scan = Database.getCatalog().getDatabaseFile(tableId).iterator(scanTid);
+                        scan.open();
+                        while (scan.hasNext())
+                            scan.next();
+                        scan.close();
+                    }
+                    Database.getBufferPool().transactionComplete(scanTid);
+                    System.out.println(Database.getBufferPool().getMetrics().report());
+                } catch (IOException | JMException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
             case "parser":
                 // Strip the first argument and call the parser
                 String[] newargs = new String[args.length - 1];
                 System.arraycopy(args, 1, newargs, 0, args.length - 1);
 
+                try {
+                    StorageMetrics.registerMBean();
+                } catch (JMException e) {
+                    System.err.println("Could not register storage metrics: " + e.getMessage());
+                }
+
                 try {
                     //dynamically load Parser -- if it doesn't exist, print error message
                     Class<?> c = Class.forName("simpledb.Parser");
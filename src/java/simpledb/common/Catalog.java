@@ -1,7 +1,9 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.ColumnFile;
 import simpledb.storage.DbFile;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 
@@ -152,6 +154,17 @@ public class Catalog {
         throw new NoSuchElementException("no such table id, cannot get db file");
     }
 
+    /**
+     * Returns the size of the pages of the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     * @see DbFile#getPageSize()
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDatabaseFile(tableid).getPageSize();
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
 
@@ -187,6 +200,7 @@ public class Catalog {
             
             while ((line = br.readLine()) != null) {
                 //assume line is of the format name (field type, field type, ...)
+                //optionally followed by "pagesize <bytes>"
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -201,6 +215,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -214,17 +230,35 @@ public class Catalog {
                         }
                     }
                 }
+                int pageSize = 0;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (!options.isEmpty()) {
+                    String[] opts = options.split("\\s+");
+                    if (opts.length == 2 && opts[0].equalsIgnoreCase("pagesize"))
+                        pageSize = Integer.parseInt(opts[1]);
+                    else {
+                        System.out.println("Unknown table option " + options);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (ColumnFile.isColumnar(dataFile))
+                    tabHf = new ColumnFile(dataFile, t, pageSize);
+                else if (CompressedHeapFile.isCompressed(dataFile))
+                    tabHf = new CompressedHeapFile(dataFile, t, pageSize);
+                else
+                    tabHf = new HeapFile(dataFile, t, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
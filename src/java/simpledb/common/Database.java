@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.EvictionPolicy;
 import simpledb.storage.LogFile;
 
 import java.io.*;
@@ -58,11 +59,43 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, BufferPool.DEFAULT_EVICTION_POLICY);
+    }
+
+    /**
+     * Create a new instance of the buffer pool that uses the given page
+     * replacement policy and return it
+     *
+     * @see simpledb.storage.LruKEvictionPolicy#FACTORY
+     * @see simpledb.storage.ClockProEvictionPolicy#FACTORY
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Factory policyFactory) {
+        return resetBufferPool(pages, policyFactory, BufferPool.defaultPartitions(pages));
+    }
+
+    /**
+     * Create a new instance of the buffer pool with the given page
+     * replacement policy and number of partitions and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Factory policyFactory,
+                                             int partitions) {
+        return resetBufferPool(pages, policyFactory, partitions, false);
+    }
+
+    /**
+     * Create a new instance of the buffer pool with the given page
+     * replacement policy and number of partitions, optionally backed by an
+     * off-heap page arena, and return it
+     *
+     * @see simpledb.storage.PageArena
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Factory policyFactory,
+                                             int partitions, boolean offHeap) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policyFactory, partitions, offHeap));
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
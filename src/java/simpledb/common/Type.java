@@ -3,6 +3,7 @@ package simpledb.common;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.VarStringField;
 
 import java.text.ParseException;
 import java.io.*;
@@ -46,15 +47,63 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+    }, VARCHAR_TYPE() {
+        // a string of up to STRING_LEN bytes, stored without padding
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getMinLen() {
+            return 4;
+        }
+
+        @Override
+        public boolean isFixedLength() {
+            return false;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                if (strLen < 0 || strLen > STRING_LEN) {
+                    throw new ParseException("bad string length " + strLen, 0);
+                }
+                byte[] bs = new byte[strLen];
+                dis.readFully(bs);
+                return new VarStringField(new String(bs));
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
 
   /**
    * @return the number of bytes required to store a field of this type.
+   *   For types whose fields vary in length, this is the largest length.
    */
     public abstract int getLen();
 
+  /**
+   * @return the number of bytes required to store the shortest field of
+   *   this type
+   */
+    public int getMinLen() {
+        return getLen();
+    }
+
+  /**
+   * @return true if every field of this type takes up {@link #getLen()}
+   *   bytes
+   */
+    public boolean isFixedLength() {
+        return true;
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
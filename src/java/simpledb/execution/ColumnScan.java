@@ -0,0 +1,45 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.DbFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * ColumnScan is a sequential scan of a table stored in a {@link ColumnFile}
+ * that reads only some of its columns. Its tuples have all of the table's
+ * fields, like a SeqScan's, but only the fields of the scanned columns are
+ * set, so operators above it must not refer to the others.
+ */
+public class ColumnScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    private final int[] columns;
+
+    /**
+     * Creates a scan of the given columns of a column file.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; its DbFile must be a ColumnFile
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}
+     * @param columns
+     *            the indexes of the fields to read
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        super(tid, tableid, tableAlias);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof ColumnFile)) {
+            throw new IllegalArgumentException("table " + tableid + " is not a column file");
+        }
+        this.columns = columns.clone();
+        this.dbFileIterator = ((ColumnFile) file).iterator(tid, this.columns);
+    }
+
+    /** @return the indexes of the fields this scan reads */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+}
@@ -1,11 +1,14 @@
 package simpledb.execution;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.BufferRing;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -20,6 +23,9 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of child tuples handed to the BufferPool at a time. */
+    static final int BATCH_SIZE = 1024;
+
     /**
      * Constructor.
      *
@@ -83,36 +89,35 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
         int count = 0;
-        Tuple toInserTuple = null;
         BufferPool bufferPool = Database.getBufferPool();
+        // bulk loads into large tables probe full pages through a ring
+        BufferRing ring = bufferPool.newRing(Database.getCatalog().getDatabaseFile(this.tableId));
 
         if(fetched){
             return null;
         }else{
             fetched = true;
-            if(toInserTuple == null){
-                toInserTuple = this.child.hasNext() ? this.child.next() : null;
-            }
-    
-            while (toInserTuple != null){
-                // if (this.child.getTupleDesc() != Database.getCatalog().getTupleDesc(this.tableId)){
-                //     throw new DbException("Tuple Descriptor does not match");
-                // }else{
-                    try {
-                        bufferPool.insertTuple(this.t, this.tableId, toInserTuple);
-                        count += 1;
-                    } catch (IOException e) {
-                        throw new DbException("IOException when insert tuple");
-                    }
-                    
-                // }
-                toInserTuple = this.child.hasNext() ? this.child.next() : null;
+            // hand tuples over in batches so pages are filled and locked
+            // once each instead of once per tuple
+            List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
+            while (this.child.hasNext() || !batch.isEmpty()){
+                if (this.child.hasNext() && batch.size() < BATCH_SIZE){
+                    batch.add(this.child.next());
+                    continue;
+                }
+                try {
+                    bufferPool.insertTuples(this.t, this.tableId, batch.iterator(), ring);
+                    count += batch.size();
+                } catch (IOException e) {
+                    throw new DbException("IOException when insert tuple");
+                }
+                batch.clear();
             }
             Tuple toReuturnTuple = new Tuple(this.td);
             toReuturnTuple.setField(0, new IntField(count));
@@ -6,7 +6,10 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.BufferRing;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -26,6 +29,9 @@ public class SeqScan implements OpIterator {
     String tableAlias;
     boolean dbOpen;
     DbFileIterator dbFileIterator;
+    BufferRing ring;
+    // predicates the file may use to skip pages, see pushPredicate
+    final List<Predicate> predicates = new ArrayList<>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -50,7 +56,29 @@ public class SeqScan implements OpIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.dbOpen = false;
-        this.dbFileIterator = Database.getCatalog().getDatabaseFile(this.tableid).iterator(this.tid);
+        // tables larger than the pool are read through a private ring
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableid);
+        this.ring = Database.getBufferPool().newRing(file);
+        this.dbFileIterator = file.iterator(this.tid, this.ring);
+    }
+
+    /**
+     * Tells the scan that its tuples will be filtered with p, so heap files
+     * can skip pages whose zone map rules p out. The scan may still return
+     * tuples that do not satisfy p; the caller keeps filtering them. Must be
+     * called before the scan is opened.
+     *
+     * @param p a predicate on a field of this scan's TupleDesc
+     */
+    public void pushPredicate(Predicate p) {
+        if (this.dbOpen) {
+            throw new IllegalStateException("the scan is already open");
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableid);
+        if (file instanceof HeapFile) {
+            this.predicates.add(p);
+            this.dbFileIterator = ((HeapFile) file).iterator(this.tid, this.ring, this.predicates);
+        }
     }
 
     /**
@@ -34,6 +34,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid;
 	private final int keyField;
+	private final PageChannel channel;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -48,6 +49,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new PageChannel(f);
 	}
 
 	/**
@@ -89,10 +91,10 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-		try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+		try {
 			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = channel.read(0, pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -104,13 +106,7 @@ public class BTreeFile implements DbFile {
 				return new BTreeRootPtrPage(id, pageBuf);
 			} else {
 				byte[] pageBuf = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize()
-						+ (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) != BTreeRootPtrPage.getPageSize()
-								+ (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				int retval = channel.read(pageOffset(id.getPageNumber()), pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -130,8 +126,13 @@ public class BTreeFile implements DbFile {
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		// Close the file on success or error
-		// Ignore failures closing the file
+	}
+
+	/**
+	 * @return the offset of a non-root-pointer page in the file
+	 */
+	private static long pageOffset(int pgNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pgNo - 1) * BufferPool.getPageSize();
 	}
 
 	/**
@@ -144,18 +145,18 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(0, data);
 		} else {
-			rf.seek(BTreeRootPtrPage.getPageSize()
-					+ (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(pageOffset(page.getId().getPageNumber()), data);
 		}
 	}
 
+	// see DbFile.java for javadocs
+	public void sync() throws IOException {
+		channel.force();
+	}
+
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
@@ -1098,13 +1099,10 @@ public class BTreeFile implements DbFile {
 		synchronized (this) {
 			if (f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.append(emptyRootPtrData);
+				channel.append(emptyLeafData);
 			}
 		}
 
@@ -1161,11 +1159,8 @@ public class BTreeFile implements DbFile {
 		if (headerId == null) {
 			synchronized (this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.append(emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -1200,10 +1195,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 
 		// make sure the page is not in the buffer pool or in the local cache
 		Database.getBufferPool().discardPage(newPageId);
@@ -1332,6 +1324,25 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	/**
+	 * Moves an iterator of tid from one leaf page to the next, pinning the
+	 * new leaf so it stays cached while the iterator reads it.
+	 * 
+	 * @param previous - the leaf the iterator was on, unpinned here, or null
+	 * @param next - the leaf to move to, or null at the end of the iteration
+	 * @return the pinned next leaf, or null if next is null
+	 */
+	static BTreeLeafPage pinLeaf(TransactionId tid, BTreeLeafPage previous, BTreePageId next)
+			throws TransactionAbortedException, DbException {
+		BufferPool bufferPool = Database.getBufferPool();
+		BTreeLeafPage page = next == null ? null
+				: (BTreeLeafPage) bufferPool.pinPage(tid, next, Permissions.READ_ONLY);
+		if (previous != null) {
+			bufferPool.unpinPage(tid, previous.getId());
+		}
+		return page;
+	}
+
 }
 
 /**
@@ -1363,7 +1374,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
+		curp = BTreeFile.pinLeaf(tid, null, f.findLeafPage(tid, root, null).getId());
 		it = curp.iterator();
 	}
 
@@ -1381,10 +1392,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
 			if (nextp == null) {
-				curp = null;
+				curp = BTreeFile.pinLeaf(tid, curp, null);
 			} else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = BTreeFile.pinLeaf(tid, curp, nextp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1410,6 +1420,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
 		curp = null;
 	}
 }
@@ -1454,6 +1467,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		} else {
 			curp = f.findLeafPage(tid, root, null);
 		}
+		curp = BTreeFile.pinLeaf(tid, null, curp.getId());
 		it = curp.iterator();
 	}
 
@@ -1490,8 +1504,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			if (nextp == null) {
 				return null;
 			} else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = BTreeFile.pinLeaf(tid, curp, nextp);
 				it = curp.iterator();
 			}
 		}
@@ -1513,5 +1526,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
+		curp = null;
 	}
 }
\ No newline at end of file
@@ -8,10 +8,20 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -21,6 +31,10 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking; when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages are hashed by PageId into independent partitions, each with its own
+ * page table, share of the frames, replacement policy and latch, so threads
+ * that miss on pages of different partitions never wait for each other.
  * 
  * @Threadsafe, all fields are final
  */
@@ -30,9 +44,68 @@ public class BufferPool {
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
 
-    private int numPages;
-    private ConcurrentHashMap<PageId, Page> pagesHashMap;
-    private LockManager lockManager;
+    private final int numPages;
+    private final BufferPoolPartition[] partitions;
+    private final LockManager lockManager;
+    // record locks and uncommitted changes of tables locked by record
+    private final RecordLocks recordLocks;
+    // off-heap frames for heap pages; null unless the pool runs off-heap
+    private final PageArena arena;
+
+    // pages of committed transactions that are not on disk yet; only used
+    // while a PageCleaner is running
+    private final Map<PageId, CommittedWrite> committedWrites = new ConcurrentHashMap<>();
+    private volatile PageCleaner pageCleaner;
+    // committed page versions for snapshot transactions; null until
+    // snapshots are enabled
+    private volatile VersionStore versions;
+    // pages each running transaction may have dirtied: those it locked
+    // READ_WRITE or that were put here by its inserts and deletes
+    private final Map<TransactionId, Set<PageId>> writeSets = new ConcurrentHashMap<>();
+    // pins each running transaction holds, one entry per pin
+    private final Map<TransactionId, List<PageId>> pins = new ConcurrentHashMap<>();
+
+    private final StorageMetrics metrics = new StorageMetrics(this);
+
+    private volatile double ringThreshold = DEFAULT_RING_THRESHOLD;
+    private volatile int ringSize = BufferRing.DEFAULT_SIZE;
+
+    /** The committed transaction a dirty page belongs to and its last log record. */
+    private static class CommittedWrite {
+        final TransactionId tid;
+        final int lsn;
+
+        CommittedWrite(TransactionId tid, int lsn) {
+            this.tid = tid;
+            this.lsn = lsn;
+        }
+    }
+
+    /**
+     * The pages of a commit to tables locked by record, between
+     * {@link #logRows} and {@link #writeRows}: latched, in page order, with
+     * the committed version of each.
+     */
+    private static class RowCommit {
+        final List<HeapPage> pages;
+        final List<HeapPage> committed = new ArrayList<>();
+        final List<Lock> latches = new ArrayList<>();
+        // key: page; value: the records tid deleted from it
+        final Map<PageId, List<RecordId>> deleted = new HashMap<>();
+
+        RowCommit(List<HeapPage> pages) {
+            this.pages = pages;
+        }
+
+        void unlatch() {
+            for (Lock latch : latches) {
+                if (latch != null) {
+                    latch.unlock();
+                }
+            }
+            latches.clear();
+        }
+    }
 
     /**
      * Default number of pages passed to the constructor. This is used by
@@ -41,17 +114,166 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Replacement policy used when none is passed to the constructor. */
+    public static final EvictionPolicy.Factory DEFAULT_EVICTION_POLICY = LruKEvictionPolicy.FACTORY;
+
+    /**
+     * Smallest number of frames a partition gets when the number of
+     * partitions is chosen automatically. Small pools stay in one partition
+     * so that they behave like a single LRU-K/CLOCK-Pro cache.
+     */
+    public static final int MIN_PAGES_PER_PARTITION = 64;
+
+    /**
+     * Frames an off-heap arena has beyond numPages, for pages that are being
+     * read while the pages they replace are still cached.
+     */
+    public static final int ARENA_SLACK_FRAMES = 64;
+
+    /**
+     * Default fraction of the pool a table must exceed before scans and bulk
+     * inserts go through a {@link BufferRing}. Rings are off unless enabled
+     * with {@link #setRingStrategy}.
+     */
+    public static final double DEFAULT_RING_THRESHOLD = Double.POSITIVE_INFINITY;
+
+    /**
+     * Record locks a transaction may hold on a table locked by record before
+     * it escalates to a table lock, unless given to {@link #setRowLocking}.
+     */
+    public static final int DEFAULT_ROW_LOCK_THRESHOLD = 1000;
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_EVICTION_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks
+     * eviction victims with the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyFactory creates the replacement policy of this pool
+     */
+    public BufferPool(int numPages, EvictionPolicy.Factory policyFactory) {
+        this(numPages, policyFactory, defaultPartitions(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages split evenly
+     * over numPartitions partitions.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyFactory creates the replacement policy of each partition
+     * @param numPartitions number of independently latched partitions
+     */
+    public BufferPool(int numPages, EvictionPolicy.Factory policyFactory, int numPartitions) {
+        this(numPages, policyFactory, numPartitions, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages split evenly
+     * over numPartitions partitions, optionally keeping the bytes of cached
+     * heap pages in a preallocated off-heap {@link PageArena}. Only the raw
+     * bytes of HeapPages go off-heap: their decoded tuples, and B+tree and
+     * other pages, stay on the Java heap.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyFactory creates the replacement policy of each partition
+     * @param numPartitions number of independently latched partitions
+     * @param offHeap true to allocate an off-heap arena for numPages pages
+     */
+    public BufferPool(int numPages, EvictionPolicy.Factory policyFactory, int numPartitions, boolean offHeap) {
+        if (numPartitions < 1 || numPartitions > Math.max(numPages, 1)) {
+            throw new IllegalArgumentException("need between 1 and " + numPages + " partitions");
+        }
         this.numPages = numPages;
-        this.pagesHashMap = new ConcurrentHashMap<>();
         this.lockManager = new LockManager();
+        this.recordLocks = new RecordLocks(lockManager);
+        this.arena = offHeap ? new PageArena(numPages + ARENA_SLACK_FRAMES, pageSize) : null;
+        this.partitions = new BufferPoolPartition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            // spread the remainder over the first partitions
+            int capacity = numPages / numPartitions + (i < numPages % numPartitions ? 1 : 0);
+            this.partitions[i] = new BufferPoolPartition(this, capacity, policyFactory);
+        }
+    }
+
+    /**
+     * @return one partition per available processor, as long as every
+     *         partition gets at least {@link #MIN_PAGES_PER_PARTITION} frames
+     */
+    public static int defaultPartitions(int numPages) {
+        int byCpu = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(byCpu, numPages / MIN_PAGES_PER_PARTITION));
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the off-heap arena of this pool, or null if it has none */
+    public PageArena getArena() {
+        return arena;
+    }
+
+    /** @return the number of partitions of this buffer pool */
+    public int getNumPartitions() {
+        return partitions.length;
+    }
+
+    /**
+     * Sets when scans and bulk inserts bypass the pool's cache.
+     *
+     * @param threshold a table larger than threshold * numPages pages is
+     *                  read through a private ring
+     * @param ringSize  number of frames in each ring
+     */
+    public void setRingStrategy(double threshold, int ringSize) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        if (ringSize <= 0) {
+            throw new IllegalArgumentException("ringSize must be positive");
+        }
+        this.ringThreshold = threshold;
+        this.ringSize = ringSize;
     }
 
+    /**
+     * Returns a ring for a bulk read of the given file, or null if the file
+     * is small enough to be cached in the pool. Only heap files use rings.
+     */
+    public BufferRing newRing(DbFile file) {
+        if (!(file instanceof HeapFile)) {
+            return null;
+        }
+        // tables with large pages fill the pool with fewer of them
+        double frames = Math.ceil((double) file.getPageSize() / pageSize);
+        if (((HeapFile) file).numPages() * frames > ringThreshold * numPages) {
+            return new BufferRing(ringSize);
+        }
+        return null;
+    }
+
+    private BufferPoolPartition partitionFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return partitions[Math.floorMod(h, partitions.length)];
+    }
+
+    /**
+     * Returns the default page size, used by the log, by B+trees and by
+     * tables that do not set their own. The pool's capacity is counted in
+     * pages of this size.
+     *
+     * @see DbFile#getPageSize()
+     */
     public static int getPageSize() {
         return pageSize;
     }
@@ -83,8 +305,116 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
 
-        this.lockManager.acquireLock(tid, pid, perm);
+    /**
+     * Like {@link #getPage(TransactionId, PageId, Permissions)}, but a page
+     * that is not cached in the pool is read into the given ring instead of
+     * the pool.
+     *
+     * @param ring the caller's ring, or null to cache the page in the pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        return fetchPage(tid, pid, perm, ring, false);
+    }
+
+    /**
+     * Like {@link #getPage(TransactionId, PageId, Permissions)}, but also
+     * pins the page: it is not evicted until every pin on it is released
+     * with {@link #unpinPage}, or its transaction completes. Pins are not
+     * locks; they only keep the cached copy in place while it is in use,
+     * e.g. by an iterator.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Like {@link #pinPage(TransactionId, PageId, Permissions)}, but a page
+     * that is not cached is read into the given ring. Pages in a ring are
+     * not pinned, since the ring does not evict pages while they are read.
+     *
+     * @param ring the caller's ring, or null to cache the page in the pool
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        return fetchPage(tid, pid, perm, ring, true);
+    }
+
+    /**
+     * Releases one pin that tid holds on a page. Does nothing if tid holds
+     * no pin on it, e.g. because its transaction has completed.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        List<PageId> held = pins.get(tid);
+        if (held == null) {
+            return;
+        }
+        synchronized (held) {
+            if (!held.remove(pid)) {
+                return;
+            }
+        }
+        partitionFor(pid).unpin(pid);
+    }
+
+    /** @return the number of pins on a page */
+    public int getPinCount(PageId pid) {
+        return partitionFor(pid).pinCount(pid);
+    }
+
+    /**
+     * Acquires the latch of a pinned page, shared for READ_ONLY and
+     * exclusive for READ_WRITE. Latches protect the in-memory copy of the
+     * page while it is read or changed, and are held only for the length of
+     * that access, unlike the transaction's page locks.
+     *
+     * @return the latch, which the caller unlocks when done with the page,
+     *         or null if the page is not pinned and there is nothing to latch
+     */
+    public Lock latchPage(PageId pid, Permissions perm) {
+        ReadWriteLock latch = partitionFor(pid).latch(pid);
+        if (latch == null) {
+            return null;
+        }
+        Lock lock = perm == Permissions.READ_WRITE ? latch.writeLock() : latch.readLock();
+        lock.lock();
+        return lock;
+    }
+
+    private Page fetchPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring, boolean pin)
+            throws TransactionAbortedException, DbException {
+
+        VersionStore versions = this.versions;
+        long snapshot = versions == null ? -1 : versions.snapshotOf(tid);
+        if (snapshot >= 0) {
+            if (perm != Permissions.READ_ONLY) {
+                throw new DbException("snapshot transactions are read-only");
+            }
+            // no lock: the before image is the committed version, and it
+            // must be taken before the version chain is looked up
+            Page current = cachedPage(tid, pid, ring, pin).getBeforeImage();
+            return versions.visible(pid, snapshot, current);
+        }
+        if (recordLocks.enabled(pid.getTableId())) {
+            // the records on the page are locked one by one
+            recordLocks.lockPage(tid, pid, perm);
+        } else {
+            this.lockManager.acquireLock(tid, pid, perm);
+        }
+        if (perm == Permissions.READ_WRITE) {
+            addToWriteSet(tid, pid);
+        }
+        return cachedPage(tid, pid, ring, pin);
+    }
+
+    /** Returns the cached copy of a page, reading it in if it is not cached. */
+    private Page cachedPage(TransactionId tid, PageId pid, BufferRing ring, boolean pin) throws DbException {
+        // pins are released by transaction, so there is nothing to pin for
+        pin = pin && tid != null;
         // boolean lockAcquired = false;
         // long start = System.currentTimeMillis();
         // long timeout = new Random().nextInt(2000);
@@ -96,19 +426,72 @@ public class BufferPool {
         //     lockAcquired = lockManager.acquireLock(tid, pid, perm);
         // }
         
-        if (pagesHashMap.containsKey(pid)) {
-            return pagesHashMap.get(pid);
-        } else {
-            Page newPage = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            
-            if (this.pagesHashMap.size() >= this.numPages) {
-                this.evictPage();
-                // throw new DbException("Pool exceeds max size.");
+        BufferPoolPartition partition = partitionFor(pid);
+        Page page = partition.get(pid, pin);
+        if (page != null) {
+            metrics.hit(pid);
+            if (pin) {
+                pinned(tid, pid);
+            }
+            return page;
+        }
+        if (ring != null) {
+            page = ring.get(pid);
+            if (page == null) {
+                metrics.miss(pid);
+                DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                HeapFile heapFile = dbFile instanceof HeapFile ? (HeapFile) dbFile : null;
+                long stamp = heapFile != null ? heapFile.writeStamp() : 0;
+                page = readPage(dbFile, pid, null);
+                ring.add(page, heapFile, stamp);
+            } else {
+                metrics.hit(pid);
+            }
+            return page;
+        }
+        metrics.miss(pid);
+        // read outside the partition latch so other misses can proceed
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        ByteBuffer frame = arena != null && dbFile instanceof HeapFile ? arena.allocate() : null;
+        Page newPage;
+        try {
+            newPage = readPage(dbFile, pid, frame);
+        } catch (RuntimeException e) {
+            if (frame != null) {
+                arena.release(frame);
             }
-            pagesHashMap.put(pid, newPage);
-            return newPage;
+            throw e;
         }
+        if (frame != null && !(newPage instanceof HeapPage && ((HeapPage) newPage).frame == frame)) {
+            arena.release(frame);
+        }
+        page = partition.add(newPage, pin);
+        if (pin) {
+            pinned(tid, pid);
+        }
+        return page;
+    }
+
+    private void pinned(TransactionId tid, PageId pid) {
+        List<PageId> held = pins.computeIfAbsent(tid, t -> new ArrayList<>());
+        synchronized (held) {
+            held.add(pid);
+        }
+    }
 
+    /** Reads a page from its file, into frame if it is not null, timing the read. */
+    private Page readPage(DbFile dbFile, PageId pid, ByteBuffer frame) {
+        long start = System.nanoTime();
+        Page page = frame != null ? ((HeapFile) dbFile).readPage(pid, frame) : dbFile.readPage(pid);
+        metrics.read(pid, System.nanoTime() - start);
+        return page;
+    }
+
+    /** Writes a page to its file, timing the write. */
+    private void writePage(DbFile dbFile, Page page) throws IOException {
+        long start = System.nanoTime();
+        dbFile.writePage(page);
+        metrics.written(page.getId(), System.nanoTime() - start);
     }
 
     /**
@@ -137,6 +520,103 @@ public class BufferPool {
         transactionComplete(tid,true);
     }
 
+    /**
+     * Lets transactions run as snapshots from now on: see
+     * {@link #beginSnapshot}. Commits then keep the versions of the pages
+     * they change that running snapshots still see. Call it before any
+     * transaction that may run alongside a snapshot starts.
+     */
+    public synchronized void enableSnapshots() {
+        if (versions == null) {
+            versions = new VersionStore();
+        }
+    }
+
+    /**
+     * Makes tid a read-only snapshot transaction. It sees every page as of
+     * the last commit before this call, takes no locks, and so never waits
+     * for writers nor makes them wait. Its requests for READ_WRITE access
+     * fail with a DbException. The snapshot ends when tid completes.
+     *
+     * @throws IllegalStateException if snapshots are not enabled, or tid
+     *         already is a snapshot
+     * @see #enableSnapshots()
+     */
+    public void beginSnapshot(TransactionId tid) {
+        VersionStore versions = this.versions;
+        if (versions == null) {
+            throw new IllegalStateException("snapshots are not enabled");
+        }
+        versions.begin(tid);
+    }
+
+    /** @return true if tid is a snapshot transaction that has not completed yet */
+    public boolean isSnapshot(TransactionId tid) {
+        VersionStore versions = this.versions;
+        return versions != null && versions.snapshotOf(tid) >= 0;
+    }
+
+    /** @return the number of old page versions kept for snapshots */
+    public int getNumPageVersions() {
+        VersionStore versions = this.versions;
+        return versions == null ? 0 : versions.size();
+    }
+
+    /**
+     * Locks the records of a heap file one by one from now on, rather than
+     * its pages, with {@link #DEFAULT_ROW_LOCK_THRESHOLD}.
+     *
+     * @see #setRowLocking(int, int)
+     */
+    public void setRowLocking(int tableId) {
+        setRowLocking(tableId, DEFAULT_ROW_LOCK_THRESHOLD);
+    }
+
+    /**
+     * Locks the records of a heap file one by one from now on, rather than
+     * its pages, so that transactions changing different records of a page
+     * do not wait for each other. Pages of the table fetched from the pool
+     * only get intention locks; the file's iterators and its inserts and
+     * deletes lock the records they touch. A transaction that comes to hold
+     * more than threshold record locks on the table locks the whole table
+     * instead. Call it before any transaction uses the table.
+     *
+     * @param tableId a heap file with fixed-size tuples
+     * @param threshold record locks a transaction may hold on the table
+     *            before it escalates to a table lock
+     * @see RecordLocks
+     */
+    public void setRowLocking(int tableId, int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile) || !file.getTupleDesc().isFixedSize()) {
+            throw new IllegalArgumentException("only heap files with fixed-size tuples are locked by record");
+        }
+        recordLocks.enable(tableId, threshold);
+    }
+
+    /** @return true if the records of the table are locked one by one */
+    public boolean isRowLocked(int tableId) {
+        return recordLocks.enabled(tableId);
+    }
+
+    RecordLocks recordLocks() {
+        return recordLocks;
+    }
+
+    /**
+     * Sets how long tid waits for a page lock before it is aborted, in
+     * place of {@link LockManager#DEFAULT_TIMEOUT}.
+     *
+     * @param tid the transaction
+     * @param millis the timeout in milliseconds
+     */
+    public void setLockTimeout(TransactionId tid, long millis) {
+        lockManager.setTimeout(tid, millis);
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
@@ -150,39 +630,408 @@ public class BufferPool {
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws RuntimeException if the commit failed; its locks are released
+     *         all the same, and unless its COMMIT record was forced, it is
+     *         rolled back
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
-        if(commit){
-            try {
-                flushPages(tid);
-            } catch (IOException e) {
-                e.printStackTrace();
+        VersionStore versions = this.versions;
+        if (versions != null && versions.snapshotOf(tid) >= 0) {
+            versions.end(tid);
+        }
+        try {
+            if(commit){
+                List<Page> dirty = null;
+                long ts = 0;
+                // set once the commit stands, after which it is never rolled back
+                boolean committed = false;
+                try {
+                    List<HeapPage> rowPages = pinChangedRowPages(tid);
+                    if (versions != null) {
+                        dirty = dirtyPages(tid);
+                        dirty.addAll(rowPages);
+                        ts = versions.commit(dirty);
+                    }
+                    if (pageCleaner != null) {
+                        logCommittedPages(tid);
+                    } else {
+                        flushPages(tid);
+                    }
+                    RowCommit rows = logRows(tid, rowPages);
+                    committed = true;
+                    writeRows(tid, rows);
+                } catch (IOException | DbException e) {
+                    if (committed) {
+                        throw new RuntimeException("commit of " + tid + " is logged but its pages were not all written", e);
+                    }
+                    revertTransaction(tid);
+                    throw new RuntimeException("could not commit " + tid, e);
+                } finally {
+                    if (dirty != null) {
+                        versions.committed(dirty, ts);
+                    }
+                }
+            }else{
+                revertTransaction(tid);
+            }
+        } finally {
+            recordLocks.end(tid);
+            writeSets.remove(tid);
+            // pins left by iterators that were not closed, or by a failed commit
+            List<PageId> held = pins.remove(tid);
+            if (held != null) {
+                synchronized (held) {
+                    for (PageId pid : held) {
+                        partitionFor(pid).unpin(pid);
+                    }
+                }
+            }
+            lockManager.releaseAllLocks(tid);
+        }
+    }
+
+    private void addToWriteSet(TransactionId tid, PageId pid) {
+        if (tid != null) {
+            writeSets.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+        }
+    }
+
+    /**
+     * @return the cached pages last dirtied by tid, found through its write
+     *         set so the cost is proportional to the transaction's footprint
+     *         rather than to the size of the pool
+     */
+    private List<Page> dirtyPages(TransactionId tid) {
+        List<Page> dirty = new ArrayList<>();
+        Set<PageId> writeSet = tid == null ? null : writeSets.get(tid);
+        if (writeSet == null) {
+            return dirty;
+        }
+        for (PageId pid : writeSet) {
+            Page page = partitionFor(pid).peek(pid);
+            // changes to tables locked by record are undone and committed
+            // record by record
+            if (page != null && tid.equals(page.isDirty()) && !recordLocks.enabled(pid.getTableId())) {
+                dirty.add(page);
             }
-        }else{
-            revertTransaction(tid);
-        }    
-        lockManager.releaseAllLocks(tid);
+        }
+        return dirty;
     }
     
     /**
-     * Reverts all dirtied pages to the version on the disk
+     * Reverts all dirtied pages to their last committed version
      * 
      * @param tid the ID of the transaction that does not want to commit
      * 
      */
     public void revertTransaction(TransactionId tid) {
+        try {
+            revertRows(tid);
+        } catch (DbException | IOException e) {
+            e.printStackTrace();
+        }
         // make sure page is dirty before reverting
-        for (Page page : this.pagesHashMap.values()) {
-            PageId pid = page.getId();
-            if (page.isDirty() == tid && page.isDirty() != null) {
-                Page oldPage = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                this.pagesHashMap.put(pid, oldPage);
+        for (Page page : dirtyPages(tid)) {
+            // the before image is the committed version, which may not
+            // have reached the disk yet if a page cleaner is running
+            Page oldPage = page.getBeforeImage();
+            CommittedWrite pending = committedWrites.get(page.getId());
+            if (pending != null) {
+                oldPage.markDirty(true, pending.tid);
+            }
+            partitionFor(page.getId()).replace(oldPage);
+            PageCleaner cleaner = pageCleaner;
+            if (pending != null && cleaner != null) {
+                cleaner.enqueue(page.getId());
             }
         }
     }
 
+    /**
+     * Pins the cached copies of the pages of tables locked by record that
+     * tid inserted records into or deleted records from, reading in those
+     * that were evicted.
+     *
+     * @throws DbException if a page cannot be read; the pages pinned so far
+     *         stay pinned until the transaction completes
+     */
+    private List<HeapPage> pinChangedRowPages(TransactionId tid) throws DbException {
+        List<HeapPage> pages = new ArrayList<>();
+        for (PageId pid : recordLocks.changedPages(tid)) {
+            pages.add((HeapPage) cachedPage(tid, pid, null, true));
+        }
+        return pages;
+    }
+
+    /**
+     * Starts the commit of the changes of tid to tables locked by record:
+     * latches the pages it changed, in page order, works out the committed
+     * version of each, without the records tid deleted or other running
+     * transactions inserted, and logs them and a COMMIT record, which it
+     * forces. The pages themselves are left as they were, so a failure up
+     * to here can still be rolled back; {@link #writeRows} finishes the
+     * commit.
+     *
+     * @param pages the pinned pages tid changed; {@link #writeRows} unpins
+     *        them, or the end of the transaction if this fails
+     * @return the latched pages, or null if there are none
+     */
+    private RowCommit logRows(TransactionId tid, List<HeapPage> pages) throws IOException, DbException {
+        if (pages.isEmpty()) {
+            return null;
+        }
+        pages = new ArrayList<>(pages);
+        pages.sort(Comparator.comparingInt((HeapPage page) -> page.getId().getTableId())
+                .thenComparingInt(page -> page.getId().getPageNumber()));
+        RowCommit rows = new RowCommit(pages);
+        for (RecordId rid : recordLocks.deleted(tid)) {
+            rows.deleted.computeIfAbsent(rid.getPageId(), k -> new ArrayList<>()).add(rid);
+        }
+        boolean logged = false;
+        try {
+            LogFile log = Database.getLogFile();
+            for (HeapPage page : pages) {
+                HeapPageId pid = page.getId();
+                rows.latches.add(latchPage(pid, Permissions.READ_WRITE));
+                Set<Integer> slots = recordLocks.insertedByOthers(tid, pid);
+                for (RecordId rid : rows.deleted.getOrDefault(pid, new ArrayList<>())) {
+                    slots.add(rid.getTupleNumber());
+                }
+                HeapPage version = page.withoutSlots(slots);
+                log.logWrite(tid, page.getBeforeImage(), version);
+                rows.committed.add(version);
+            }
+            // the only COMMIT record of tid: Transaction finds it logged
+            log.logCommit(tid);
+            logged = true;
+            return rows;
+        } finally {
+            if (!logged) {
+                rows.unlatch();
+            }
+        }
+    }
+
+    /**
+     * Finishes a commit started by {@link #logRows}: carries out the
+     * deletes, writes the committed version of each page, which also
+     * becomes the page's before image, and releases the latches. A page
+     * stays dirty while records other transactions inserted are on it, or
+     * if it could not be written, so that it is written later.
+     *
+     * @throws IOException if a page could not be written or synced; the
+     *         commit stands all the same
+     */
+    private void writeRows(TransactionId tid, RowCommit rows) throws IOException, DbException {
+        if (rows == null) {
+            return;
+        }
+        Set<Integer> written = new HashSet<>();
+        IOException failure = null;
+        try {
+            for (int i = 0; i < rows.pages.size(); i++) {
+                HeapPage page = rows.pages.get(i);
+                HeapPage committed = rows.committed.get(i);
+                HeapPageId pid = page.getId();
+                for (RecordId rid : rows.deleted.getOrDefault(pid, new ArrayList<>())) {
+                    page.deleteTuple(page.getTuple(rid.getTupleNumber()));
+                }
+                recordLocks.settled(tid, pid);
+                page.setBeforeImage(committed.getPageData());
+                TransactionId other = recordLocks.otherInserter(tid, pid);
+                try {
+                    writePage(Database.getCatalog().getDatabaseFile(pid.getTableId()), committed);
+                    page.markDirty(other != null, other);
+                    written.add(pid.getTableId());
+                } catch (IOException e) {
+                    page.markDirty(true, other != null ? other : tid);
+                    failure = failure != null ? failure : e;
+                }
+            }
+        } finally {
+            rows.unlatch();
+            for (HeapPage page : rows.pages) {
+                unpinPage(tid, page.getId());
+            }
+        }
+        for (PageId pid : rows.deleted.keySet()) {
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.freeSpaceMap().setFree(((HeapPageId) pid).getPageNumber(), true);
+        }
+        syncFiles(written);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Takes back the records tid inserted into tables locked by record,
+     * newest first. Its deletes were never carried out.
+     */
+    private void revertRows(TransactionId tid) throws DbException, IOException {
+        List<Tuple> inserted = recordLocks.inserted(tid);
+        for (int i = inserted.size() - 1; i >= 0; i--) {
+            Tuple t = inserted.get(i);
+            PageId pid = t.getRecordId().getPageId();
+            HeapPage page = (HeapPage) cachedPage(tid, pid, null, true);
+            Lock latch = latchPage(pid, Permissions.READ_WRITE);
+            try {
+                page.deleteTuple(t);
+                recordLocks.settled(tid, pid);
+                // the rest of the page is what is on disk, or other
+                // transactions' uncommitted inserts
+                TransactionId other = recordLocks.otherInserter(tid, pid);
+                page.markDirty(other != null, other);
+            } finally {
+                if (latch != null) {
+                    latch.unlock();
+                }
+                unpinPage(tid, pid);
+            }
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.freeSpaceMap().setFree(((HeapPageId) pid).getPageNumber(), true);
+        }
+    }
+
+    /**
+     * Commits the pages of tid without writing them: logs an UPDATE record
+     * for every page, forces the log and leaves the pages to the page
+     * cleaner.
+     */
+    private void logCommittedPages(TransactionId tid) throws IOException {
+        List<Page> dirty = dirtyPages(tid);
+        if (dirty.isEmpty()) {
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        for (Page page : dirty) {
+            log.logWrite(tid, page.getBeforeImage(), page);
+        }
+        int lsn = log.getTotalRecords();
+        log.force(lsn);
+        PageCleaner cleaner = pageCleaner;
+        for (Page page : dirty) {
+            // only now, so that a failure above still rolls the page back
+            page.setBeforeImage();
+            committedWrites.put(page.getId(), new CommittedWrite(tid, lsn));
+            if (cleaner != null) {
+                cleaner.enqueue(page.getId());
+            }
+        }
+    }
+
+    /**
+     * Starts a background thread that writes back pages of committed
+     * transactions. From now on commits only force the log, not the pages.
+     *
+     * @param maxPagesPerSecond write-back rate while the pool is below the
+     *                          high-water mark
+     * @param highWaterMark     fraction of the pool that may hold committed
+     *                          but unwritten pages before the cleaner stops
+     *                          throttling itself
+     * @see PageCleaner
+     */
+    public synchronized void startPageCleaner(int maxPagesPerSecond, double highWaterMark) {
+        if (pageCleaner != null) {
+            throw new IllegalStateException("page cleaner already running");
+        }
+        PageCleaner cleaner = new PageCleaner(this, maxPagesPerSecond, highWaterMark);
+        for (PageId pid : committedWrites.keySet()) {
+            cleaner.enqueue(pid);
+        }
+        pageCleaner = cleaner;
+        cleaner.start();
+    }
+
+    /**
+     * Stops the page cleaner, if one is running, and writes back the pages
+     * it had not cleaned yet. Commits force their pages again afterwards.
+     */
+    public synchronized void stopPageCleaner() throws IOException {
+        PageCleaner cleaner = pageCleaner;
+        if (cleaner == null) {
+            return;
+        }
+        pageCleaner = null;
+        cleaner.shutdown();
+        for (PageId pid : new ArrayList<>(committedWrites.keySet())) {
+            cleanPage(pid);
+        }
+    }
+
+    /** @return the number of committed pages still waiting for write-back */
+    public int getNumCommittedDirtyPages() {
+        return committedWrites.size();
+    }
+
+    /**
+     * Writes back a page of a committed transaction if its log records are
+     * on disk and no running transaction has dirtied it since.
+     */
+    void cleanPage(PageId pid) throws IOException {
+        BufferPoolPartition partition = partitionFor(pid);
+        synchronized (partition) {
+            Page page = partition.peek(pid);
+            if (page == null) {
+                committedWrites.remove(pid);
+            } else if (canWriteBack(page)) {
+                writeBack(page);
+            }
+        }
+    }
+
+    /**
+     * Called by a partition when a page leaves it. Returns the page's arena
+     * frame, if any; the page keeps a heap copy of its before image.
+     */
+    void released(Page page) {
+        if (arena != null && page instanceof HeapPage) {
+            ByteBuffer frame = ((HeapPage) page).detachFrame();
+            if (frame != null) {
+                arena.release(frame);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of frames of {@link #getPageSize()} bytes that a
+     * page of pid's table takes up. Pages of tables missing from the
+     * Catalog count as one frame.
+     */
+    static int frames(PageId pid) {
+        int size;
+        try {
+            size = Database.getCatalog().getPageSize(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return 1;
+        }
+        return Math.max(1, (size + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * @return true if page is dirty only because of committed transactions
+     *         and its log records have been forced (the WAL rule)
+     */
+    boolean canWriteBack(Page page) {
+        CommittedWrite pending = committedWrites.get(page.getId());
+        return pending != null && pending.tid.equals(page.isDirty())
+                && pending.lsn <= Database.getLogFile().getForcedRecords();
+    }
+
+    /**
+     * Writes a committed page to disk and marks it clean. The caller must
+     * hold the latch of the page's partition.
+     */
+    void writeBack(Page page) throws IOException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+        writePage(dbFile, page);
+        dbFile.sync();
+        page.markDirty(false, null);
+        committedWrites.remove(page.getId());
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid. Will
      * acquire a write lock on the page the tuple is added to and any other
@@ -202,11 +1051,65 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        insertTuple(tid, tableId, t, null);
+    }
+
+    /**
+     * Like {@link #insertTuple(TransactionId, int, Tuple)}, but pages the file
+     * only reads while looking for space go through the given ring. Pages
+     * the tuple is added to move from the ring into the pool.
+     *
+     * @param ring the caller's ring, or null to cache every page in the pool
+     */
+    public void insertTuple(TransactionId tid, int tableId, Tuple t, BufferRing ring)
+            throws DbException, IOException, TransactionAbortedException {
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> pgList = dbFile.insertTuple(tid, t);
+        List<Page> pgList = dbFile.insertTuple(tid, t, ring);
         for(Page pg : pgList){
             pg.markDirty(true, tid);
-            pagesHashMap.put(pg.getId(), pg);
+            if (ring != null) {
+                ring.remove(pg.getId());
+            }
+            addToWriteSet(tid, pg.getId());
+            partitionFor(pg.getId()).put(pg);
+        }
+    }
+
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid, for bulk loads. The file fills each page it locks with as many of
+     * the tuples as fit before moving on, so locks are taken and dirty pages
+     * registered once per page rather than once per tuple.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     * @see DbFile#insertTuples
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        insertTuples(tid, tableId, tuples, null);
+    }
+
+    /**
+     * Like {@link #insertTuples(TransactionId, int, Iterator)}, reading
+     * through the given ring as {@link #insertTuple(TransactionId, int, Tuple,
+     * BufferRing)} does.
+     *
+     * @param ring the caller's ring, or null to cache every page in the pool
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples, BufferRing ring)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        while (tuples.hasNext()) {
+            for (Page pg : dbFile.insertTuples(tid, tuples, ring)) {
+                pg.markDirty(true, tid);
+                if (ring != null) {
+                    ring.remove(pg.getId());
+                }
+                addToWriteSet(tid, pg.getId());
+                partitionFor(pg.getId()).put(pg);
+            }
         }
     }
 
@@ -231,7 +1134,8 @@ public class BufferPool {
         List<Page> pgList = dbFile.deleteTuple(tid, t);
         for(Page pg : pgList){
             pg.markDirty(true, tid);
-            pagesHashMap.put(pg.getId(),pg);
+            addToWriteSet(tid, pg.getId());
+            partitionFor(pg.getId()).put(pg);
         }
     }
 
@@ -240,14 +1144,26 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (Page page: pagesHashMap.values()){
-            if (page.isDirty() != null){ // dirty page
-                flushPage(page.getId());
+        Set<Integer> written = new HashSet<>();
+        for (BufferPoolPartition partition : partitions) {
+            for (Page page : partition.pages()) {
+                if (page.isDirty() != null){ // dirty page
+                    flushPage(page.getId());
+                    written.add(page.getId().getTableId());
+                }
             }
         }
+        syncFiles(written);
+    }
+
+    /** Syncs each of the given tables' files once. */
+    private void syncFiles(Set<Integer> tableIds) throws IOException {
+        for (int tableId : tableIds) {
+            Database.getCatalog().getDatabaseFile(tableId).sync();
+        }
     }
 
     /**
@@ -259,65 +1175,122 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pagesHashMap.remove(pid);
+        partitionFor(pid).discard(pid);
+        committedWrites.remove(pid);
     }
 
     /**
-     * Flushes a certain page to disk
-     * 
-     * @param pid an ID indicating the page to flush
+     * Adds pages that were read ahead of a sequential scan. No locks are
+     * taken; a page that is already cached keeps its cached version, and
+     * pages that would need a dirty page to be evicted are dropped.
+     *
+     * @param pages pages just read from disk
+     * @return the number of pages added to the pool
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
-        if (pagesHashMap.containsKey(pid)){
-            Page page = pagesHashMap.get(pid);
-            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-            page.markDirty(false, null);
+    public int prefetchPages(List<Page> pages) {
+        return prefetchPages(pages, null, 0);
+    }
+
+    /**
+     * Like {@link #prefetchPages(List)}, but also drops the pages of file
+     * written since the given stamp was taken, before they were read: their
+     * copies may be older than a version committed and evicted meanwhile.
+     *
+     * @param file the file the pages were read from, or null to add them
+     *             all
+     * @param stamp {@link HeapFile#writeStamp()} taken before the read
+     */
+    public int prefetchPages(List<Page> pages, HeapFile file, long stamp) {
+        int added = 0;
+        // checked under the partition latch: the pool writes only pages it
+        // caches, so a page written after the check is still cached then
+        Predicate<PageId> stale = file == null ? pid -> false
+                : pid -> file.writtenSince(pid.getPageNumber(), stamp);
+        for (Page page : pages) {
+            if (partitionFor(page.getId()).prefetch(page, stale)) {
+                metrics.prefetched(page.getId());
+                added++;
+            }
         }
+        return added;
+    }
+
+    /** @return the counters and latency histograms of this pool */
+    public StorageMetrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Returns, for each table with pages in the pool, the number of frames
+     * its pages take up and the number of them that are dirty.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
-        for (PageId pid : pagesHashMap.keySet()) {
-            Page page = pagesHashMap.getOrDefault(pid, null);
-            if (page != null && page.isDirty() != null && page.isDirty().equals(tid)) {
-                DbFile dbFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
-                try{
-                    page.markDirty(false,null);
-                    dbFile.writePage(page);
-                }catch (IOException e){
-                    e.printStackTrace();
+    Map<Integer, int[]> occupancy() {
+        Map<Integer, int[]> tables = new HashMap<>();
+        for (BufferPoolPartition partition : partitions) {
+            for (Page page : partition.pages()) {
+                int[] counts = tables.computeIfAbsent(page.getId().getTableId(), id -> new int[2]);
+                counts[0] += frames(page.getId());
+                if (page.isDirty() != null) {
+                    counts[1]++;
                 }
             }
-        }            
+        }
+        return tables;
+    }
+
+    /** @return true if the page is currently cached, without touching it */
+    public boolean isCached(PageId pid) {
+        return partitionFor(pid).peek(pid) != null;
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Flushes a certain page to disk
+     * 
+     * @param pid an ID indicating the page to flush
      */
-    private synchronized void evictPage() throws DbException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        if (pagesHashMap.size() == 0){
-            throw new DbException("No page in the buffer pool");
+        BufferPoolPartition partition = partitionFor(pid);
+        synchronized (partition) {
+            Page page = partition.peek(pid);
+            if (page != null) {
+                writePage(Database.getCatalog().getDatabaseFile(page.getId().getTableId()), page);
+                page.markDirty(false, null);
+                committedWrites.remove(pid);
+            }
         }
-        for (Page page: pagesHashMap.values()){
-            if (page.isDirty() == null){ // random not dirty page
-                discardPage(page.getId());
-                return;
+    }
+
+    /**
+     * Write all pages of the specified transaction to disk.
+     */
+    public void flushPages(TransactionId tid) throws IOException {
+        // some code goes here
+        // not necessary for lab1|lab2
+        Set<Integer> written = new HashSet<>();
+        for (Page page : dirtyPages(tid)) {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            try{
+                page.markDirty(false,null);
+                writePage(dbFile, page);
+                page.setBeforeImage();
+                committedWrites.remove(page.getId());
+                written.add(page.getId().getTableId());
+            }catch (IOException e){
+                e.printStackTrace();
             }
         }
-        throw new DbException("All pages in the buffer pool are dirty.");
+        // one sync per file, shared with transactions committing at the
+        // same time
+        List<DbFile> files = new ArrayList<>();
+        for (int tableId : written) {
+            files.add(Database.getCatalog().getDatabaseFile(tableId));
+        }
+        Database.getLogFile().syncFiles(files);
     }
 
 }
-
@@ -0,0 +1,293 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * One independently latched slice of the BufferPool. Every PageId hashes to
+ * exactly one partition, and the partition owns the cached copy of that page
+ * together with its share of the pool's frames and its own replacement
+ * policy. All methods synchronize on the partition, so misses and evictions
+ * in different partitions never wait for each other.
+ * <p>
+ * Capacity is counted in frames of the BufferPool's page size. A page of a
+ * table with larger pages takes up as many frames as it spans, so the
+ * partition evicts until there is room for all of them.
+ * <p>
+ * Pinned pages are never chosen for eviction. Each pinned page also has a
+ * latch, which lives as long as the page stays pinned.
+ *
+ * @see BufferPool
+ */
+class BufferPoolPartition {
+
+    private final BufferPool owner;
+    private final int capacity;
+    private final Map<PageId, Page> pages;
+    private final EvictionPolicy evictionPolicy;
+    // read ahead, but not requested yet
+    private final Set<PageId> prefetched;
+    // frames taken up by the cached pages
+    private int used = 0;
+    // frames of the cached pages that take up more than one
+    private final Map<PageId, Integer> largePages = new HashMap<>();
+    private final Map<PageId, Pin> pins = new HashMap<>();
+
+    private static class Pin {
+        int count;
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+    }
+
+    BufferPoolPartition(BufferPool owner, int capacity, EvictionPolicy.Factory policyFactory) {
+        this.owner = owner;
+        this.capacity = capacity;
+        this.pages = new HashMap<>();
+        this.evictionPolicy = policyFactory.create(capacity);
+        this.prefetched = new HashSet<>();
+    }
+
+    /**
+     * Returns the cached page, or null on a miss. A hit counts as a
+     * reference for the replacement policy.
+     */
+    synchronized Page get(PageId pid) {
+        return get(pid, false);
+    }
+
+    /**
+     * Like {@link #get(PageId)}, and pins the page on a hit if pin is set.
+     */
+    synchronized Page get(PageId pid, boolean pin) {
+        Page page = pages.get(pid);
+        if (page != null && !prefetched.remove(pid)) {
+            evictionPolicy.pageAccessed(pid);
+        }
+        if (page != null && pin) {
+            pin(pid);
+        }
+        return page;
+    }
+
+    /** Returns the cached page without counting it as a reference. */
+    synchronized Page peek(PageId pid) {
+        return pages.get(pid);
+    }
+
+    /**
+     * Adds a page read from disk, evicting a clean page first if the
+     * partition is full. If another thread cached the same page in the
+     * meantime, the cached copy wins and is returned instead.
+     *
+     * @throws DbException if the partition is full of dirty pages
+     */
+    synchronized Page add(Page page) throws DbException {
+        return add(page, false);
+    }
+
+    /**
+     * Like {@link #add(Page)}, and pins the page that is returned if pin is
+     * set.
+     */
+    synchronized Page add(Page page, boolean pin) throws DbException {
+        PageId pid = page.getId();
+        Page cached = pages.get(pid);
+        if (cached != null) {
+            evictionPolicy.pageAccessed(pid);
+            owner.released(page);
+            if (pin) {
+                pin(pid);
+            }
+            return cached;
+        }
+        int frames = BufferPool.frames(pid);
+        if (used + frames > capacity && !pages.isEmpty()) {
+            evict(true);
+            while (used + frames > capacity && !pages.isEmpty() && evict(false)) {
+                // keep going while clean pages can make room
+            }
+        }
+        pages.put(pid, page);
+        charge(pid, frames);
+        evictionPolicy.pageAdded(pid);
+        if (pin) {
+            pin(pid);
+        }
+        return page;
+    }
+
+    /**
+     * Adds a page that was read ahead of a scan. Unlike {@link #add}, this
+     * never fails: the page is dropped if it is already cached or if no
+     * clean frame can be freed for it. The first request for the page counts
+     * as its first reference, so read-ahead does not make scanned pages look
+     * hot to the replacement policy.
+     *
+     * @param stale true for a page that was written since it was read
+     * @return true if the page was added
+     */
+    synchronized boolean prefetch(Page page, Predicate<PageId> stale) {
+        PageId pid = page.getId();
+        if (pages.containsKey(pid) || stale.test(pid)) {
+            return false;
+        }
+        int frames = BufferPool.frames(pid);
+        while (used + frames > capacity && !pages.isEmpty()) {
+            PageId victim = evictionPolicy.chooseVictim(id -> {
+                Page p = pages.get(id);
+                return p == null || (p.isDirty() == null && !pins.containsKey(id));
+            });
+            if (victim == null) {
+                return false;
+            }
+            owner.released(pages.remove(victim));
+            uncharge(victim);
+            prefetched.remove(victim);
+            owner.getMetrics().evicted(victim);
+        }
+        pages.put(pid, page);
+        charge(pid, frames);
+        evictionPolicy.pageAdded(pid);
+        prefetched.add(pid);
+        return true;
+    }
+
+    /**
+     * Puts a page into the partition, replacing any cached version of it.
+     * Used for pages dirtied by inserts and deletes, which must stay in
+     * memory until their transaction completes.
+     */
+    synchronized void put(Page page) {
+        PageId pid = page.getId();
+        Page old = pages.put(pid, page);
+        if (old == null) {
+            charge(pid, BufferPool.frames(pid));
+            evictionPolicy.pageAdded(pid);
+        } else {
+            evictionPolicy.pageAccessed(pid);
+            if (old != page) {
+                owner.released(old);
+            }
+        }
+    }
+
+    /**
+     * Replaces the cached version of a page without counting it as a
+     * reference, e.g. when a transaction's changes are rolled back.
+     */
+    synchronized void replace(Page page) {
+        if (pages.containsKey(page.getId())) {
+            owner.released(pages.put(page.getId(), page));
+        }
+    }
+
+    /** Drops a page from the partition. */
+    synchronized void discard(PageId pid) {
+        Page old = pages.remove(pid);
+        if (old != null) {
+            uncharge(pid);
+            evictionPolicy.pageRemoved(pid);
+            owner.released(old);
+        }
+        prefetched.remove(pid);
+    }
+
+    /** @return a snapshot of the pages currently cached in this partition */
+    synchronized List<Page> pages() {
+        return new ArrayList<>(pages.values());
+    }
+
+    synchronized int size() {
+        return pages.size();
+    }
+
+    synchronized void pin(PageId pid) {
+        pins.computeIfAbsent(pid, id -> new Pin()).count++;
+    }
+
+    synchronized void unpin(PageId pid) {
+        Pin pin = pins.get(pid);
+        if (pin != null && --pin.count == 0) {
+            pins.remove(pid);
+        }
+    }
+
+    synchronized int pinCount(PageId pid) {
+        Pin pin = pins.get(pid);
+        return pin == null ? 0 : pin.count;
+    }
+
+    /** @return the latch of a pinned page, or null if it is not pinned */
+    synchronized ReadWriteLock latch(PageId pid) {
+        Pin pin = pins.get(pid);
+        return pin == null ? null : pin.latch;
+    }
+
+    /** @return the number of frames taken up by the cached pages */
+    synchronized int framesUsed() {
+        return used;
+    }
+
+    private void charge(PageId pid, int frames) {
+        used += frames;
+        if (frames > 1) {
+            largePages.put(pid, frames);
+        }
+    }
+
+    private void uncharge(PageId pid) {
+        Integer frames = largePages.remove(pid);
+        used -= frames != null ? frames : 1;
+    }
+
+    /**
+     * Discards a page chosen by the replacement policy. Pages of committed
+     * transactions that the page cleaner has not reached yet are written back
+     * first. NO STEAL: pages dirtied by running transactions never leave the
+     * partition. Pinned pages are in use and are not evicted either.
+     *
+     * @param required true to fail if no page can be evicted
+     * @return false if no page could be evicted and required is false
+     */
+    private boolean evict(boolean required) throws DbException {
+        if (pages.size() == 0) {
+            throw new DbException("No page in the buffer pool");
+        }
+        PageId victim = evictionPolicy.chooseVictim(pid -> {
+            Page page = pages.get(pid);
+            if (page != null && pins.containsKey(pid)) {
+                return false;
+            }
+            return page == null || page.isDirty() == null || owner.canWriteBack(page);
+        });
+        if (victim == null) {
+            if (!required) {
+                return false;
+            }
+            throw new DbException("All pages in the buffer pool are dirty or pinned.");
+        }
+        Page page = pages.get(victim);
+        if (page != null && page.isDirty() != null) {
+            try {
+                owner.writeBack(page);
+            } catch (IOException e) {
+                evictionPolicy.pageAdded(victim);
+                throw new DbException("could not write back page " + victim + ": " + e.getMessage());
+            }
+        }
+        owner.released(pages.remove(victim));
+        uncharge(victim);
+        prefetched.remove(victim);
+        owner.getMetrics().evicted(victim);
+        return true;
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A small private ring of page frames for bulk reads.
+ * <p>
+ * A scan (or bulk insert) that would otherwise cycle every page of a large
+ * table through the BufferPool passes a BufferRing to
+ * {@link BufferPool#getPage(simpledb.transaction.TransactionId, PageId,
+ * simpledb.common.Permissions, BufferRing)}. Pages that are already cached
+ * in the pool are used as usual, but pages read on a miss go into the ring
+ * instead of the pool, and the ring reuses its oldest frame once it is full.
+ * The pool's working set is left alone.
+ * <p>
+ * Pages dirtied through the ring move to the pool, which keeps them until
+ * their transaction completes (NO STEAL). Pages in the ring may have been
+ * read ahead without a lock; a page written since it was read is dropped
+ * rather than returned, so the pool reads the current version.
+ */
+public class BufferRing {
+
+    /** Default number of frames in a ring. */
+    public static final int DEFAULT_SIZE = 32;
+
+    private final int size;
+    private final LinkedHashMap<PageId, Frame> frames;
+
+    /** A page in the ring, and where and when it was read. */
+    private static class Frame {
+        final Page page;
+        // null if the page's writes are not stamped
+        final HeapFile file;
+        final long stamp;
+
+        Frame(Page page, HeapFile file, long stamp) {
+            this.page = page;
+            this.file = file;
+            this.stamp = stamp;
+        }
+
+        boolean stale() {
+            return file != null && file.writtenSince(page.getId().getPageNumber(), stamp);
+        }
+    }
+
+    public BufferRing(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("ring size must be positive");
+        }
+        this.size = size;
+        this.frames = new LinkedHashMap<>();
+    }
+
+    public BufferRing() {
+        this(DEFAULT_SIZE);
+    }
+
+    /** @return the number of frames in this ring */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the page if it is held in the ring and has not been written
+     *         since it was read, otherwise null
+     */
+    synchronized Page get(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame != null && frame.stale()) {
+            frames.remove(pid);
+            return null;
+        }
+        return frame == null ? null : frame.page;
+    }
+
+    synchronized boolean contains(PageId pid) {
+        return frames.containsKey(pid);
+    }
+
+    /**
+     * Puts a page into the ring, reusing the oldest frame if it is full.
+     *
+     * @param file the HeapFile the page was read from, or null if its
+     *             writes are not stamped
+     * @param stamp {@link HeapFile#writeStamp()} taken before the page was
+     *              read
+     */
+    synchronized void add(Page page, HeapFile file, long stamp) {
+        if (frames.containsKey(page.getId())) {
+            return;
+        }
+        if (frames.size() >= size) {
+            Iterator<PageId> oldest = frames.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        frames.put(page.getId(), new Frame(page, file, stamp));
+    }
+
+    /** Drops a page from the ring, e.g. because it moved to the pool. */
+    synchronized void remove(PageId pid) {
+        frames.remove(pid);
+    }
+
+    /** Drops every page in the ring. */
+    synchronized void clear() {
+        frames.clear();
+    }
+}
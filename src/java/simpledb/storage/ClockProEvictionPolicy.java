@@ -0,0 +1,265 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK-Pro replacement (Jiang, Chen and Zhang, USENIX ATC '05).
+ * <p>
+ * Pages are kept on a single clock and are either hot or cold. New pages
+ * start cold and in a "test period". A cold page that is referenced again
+ * during its test period is promoted to hot; a cold page that is not is
+ * evicted. The metadata of an evicted cold page stays on the clock until its
+ * test period ends, so a page that returns quickly is recognised and brought
+ * back as hot. Pages touched once by a scan therefore only ever occupy cold
+ * frames and cannot displace the hot working set.
+ * <p>
+ * Three hands sweep the clock:
+ * <ul>
+ * <li>the cold hand looks for a cold page to evict,</li>
+ * <li>the hot hand demotes hot pages that have not been referenced when there
+ * are more hot pages than the hot target allows,</li>
+ * <li>the test hand ends the test periods of non-resident pages once there
+ * are more of them than the capacity.</li>
+ * </ul>
+ * The number of cold frames adapts: it grows whenever a page is re-referenced
+ * during its test period and shrinks whenever a test period expires unused.
+ */
+public class ClockProEvictionPolicy implements EvictionPolicy {
+
+    /** Factory for CLOCK-Pro policies. */
+    public static final EvictionPolicy.Factory FACTORY = ClockProEvictionPolicy::new;
+
+    private static class Node {
+        final PageId pid;
+        boolean hot;
+        boolean resident = true;
+        boolean referenced;
+        boolean test;
+        Node prev, next;
+
+        Node(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final int capacity;
+    private final Map<PageId, Node> nodes = new HashMap<>();
+    private Node handHot, handCold, handTest;
+    private int hotCount, coldCount, nonResidentCount;
+    private int coldTarget;
+
+    /**
+     * @param capacity the number of pages the pool can hold
+     */
+    public ClockProEvictionPolicy(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.coldTarget = 1;
+    }
+
+    public void pageAdded(PageId pid) {
+        Node n = nodes.get(pid);
+        if (n != null && n.resident) {
+            n.referenced = true;
+            return;
+        }
+        if (n != null) {
+            // re-referenced during its test period: the page deserves a hot frame
+            unlink(n);
+            nonResidentCount--;
+            coldTarget = Math.min(coldTarget + 1, maxColdTarget());
+            n.resident = true;
+            n.referenced = false;
+            n.test = false;
+            n.hot = true;
+            hotCount++;
+            insertAtHead(n);
+            balanceHot();
+            return;
+        }
+        n = new Node(pid);
+        n.test = true;
+        coldCount++;
+        nodes.put(pid, n);
+        insertAtHead(n);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Node n = nodes.get(pid);
+        if (n == null || !n.resident) {
+            pageAdded(pid);
+            return;
+        }
+        n.referenced = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Node n = nodes.remove(pid);
+        if (n == null)
+            return;
+        if (!n.resident)
+            nonResidentCount--;
+        else if (n.hot)
+            hotCount--;
+        else
+            coldCount--;
+        unlink(n);
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        if (coldCount == 0)
+            demoteOneHot();
+        // every resident page can be visited twice: once to clear its
+        // reference bit and once to evict it
+        int budget = 2 * (hotCount + coldCount + nonResidentCount) + 1;
+        while (coldCount > 0 && budget-- > 0) {
+            Node n = handCold;
+            handCold = n.next;
+            if (!n.resident || n.hot)
+                continue;
+            if (n.referenced) {
+                n.referenced = false;
+                if (n.test) {
+                    n.test = false;
+                    n.hot = true;
+                    coldCount--;
+                    hotCount++;
+                    balanceHot();
+                    if (coldCount == 0)
+                        demoteOneHot();
+                } else {
+                    n.test = true;
+                    moveToHead(n);
+                }
+                continue;
+            }
+            if (!evictable.test(n.pid))
+                continue;
+            evict(n);
+            return n.pid;
+        }
+        // only protected cold pages are left; fall back to any evictable page
+        for (Node n : nodes.values()) {
+            if (n.resident && evictable.test(n.pid)) {
+                if (n.hot) {
+                    hotCount--;
+                    coldCount++;
+                    n.hot = false;
+                }
+                n.test = false;
+                evict(n);
+                return n.pid;
+            }
+        }
+        return null;
+    }
+
+    private void evict(Node n) {
+        coldCount--;
+        if (n.test) {
+            // keep the metadata so a quick return is recognised
+            n.resident = false;
+            nonResidentCount++;
+            while (nonResidentCount > capacity)
+                runHandTest();
+        } else {
+            nodes.remove(n.pid);
+            unlink(n);
+        }
+    }
+
+    private int maxColdTarget() {
+        return Math.max(capacity - 1, 1);
+    }
+
+    /** Demotes hot pages until the hot set fits next to the cold target. */
+    private void balanceHot() {
+        while (hotCount > 0 && hotCount > capacity - coldTarget)
+            demoteOneHot();
+    }
+
+    /** Runs the hot hand until one hot page has been demoted to cold. */
+    private void demoteOneHot() {
+        int budget = 2 * nodes.size() + 1;
+        while (hotCount > 0 && budget-- > 0) {
+            Node n = handHot;
+            handHot = n.next;
+            if (n.hot) {
+                if (n.referenced) {
+                    n.referenced = false;
+                } else {
+                    n.hot = false;
+                    hotCount--;
+                    coldCount++;
+                    return;
+                }
+            } else if (n.test) {
+                endTestPeriod(n);
+            }
+        }
+    }
+
+    /** Runs the test hand until one non-resident page has been dropped. */
+    private void runHandTest() {
+        int budget = 2 * nodes.size() + 1;
+        while (budget-- > 0) {
+            Node n = handTest;
+            handTest = n.next;
+            if (!n.hot && n.test) {
+                boolean wasResident = n.resident;
+                endTestPeriod(n);
+                if (!wasResident)
+                    return;
+            }
+        }
+    }
+
+    private void endTestPeriod(Node n) {
+        n.test = false;
+        coldTarget = Math.max(coldTarget - 1, 1);
+        if (!n.resident) {
+            nonResidentCount--;
+            nodes.remove(n.pid);
+            unlink(n);
+        }
+    }
+
+    // the head of the clock is the slot just behind the hot hand, i.e. the
+    // last position every hand reaches
+    private void insertAtHead(Node n) {
+        if (handHot == null) {
+            n.next = n;
+            n.prev = n;
+            handHot = handCold = handTest = n;
+            return;
+        }
+        Node after = handHot;
+        Node before = after.prev;
+        before.next = n;
+        n.prev = before;
+        n.next = after;
+        after.prev = n;
+    }
+
+    private void moveToHead(Node n) {
+        unlink(n);
+        insertAtHead(n);
+    }
+
+    private void unlink(Node n) {
+        if (n.next == n) {
+            handHot = handCold = handTest = null;
+        } else {
+            if (handHot == n)
+                handHot = n.next;
+            if (handCold == n)
+                handCold = n.next;
+            if (handTest == n)
+                handTest = n.next;
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+        }
+        n.next = n.prev = null;
+    }
+}
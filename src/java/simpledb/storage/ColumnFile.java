@@ -0,0 +1,337 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A DbFile that stores each column of a table in its own sequence of
+ * {@link ColumnPage}s, so a scan that needs a few columns of a wide table
+ * reads only the pages of those columns.
+ * <p>
+ * Column i is kept in a file named after the table's data file with
+ * {@link #COLUMN_SUFFIX} and i appended. The n-th value of every column
+ * belongs to the n-th row; pages hold a varying number of values, so the
+ * pages of different columns do not line up. Rows are appended at the end
+ * of each column. Deleting rows is not supported.
+ *
+ * @see ColumnPage
+ * @see #iterator(TransactionId, int[])
+ */
+public class ColumnFile implements DbFile {
+
+    /** Appended to the data file's name, with the column index, to name a column's file. */
+    public static final String COLUMN_SUFFIX = ".col";
+
+    private final File file;
+    private final TupleDesc td;
+    private final int pageSize;
+    private final PageChannel[] channels;
+    // pages of each column, including new pages not written yet
+    private final int[] numPages;
+
+    /**
+     * Opens a column file, or creates an empty one if its column files do
+     * not exist yet.
+     *
+     * @param f the data file the column files are named after; it is not
+     *          itself created
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this(f, td, 0);
+    }
+
+    /**
+     * Like {@link #ColumnFile(File, TupleDesc)}, for a file whose pages are
+     * pageSize bytes long.
+     *
+     * @param pageSize the size of the file's pages, or 0 to use
+     *            {@link BufferPool#getPageSize()}
+     */
+    public ColumnFile(File f, TupleDesc td, int pageSize) {
+        this.file = f;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.channels = new PageChannel[td.numFields()];
+        this.numPages = new int[td.numFields()];
+        try {
+            for (int i = 0; i < channels.length; i++) {
+                File column = columnFile(f, i);
+                column.createNewFile();
+                channels[i] = new PageChannel(column);
+                numPages[i] = (int) (channels[i].size() / getPageSize());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return true if f is the data file of a column file */
+    public static boolean isColumnar(File f) {
+        return columnFile(f, 0).exists();
+    }
+
+    static File columnFile(File f, int column) {
+        return new File(f.getPath() + COLUMN_SUFFIX + column);
+    }
+
+    /** @return the data file the column files are named after */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSize != 0 ? pageSize : BufferPool.getPageSize();
+    }
+
+    /** @return the number of pages of the given column */
+    public synchronized int numPages(int column) {
+        return numPages[column];
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId id) {
+        ColumnPageId pid = (ColumnPageId) id;
+        int column = pid.getColumn();
+        int pgNo = pid.getPageNumber();
+        if (column < 0 || column >= channels.length || pgNo < 0 || pgNo > numPages(column)) {
+            throw new IllegalArgumentException("no page " + pid + " in " + file);
+        }
+        byte[] data = new byte[getPageSize()];
+        try {
+            synchronized (this) {
+                if (pgNo == numPages[column]) {
+                    // the end of the column: a new, empty page
+                    numPages[column]++;
+                    return new ColumnPage(pid, data);
+                }
+            }
+            channels[column].read((long) pgNo * data.length, data);
+            return new ColumnPage(pid, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId pid = (ColumnPageId) page.getId();
+        byte[] data = page.getPageData();
+        channels[pid.getColumn()].write((long) pid.getPageNumber() * data.length, data);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        for (PageChannel channel : channels) {
+            channel.force();
+        }
+    }
+
+    /**
+     * Appends t's values to the last page of each column, moving on to a new
+     * page for columns whose last page is full. The tuple's RecordId points
+     * at its value in the first column.
+     */
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("The tupledesc doesn't match.");
+        }
+        List<Page> pages = new ArrayList<>();
+        for (int c = 0; c < td.numFields(); c++) {
+            Field f = t.getField(c);
+            int pgNo = Math.max(numPages(c) - 1, 0);
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new ColumnPageId(getId(), c, pgNo), Permissions.READ_WRITE);
+            while (!page.canAppend(f)) {
+                page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                        new ColumnPageId(getId(), c, ++pgNo), Permissions.READ_WRITE);
+            }
+            int index = page.append(f);
+            page.markDirty(true, tid);
+            if (c == 0) {
+                t.setRecordId(new RecordId(page.getId(), index));
+            }
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * Appends tuples until one of the columns moves on to a new page, so the
+     * pages of each call are locked once for many tuples.
+     *
+     * @see DbFile#insertTuples
+     */
+    @Override
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples, BufferRing ring)
+            throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> pages = new LinkedHashMap<>();
+        while (tuples.hasNext()) {
+            for (Page page : insertTuple(tid, tuples.next())) {
+                pages.put(page.getId(), page);
+            }
+            if (pages.size() > td.numFields()) {
+                break;
+            }
+        }
+        return new ArrayList<>(pages.values());
+    }
+
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("column files do not support deleting tuples");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = i;
+        }
+        return iterator(tid, columns);
+    }
+
+    /**
+     * Returns an iterator over the rows of this file that reads only the
+     * pages of the given columns. Tuples have this file's TupleDesc, with
+     * only the fields of those columns set; the others are null.
+     *
+     * @param columns the indexes of the columns to read; at least one
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("a scan has to read at least one column");
+        }
+        return new ColumnIterator(tid, columns.clone());
+    }
+
+    /** Reads the given columns side by side, one page of each at a time. */
+    private class ColumnIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private ColumnPage[] pages;
+        private int[] pgNos;
+        private int[] indexes;
+
+        ColumnIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.columns = columns;
+        }
+
+        public void open() {
+            pages = new ColumnPage[columns.length];
+            pgNos = new int[columns.length];
+            Arrays.fill(pgNos, -1);
+            indexes = new int[columns.length];
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (pages == null) {
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            for (int k = 0; k < columns.length; k++) {
+                ColumnPage page = pages[k];
+                while (page == null || indexes[k] >= page.getCount()) {
+                    if (pgNos[k] + 1 >= numPages(columns[k])) {
+                        return null;
+                    }
+                    page = pages[k] = (ColumnPage) Database.getBufferPool().getPage(tid,
+                            new ColumnPageId(getId(), columns[k], ++pgNos[k]), Permissions.READ_ONLY);
+                    indexes[k] = 0;
+                }
+                t.setField(columns[k], page.getField(indexes[k]));
+                if (columns[k] == 0) {
+                    t.setRecordId(new RecordId(page.getId(), indexes[k]));
+                }
+                indexes[k]++;
+            }
+            return t;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            pages = null;
+        }
+    }
+
+    /**
+     * Converts a text file of rows, one per line with fields separated by
+     * fieldSeparator, into the column files of a new column file.
+     *
+     * @param outFile the data file the column files are named after
+     * @param npagebytes the number of bytes per page of the column files
+     * @throws IOException if a file can't be read or written, or a line is
+     *   malformed
+     */
+    public static void convert(File inFile, File outFile, int npagebytes, Type[] typeAr, char fieldSeparator)
+            throws IOException {
+        int n = typeAr.length;
+        ColumnPage[] pages = new ColumnPage[n];
+        OutputStream[] outs = new OutputStream[n];
+        try (BufferedReader br = new BufferedReader(new FileReader(inFile))) {
+            for (int c = 0; c < n; c++) {
+                outs[c] = new BufferedOutputStream(new FileOutputStream(columnFile(outFile, c)));
+                pages[c] = new ColumnPage(null, typeAr[c], npagebytes);
+            }
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+                if (values.length != n)
+                    throw new IOException("expected " + n + " fields: " + line);
+                for (int c = 0; c < n; c++) {
+                    Field f;
+                    String s = values[c].trim();
+                    if (typeAr[c] == Type.INT_TYPE) {
+                        try {
+                            f = new IntField(Integer.parseInt(s));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("BAD LINE : " + line);
+                        }
+                    } else {
+                        f = new StringField(s, Type.STRING_LEN);
+                    }
+                    if (!pages[c].canAppend(f)) {
+                        outs[c].write(pages[c].getPageData());
+                        pages[c] = new ColumnPage(null, typeAr[c], npagebytes);
+                    }
+                    pages[c].append(f);
+                }
+            }
+            for (int c = 0; c < n; c++) {
+                if (pages[c].getCount() > 0)
+                    outs[c].write(pages[c].getPageData());
+            }
+        } finally {
+            for (OutputStream out : outs) {
+                if (out != null)
+                    out.close();
+            }
+        }
+    }
+}
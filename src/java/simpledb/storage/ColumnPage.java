@@ -0,0 +1,460 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A page of one column of a {@link ColumnFile}: a run of consecutive values
+ * of the column, in row order.
+ * <p>
+ * A page starts with its number of values (four bytes) and the encoding of
+ * its values (one byte). Pages of INT_TYPE columns use whichever of these
+ * encodings is smallest for the values they hold:
+ * <ul>
+ * <li>{@link #PLAIN}: four bytes per value.</li>
+ * <li>{@link #RUN_LENGTH}: the number of runs, then a value and a run
+ * length, four bytes each, per run of equal values.</li>
+ * <li>{@link #DICTIONARY}: the number of distinct values and the values
+ * themselves, then the width of a code in bits, then one code per value,
+ * bit-packed, indexing the dictionary.</li>
+ * <li>{@link #FRAME_OF_REFERENCE}: the smallest value, the width in bits of
+ * the difference between the largest and smallest, then each value's
+ * difference from the smallest, bit-packed.</li>
+ * </ul>
+ * Strings are stored PLAIN as a four-byte length followed by the bytes of the
+ * string, without padding.
+ * <p>
+ * The page keeps its values decoded and tracks what each encoding would
+ * take, so appending a value is cheap; the encoding is picked when the page
+ * is serialized.
+ */
+public class ColumnPage implements Page {
+
+    public static final byte PLAIN = 0;
+    public static final byte RUN_LENGTH = 1;
+    public static final byte DICTIONARY = 2;
+    public static final byte FRAME_OF_REFERENCE = 3;
+
+    // value count and encoding
+    static final int HEADER_BYTES = 5;
+
+    final ColumnPageId pid;
+    final Type type;
+    final int pageSize;
+    // at most this many values per page, however well they encode
+    final int maxValues;
+
+    private int count;
+    private int[] ints;
+    private String[] strings;
+    // what the encodings of the values so far take up
+    private long min, max;
+    private int runs;
+    private final Map<Integer, Integer> dictionary = new LinkedHashMap<>();
+    private int stringBytes;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirty;
+    private TransactionId lasttrans;
+
+    /**
+     * Create a ColumnPage from the bytes of a page read from disk. The type
+     * of its values is the type of its column in the Catalog.
+     *
+     * @see ColumnFile#getPageSize()
+     * @throws IOException if the page's bytes are not a valid column page
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn()),
+                data.length);
+        decode(data);
+        setBeforeImage();
+    }
+
+    /** Create an empty page for values of the given type. */
+    ColumnPage(ColumnPageId id, Type type, int pageSize) {
+        this.pid = id;
+        this.type = type;
+        this.pageSize = pageSize;
+        this.maxValues = pageSize;
+        if (type == Type.INT_TYPE) {
+            ints = new int[16];
+        } else {
+            strings = new String[16];
+        }
+    }
+
+    /** @return the number of values on this page */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /** @return the value at index i of this page, as a field of the column's type */
+    public synchronized Field getField(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("no value " + i + " on " + pid);
+        }
+        if (type == Type.INT_TYPE) {
+            return new IntField(ints[i]);
+        }
+        if (type == Type.VARCHAR_TYPE) {
+            return new VarStringField(strings[i]);
+        }
+        return new StringField(strings[i], Type.STRING_LEN);
+    }
+
+    /** @return true if f can be appended without overflowing the page */
+    public synchronized boolean canAppend(Field f) {
+        if (count == 0) {
+            return true;
+        }
+        if (count >= maxValues) {
+            return false;
+        }
+        if (type != Type.INT_TYPE) {
+            return HEADER_BYTES + stringBytes + stringSize(f) <= pageSize;
+        }
+        int v = ((IntField) f).getValue();
+        int n = count + 1;
+        int newRuns = runs + (ints[count - 1] == v ? 0 : 1);
+        int distinct = dictionary.size() + (dictionary.containsKey(v) ? 0 : 1);
+        return smallestSize(n, Math.min(min, v), Math.max(max, v), newRuns, distinct) <= pageSize;
+    }
+
+    /**
+     * Appends f to this page. The caller checks {@link #canAppend} first.
+     *
+     * @return the index of the new value on the page
+     */
+    public synchronized int append(Field f) {
+        if (type == Type.INT_TYPE) {
+            if (count == ints.length) {
+                ints = Arrays.copyOf(ints, count * 2);
+            }
+            int v = ((IntField) f).getValue();
+            track(v);
+            ints[count] = v;
+        } else {
+            if (count == strings.length) {
+                strings = Arrays.copyOf(strings, count * 2);
+            }
+            String s = ((StringField) f).getValue();
+            stringBytes += stringSize(f);
+            strings[count] = s;
+        }
+        return count++;
+    }
+
+    /** Updates the encoding statistics for v, appended after the current values. */
+    private void track(int v) {
+        if (count == 0) {
+            min = max = v;
+            runs = 1;
+        } else {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            if (ints[count - 1] != v) {
+                runs++;
+            }
+        }
+        dictionary.putIfAbsent(v, dictionary.size());
+    }
+
+    private static int stringSize(Field f) {
+        return 4 + ((StringField) f).getValue().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /** @return the number of bits needed to store values from 0 to x */
+    static int bits(long x) {
+        return 64 - Long.numberOfLeadingZeros(x);
+    }
+
+    /** @return the bytes n values of the given width take when bit-packed */
+    static long packedSize(int n, int bits) {
+        return ((long) n * bits + 7) / 8;
+    }
+
+    static long encodedSize(byte encoding, int n, long min, long max, int runs, int distinct) {
+        switch (encoding) {
+        case RUN_LENGTH:
+            return HEADER_BYTES + 4 + 8L * runs;
+        case DICTIONARY:
+            return HEADER_BYTES + 4 + 4L * distinct + 1 + packedSize(n, bits(distinct - 1));
+        case FRAME_OF_REFERENCE:
+            return HEADER_BYTES + 4 + 1 + packedSize(n, bits(max - min));
+        default:
+            return HEADER_BYTES + 4L * n;
+        }
+    }
+
+    private static byte smallestEncoding(int n, long min, long max, int runs, int distinct) {
+        byte best = PLAIN;
+        for (byte e : new byte[] {FRAME_OF_REFERENCE, DICTIONARY, RUN_LENGTH}) {
+            if (encodedSize(e, n, min, max, runs, distinct) < encodedSize(best, n, min, max, runs, distinct)) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    private static long smallestSize(int n, long min, long max, int runs, int distinct) {
+        return encodedSize(smallestEncoding(n, min, max, runs, distinct), n, min, max, runs, distinct);
+    }
+
+    /** @return the encoding {@link #getPageData()} uses for the current values */
+    public synchronized byte getEncoding() {
+        if (type != Type.INT_TYPE || count == 0) {
+            return PLAIN;
+        }
+        return smallestEncoding(count, min, max, runs, dictionary.size());
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public synchronized byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        ByteBuffer out = ByteBuffer.wrap(data);
+        byte encoding = getEncoding();
+        out.putInt(count);
+        out.put(encoding);
+        if (type != Type.INT_TYPE) {
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = strings[i].getBytes(StandardCharsets.UTF_8);
+                out.putInt(bytes.length);
+                out.put(bytes);
+            }
+            return data;
+        }
+        switch (encoding) {
+        case RUN_LENGTH:
+            out.putInt(runs);
+            for (int i = 0; i < count; ) {
+                int j = i;
+                while (j < count && ints[j] == ints[i]) {
+                    j++;
+                }
+                out.putInt(ints[i]);
+                out.putInt(j - i);
+                i = j;
+            }
+            break;
+        case DICTIONARY: {
+            out.putInt(dictionary.size());
+            for (int v : dictionary.keySet()) {
+                out.putInt(v);
+            }
+            int width = bits(dictionary.size() - 1);
+            out.put((byte) width);
+            BitPacker packer = new BitPacker(out, width);
+            for (int i = 0; i < count; i++) {
+                packer.put(dictionary.get(ints[i]));
+            }
+            packer.flush();
+            break;
+        }
+        case FRAME_OF_REFERENCE: {
+            out.putInt((int) min);
+            int width = bits(max - min);
+            out.put((byte) width);
+            BitPacker packer = new BitPacker(out, width);
+            for (int i = 0; i < count; i++) {
+                packer.put(ints[i] - min);
+            }
+            packer.flush();
+            break;
+        }
+        default:
+            for (int i = 0; i < count; i++) {
+                out.putInt(ints[i]);
+            }
+        }
+        return data;
+    }
+
+    private void decode(byte[] data) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            int n = in.getInt();
+            byte encoding = in.get();
+            if (n < 0 || n > maxValues) {
+                throw new IOException(pid + " has a bad value count " + n);
+            }
+            if (type != Type.INT_TYPE) {
+                if (encoding != PLAIN) {
+                    throw new IOException(pid + " has an unknown encoding " + encoding);
+                }
+                for (int i = 0; i < n; i++) {
+                    int len = in.getInt();
+                    if (len < 0 || len > in.remaining()) {
+                        throw new IOException(pid + " is truncated");
+                    }
+                    byte[] bytes = new byte[len];
+                    in.get(bytes);
+                    append(new StringField(new String(bytes, StandardCharsets.UTF_8), Type.STRING_LEN));
+                }
+                return;
+            }
+            int[] values = new int[n];
+            switch (encoding) {
+            case PLAIN:
+                for (int i = 0; i < n; i++) {
+                    values[i] = in.getInt();
+                }
+                break;
+            case RUN_LENGTH: {
+                int numRuns = in.getInt();
+                for (int r = 0, i = 0; r < numRuns; r++) {
+                    int v = in.getInt();
+                    int len = in.getInt();
+                    if (len < 0 || len > n - i) {
+                        throw new IOException(pid + " has a bad run length " + len);
+                    }
+                    Arrays.fill(values, i, i + len, v);
+                    i += len;
+                }
+                break;
+            }
+            case DICTIONARY: {
+                int distinct = in.getInt();
+                if (distinct < 0 || distinct > n) {
+                    throw new IOException(pid + " has a bad dictionary size " + distinct);
+                }
+                int[] dict = new int[distinct];
+                for (int i = 0; i < distinct; i++) {
+                    dict[i] = in.getInt();
+                }
+                BitUnpacker unpacker = new BitUnpacker(in, in.get());
+                for (int i = 0; i < n; i++) {
+                    long code = unpacker.get();
+                    if (code >= distinct) {
+                        throw new IOException(pid + " has a bad dictionary code " + code);
+                    }
+                    values[i] = dict[(int) code];
+                }
+                break;
+            }
+            case FRAME_OF_REFERENCE: {
+                long base = in.getInt();
+                BitUnpacker unpacker = new BitUnpacker(in, in.get());
+                for (int i = 0; i < n; i++) {
+                    values[i] = (int) (base + unpacker.get());
+                }
+                break;
+            }
+            default:
+                throw new IOException(pid + " has an unknown encoding " + encoding);
+            }
+            for (int v : values) {
+                append(new IntField(v));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException(pid + " is truncated");
+        }
+    }
+
+    /** Writes values of a fixed number of bits, low bits first. */
+    private static class BitPacker {
+        private final ByteBuffer out;
+        private final int width;
+        private long acc;
+        private int filled;
+
+        BitPacker(ByteBuffer out, int width) {
+            this.out = out;
+            this.width = width;
+        }
+
+        void put(long v) {
+            acc |= (v & ((1L << width) - 1)) << filled;
+            filled += width;
+            while (filled >= 8) {
+                out.put((byte) acc);
+                acc >>>= 8;
+                filled -= 8;
+            }
+        }
+
+        void flush() {
+            if (filled > 0) {
+                out.put((byte) acc);
+            }
+        }
+    }
+
+    /** Reads values written by a BitPacker. */
+    private static class BitUnpacker {
+        private final ByteBuffer in;
+        private final int width;
+        private long acc;
+        private int available;
+
+        BitUnpacker(ByteBuffer in, int width) throws IOException {
+            if (width < 0 || width > 32) {
+                throw new IOException("bad bit width " + width);
+            }
+            this.in = in;
+            this.width = width;
+        }
+
+        long get() {
+            while (available < width) {
+                acc |= (long) (in.get() & 0xff) << available;
+                available += 8;
+            }
+            long v = acc & ((1L << width) - 1);
+            acc >>>= width;
+            available -= width;
+            return v;
+        }
+    }
+
+    public ColumnPage getBeforeImage() {
+        byte[] before;
+        synchronized (oldDataLock) {
+            before = oldData;
+        }
+        try {
+            return new ColumnPage(pid, type, pageSize).load(before);
+        } catch (IOException e) {
+            // the before image was produced by getPageData
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ColumnPage load(byte[] data) throws IOException {
+        decode(data);
+        setBeforeImage();
+        return this;
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) {
+            this.lasttrans = tid;
+        }
+    }
+
+    public synchronized TransactionId isDirty() {
+        return dirty ? lasttrans : null;
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.storage;
+
+import java.util.Objects;
+
+/** Unique identifier for ColumnPage objects. */
+public class ColumnPageId implements PageId {
+
+    final int tableId;
+    final int column;
+    final int pageNum;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of one
+     * column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column  The index of the column in the table's TupleDesc
+     * @param pgNo    The page number among the pages of that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNum = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /** @return the column of the table this page holds values of */
+    public int getColumn() {
+        return this.column;
+    }
+
+    /**
+     * @return the page number among the pages of this PageId's column
+     */
+    public int getPageNumber() {
+        return this.pageNum;
+    }
+
+    public int hashCode() {
+        return Objects.hash(this.tableId, this.column, this.pageNum);
+    }
+
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (o instanceof ColumnPageId) {
+            ColumnPageId other = (ColumnPageId) o;
+            return other.tableId == this.tableId && other.column == this.column
+                    && other.pageNum == this.pageNum;
+        }
+        return false;
+    }
+
+    /**
+     * Return a representation of this object as an array of integers, for
+     * writing to disk: the table, the column and the page number.
+     */
+    public int[] serialize() {
+        return new int[] {tableId, column, pageNum};
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pageNum + ")";
+    }
+}
@@ -0,0 +1,248 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A HeapFile whose pages are compressed on disk with {@link Lz4Codec}.
+ * <p>
+ * Pages are the same HeapPages as in a plain HeapFile once in memory; only
+ * their on-disk form differs. Each page is compressed when it is written and
+ * stored as a variable-length extent of the data file. A page directory,
+ * kept in a sidecar file named after the data file with
+ * {@link #DIRECTORY_SUFFIX} appended, maps page numbers to extents. Each
+ * entry holds the extent's offset, its compressed length and the space
+ * reserved for it. Pages that do not compress are stored as is, which the
+ * directory records as a length of one full page.
+ * <p>
+ * A rewritten page stays in its extent if it still fits, and is otherwise
+ * moved to a new extent at the end of the file. Extents reserve some slack
+ * so small changes do not move pages. The space of a moved page is not
+ * reused.
+ *
+ * @see HeapFileEncoder#convert(File, File, int, int, simpledb.common.Type[], char, boolean)
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Appended to the data file's name to name the page directory. */
+    public static final String DIRECTORY_SUFFIX = ".pgdir";
+
+    // offset, compressed length and reserved length of each page's extent
+    static final int ENTRY_BYTES = 16;
+    // extents are reserved in multiples of this many bytes
+    static final int EXTENT_ALIGN = 64;
+
+    private final PageChannel directory;
+    private long[] offsets = new long[16];
+    private int[] lengths = new int[16];
+    private int[] capacities = new int[16];
+    private int entries = 0;
+    // end of the last extent; new extents go here
+    private long end = 0;
+
+    /**
+     * Opens a compressed heap file, or creates an empty one if f does not
+     * exist yet.
+     *
+     * @param f the data file; its page directory is expected next to it
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, 0);
+    }
+
+    /**
+     * Like {@link #CompressedHeapFile(File, TupleDesc)}, for a file whose
+     * pages are pageSize bytes long before compression.
+     *
+     * @param pageSize the size of the file's pages, or 0 to use
+     *            {@link BufferPool#getPageSize()}
+     */
+    public CompressedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+        this.directory = new PageChannel(directoryFile(f));
+        try {
+            loadDirectory();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.numPage = entries;
+    }
+
+    /** @return true if f is the data file of a compressed heap file */
+    public static boolean isCompressed(File f) {
+        return directoryFile(f).exists();
+    }
+
+    static File directoryFile(File f) {
+        return new File(f.getPath() + DIRECTORY_SUFFIX);
+    }
+
+    private void loadDirectory() throws IOException {
+        int n = (int) (directory.size() / ENTRY_BYTES);
+        if (n == 0) {
+            return;
+        }
+        byte[] raw = new byte[n * ENTRY_BYTES];
+        directory.read(0, raw);
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            offsets[i] = buf.getLong();
+            lengths[i] = buf.getInt();
+            capacities[i] = buf.getInt();
+            if (offsets[i] >= 0) {
+                end = Math.max(end, offsets[i] + capacities[i]);
+            }
+        }
+        entries = n;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > offsets.length) {
+            int size = Math.max(n, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+            capacities = Arrays.copyOf(capacities, size);
+        }
+    }
+
+    static byte[] compressPage(byte[] data) {
+        byte[] packed = Lz4Codec.compress(data);
+        return packed.length < data.length ? packed : data;
+    }
+
+    static int extentCapacity(int length, int pageSize) {
+        // leave room for the page to grow a little in place
+        int wanted = length + length / 8;
+        int aligned = (wanted + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+        return Math.min(aligned, pageSize);
+    }
+
+    static byte[] entry(long offset, int length, int capacity) {
+        return ByteBuffer.allocate(ENTRY_BYTES).putLong(offset).putInt(length).putInt(capacity).array();
+    }
+
+    @Override
+    int readPageData(int pgNo, byte[] buf) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            if (pgNo >= entries || offsets[pgNo] < 0) {
+                return -1;
+            }
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+        }
+        if (length == buf.length) {
+            if (channel.read(offset, buf) < length) {
+                throw new IOException("extent of page " + pgNo + " is truncated");
+            }
+            return length;
+        }
+        byte[] packed = new byte[length];
+        if (channel.read(offset, packed) < length) {
+            throw new IOException("extent of page " + pgNo + " is truncated");
+        }
+        Lz4Codec.decompress(packed, 0, length, buf);
+        return buf.length;
+    }
+
+    @Override
+    void writePageData(int pgNo, byte[] data) throws IOException {
+        byte[] packed = compressPage(data);
+        synchronized (this) {
+            boolean fresh = pgNo >= entries;
+            ensureCapacity(pgNo + 1);
+            for (int i = entries; i < pgNo; i++) {
+                // pages skipped over have not been written yet
+                offsets[i] = -1;
+                lengths[i] = 0;
+                capacities[i] = 0;
+                directory.write((long) i * ENTRY_BYTES, entry(-1, 0, 0));
+            }
+            entries = Math.max(entries, pgNo + 1);
+            if (fresh || offsets[pgNo] < 0 || capacities[pgNo] < packed.length) {
+                capacities[pgNo] = extentCapacity(packed.length, data.length);
+                offsets[pgNo] = end;
+                end += capacities[pgNo];
+            }
+            lengths[pgNo] = packed.length;
+            channel.write(offsets[pgNo], packed);
+            directory.write((long) pgNo * ENTRY_BYTES, entry(offsets[pgNo], lengths[pgNo], capacities[pgNo]));
+        }
+    }
+
+    @Override
+    List<Page> readPages(int pgNo, int count) throws IOException {
+        List<Page> pages = new ArrayList<>();
+        byte[] buf = new byte[getPageSize()];
+        for (int i = pgNo; i >= 0 && i < Math.min(pgNo + count, numPages()); i++) {
+            if (readPageData(i, buf) == -1) {
+                break;
+            }
+            pages.add(new HeapPage(new HeapPageId(getId(), i), buf));
+        }
+        return pages;
+    }
+
+    @Override
+    Page readPage(PageId pid, ByteBuffer frame) {
+        // pages are decompressed onto the heap; the frame goes unused
+        return readPage(pid);
+    }
+
+    /**
+     * Compressed pages cannot be mapped, so this only accepts false.
+     *
+     * @throws UnsupportedOperationException if memoryMapped is true
+     */
+    @Override
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        if (memoryMapped) {
+            throw new UnsupportedOperationException("compressed heap files cannot be memory-mapped");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void sync() throws IOException {
+        super.sync();
+        directory.force();
+    }
+
+    /**
+     * Writes a compressed copy of the plain heap file raw to out, replacing
+     * out and its page directory if they exist.
+     *
+     * @param pageSize the page size raw was written with
+     */
+    public static void convert(File raw, File out, int pageSize) throws IOException {
+        File dirFile = directoryFile(out);
+        out.delete();
+        dirFile.delete();
+        PageChannel in = new PageChannel(raw);
+        PageChannel data = new PageChannel(out);
+        PageChannel dir = new PageChannel(dirFile);
+        try {
+            byte[] buf = new byte[pageSize];
+            long end = 0;
+            for (int pgNo = 0; in.read((long) pgNo * pageSize, buf) == pageSize; pgNo++) {
+                byte[] packed = compressPage(buf);
+                int capacity = extentCapacity(packed.length, pageSize);
+                data.write(end, packed);
+                dir.write((long) pgNo * ENTRY_BYTES, entry(end, packed.length, capacity));
+                end += capacity;
+            }
+            // an empty table still gets a directory, which marks it compressed
+            dir.write(0, new byte[0]);
+        } finally {
+            in.close();
+            data.close();
+            dir.close();
+        }
+    }
+}
@@ -33,6 +33,27 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Forces the pages written with {@link #writePage} to disk. writePage
+     * does not have to sync on its own, so callers that need the data to be
+     * durable call this once after writing their pages.
+     *
+     * @throws IOException if the sync fails
+     */
+    default void sync() throws IOException {
+    }
+
+    /**
+     * Returns the size in bytes of this file's pages. Files that do not
+     * choose their own page size use the BufferPool's, which also applies to
+     * the log and to B+trees.
+     *
+     * @see BufferPool#getPageSize()
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -48,6 +69,39 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Like {@link #insertTuple(TransactionId, Tuple)}, but pages that are only
+     * read while looking for free space go through the given ring. Files that
+     * do not support rings ignore it.
+     *
+     * @param ring the ring to read through, or null
+     * @see BufferRing
+     */
+    default List<Page> insertTuple(TransactionId tid, Tuple t, BufferRing ring)
+        throws DbException, IOException, TransactionAbortedException {
+        return insertTuple(tid, t);
+    }
+
+    /**
+     * Inserts tuples taken from the given iterator for a bulk load. Each
+     * call inserts at least one tuple, if any remain, and may go on to
+     * insert more as long as they fit on the pages it has already locked.
+     * The caller registers the returned pages with the BufferPool and calls
+     * again while tuples remain. By default one tuple is inserted per call.
+     *
+     * @param tuples the tuples to insert; those inserted are consumed
+     * @param ring the ring to read through, or null
+     * @return the pages that were modified
+     * @see BufferPool#insertTuples
+     */
+    default List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples, BufferRing ring)
+        throws DbException, IOException, TransactionAbortedException {
+        if (!tuples.hasNext()) {
+            return new ArrayList<>();
+        }
+        return insertTuple(tid, tuples.next(), ring);
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -73,6 +127,18 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that
+     * reads pages missing from the BufferPool through the given ring instead
+     * of caching them. Files that do not support rings ignore it.
+     *
+     * @param ring the ring to read through, or null
+     * @see BufferRing
+     */
+    default DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,60 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which cached page the BufferPool gives up when it
+ * needs a free frame. The BufferPool reports every page it caches, touches
+ * and drops; the policy only tracks PageIds and never holds on to pages.
+ * <p>
+ * Implementations are not thread-safe. The BufferPool only calls them while
+ * holding the lock that protects its page table.
+ *
+ * @see BufferPool
+ * @see LruKEvictionPolicy
+ * @see ClockProEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Creates a policy for a buffer pool (or part of one) that holds at most
+     * capacity pages.
+     */
+    interface Factory {
+        EvictionPolicy create(int capacity);
+    }
+
+    /**
+     * Called when a page that was not cached is added to the pool.
+     *
+     * @param pid the id of the page that is now resident
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Called when a page that is already cached is requested again.
+     *
+     * @param pid the id of the page that was hit
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the pool for a reason other than eviction
+     * (e.g. the B+ tree freed it). The policy should forget everything it
+     * knows about the page.
+     *
+     * @param pid the id of the page that was dropped
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page to evict. Only pages accepted by evictable may be
+     * returned; the BufferPool uses it to protect dirty pages. The returned
+     * page is considered evicted by the policy, so the caller must drop it
+     * without calling {@link #pageRemoved}.
+     *
+     * @param evictable tells whether a cached page may be evicted right now
+     * @return the victim, or null if no cached page can be evicted
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+}
@@ -0,0 +1,147 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A persistent free-space map of a HeapFile: one bit per page that is set
+ * while the page may have an empty slot.
+ * <p>
+ * The map lets inserts go straight to a page with room instead of locking
+ * every page from the start of the file. It is only a hint. Callers check
+ * the page itself and clear its bit with {@link #setFree} when it turns out
+ * to be full, so a stale map costs at most a wasted page visit and never
+ * correctness.
+ * <p>
+ * The map is kept next to the heap file in a sidecar file, named after it
+ * with {@link #SUFFIX} appended, holding the number of pages covered
+ * followed by the bitmap. {@link #save} writes back only the bytes changed
+ * since the last save. A sidecar that is missing, older than the heap file,
+ * or does not cover the same number of pages is rebuilt from the page
+ * headers.
+ */
+class FreeSpaceMap {
+
+    /** Appended to the heap file's name to name the sidecar file. */
+    static final String SUFFIX = ".fsm";
+
+    /** Size of the page count that precedes the bitmap in the sidecar. */
+    private static final int HEADER_BYTES = 4;
+
+    /** Number of pages read at once while rebuilding the map. */
+    private static final int REBUILD_BATCH = 64;
+
+    private final PageChannel sidecar;
+    private final BitSet free = new BitSet();
+    // number of pages the map knows about; later pages may have free space
+    private int numPages;
+    // range of bitmap bytes changed since the last save, or lo > hi
+    private int dirtyLo = Integer.MAX_VALUE;
+    private int dirtyHi = -1;
+    private boolean headerDirty = false;
+
+    private FreeSpaceMap(File sidecar) {
+        this.sidecar = new PageChannel(sidecar);
+    }
+
+    /**
+     * Loads the map of the given file from its sidecar, or rebuilds it from
+     * the file's pages if the sidecar is missing or out of date.
+     */
+    static FreeSpaceMap load(HeapFile file) throws IOException {
+        File sidecar = new File(file.getFile().getPath() + SUFFIX);
+        FreeSpaceMap map = new FreeSpaceMap(sidecar);
+        int filePages = file.numPages();
+        // a heap file written after its map was saved was written without it
+        boolean current = sidecar.lastModified() >= file.getFile().lastModified();
+        if (!current || !map.read(filePages)) {
+            map.rebuild(file, filePages);
+        }
+        return map;
+    }
+
+    private boolean read(int filePages) throws IOException {
+        if (sidecar.size() < HEADER_BYTES) {
+            return false;
+        }
+        byte[] header = new byte[HEADER_BYTES];
+        sidecar.read(0, header);
+        int pages = ByteBuffer.wrap(header).getInt();
+        byte[] bits = new byte[(pages + 7) / 8];
+        if (pages != filePages || sidecar.read(HEADER_BYTES, bits) < bits.length) {
+            return false;
+        }
+        free.or(BitSet.valueOf(bits));
+        numPages = pages;
+        return true;
+    }
+
+    private void rebuild(HeapFile file, int filePages) throws IOException {
+        for (int pgNo = 0; pgNo < filePages; pgNo += REBUILD_BATCH) {
+            List<Page> pages = file.readPages(pgNo, REBUILD_BATCH);
+            for (int i = 0; i < pages.size(); i++) {
+                free.set(pgNo + i, ((HeapPage) pages.get(i)).getNumEmptySlots() > 0);
+            }
+            // pages not on disk yet are treated as having room
+            free.set(pgNo + pages.size(), Math.min(pgNo + REBUILD_BATCH, filePages));
+        }
+        numPages = filePages;
+        headerDirty = true;
+        markDirty(0, numPages);
+    }
+
+    /**
+     * @return the first page at or after pgNo that may have an empty slot,
+     *         or pgNo itself if it is past the pages the map knows about
+     */
+    synchronized int nextFreePage(int pgNo) {
+        int next = free.nextSetBit(pgNo);
+        return next == -1 || next >= numPages ? Math.max(pgNo, numPages) : next;
+    }
+
+    /** Records whether page pgNo may have an empty slot. */
+    synchronized void setFree(int pgNo, boolean hasSpace) {
+        // rewrite the header on save so the sidecar stays newer than the file
+        headerDirty = true;
+        if (pgNo >= numPages) {
+            // pages between the old end and pgNo have never been seen
+            free.set(numPages, pgNo);
+            markDirty(numPages, pgNo + 1);
+            numPages = pgNo + 1;
+        } else if (free.get(pgNo) == hasSpace) {
+            return;
+        }
+        free.set(pgNo, hasSpace);
+        markDirty(pgNo, pgNo + 1);
+    }
+
+    private void markDirty(int fromPage, int toPage) {
+        if (fromPage < toPage) {
+            dirtyLo = Math.min(dirtyLo, fromPage / 8);
+            dirtyHi = Math.max(dirtyHi, (toPage - 1) / 8);
+        }
+    }
+
+    /**
+     * Writes the parts of the map changed since the last save to the
+     * sidecar. The sidecar is not forced to disk; after a crash it is
+     * rebuilt if it no longer matches the heap file.
+     */
+    synchronized void save() throws IOException {
+        if (dirtyLo <= dirtyHi) {
+            byte[] bits = free.get(dirtyLo * 8, (dirtyHi + 1) * 8).toByteArray();
+            byte[] range = Arrays.copyOf(bits, dirtyHi - dirtyLo + 1);
+            sidecar.write(HEADER_BYTES + dirtyLo, range);
+            dirtyLo = Integer.MAX_VALUE;
+            dirtyHi = -1;
+        }
+        if (headerDirty) {
+            sidecar.write(0, ByteBuffer.allocate(HEADER_BYTES).putInt(numPages).array());
+            headerDirty = false;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Group commit for a LogFile: transactions that need their log records, or
+ * the pages they wrote, on disk at the same time share the fsyncs.
+ * <p>
+ * Each caller of {@link #await} queues a request. The first caller to find
+ * no leader becomes the leader. It waits for the group window so more
+ * requests can join, then takes the whole queue, syncs every file named in
+ * it once and forces the log once. Then it wakes all the members. Requests
+ * that arrive while a leader is syncing queue up for the next group, so
+ * under load every fsync serves many transactions even with a window of
+ * zero.
+ */
+class GroupCommit {
+
+    private static class Request {
+        final int record;
+        final Collection<? extends DbFile> files;
+        boolean done = false;
+        IOException error;
+
+        Request(int record, Collection<? extends DbFile> files) {
+            this.record = record;
+            this.files = files;
+        }
+    }
+
+    private final LogFile log;
+    private volatile long windowMicros = 0;
+    private List<Request> queue = new ArrayList<>();
+    private boolean leading = false;
+    private long groups = 0;
+
+    GroupCommit(LogFile log) {
+        this.log = log;
+    }
+
+    void setWindowMicros(long windowMicros) {
+        this.windowMicros = windowMicros;
+    }
+
+    long getWindowMicros() {
+        return windowMicros;
+    }
+
+    /** @return the number of groups synced so far */
+    synchronized long getNumGroups() {
+        return groups;
+    }
+
+    /**
+     * Returns once the first record log records are forced and the given
+     * files are synced. Must not be called while holding the LogFile's
+     * monitor, which the leader needs to force the log.
+     *
+     * @param record number of log records, as counted by
+     *               {@link LogFile#getTotalRecords}, that must be durable
+     * @param files  files to sync
+     */
+    void await(int record, Collection<? extends DbFile> files) throws IOException {
+        if (record <= log.getForcedRecords() && files.isEmpty()) {
+            return;
+        }
+        Request request = new Request(record, files);
+        boolean leader;
+        synchronized (this) {
+            queue.add(request);
+            while (!request.done && leading) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for group commit");
+                }
+            }
+            leader = !request.done;
+            if (leader) {
+                leading = true;
+            }
+        }
+        if (leader) {
+            try {
+                lead();
+            } finally {
+                synchronized (this) {
+                    leading = false;
+                    notifyAll();
+                }
+            }
+        }
+        if (request.error != null) {
+            throw request.error;
+        }
+    }
+
+    private void lead() {
+        long window = windowMicros;
+        if (window > 0) {
+            LockSupport.parkNanos(window * 1000);
+        }
+        List<Request> group;
+        synchronized (this) {
+            group = queue;
+            queue = new ArrayList<>();
+        }
+        Set<DbFile> files = new LinkedHashSet<>();
+        int record = 0;
+        for (Request r : group) {
+            files.addAll(r.files);
+            record = Math.max(record, r.record);
+        }
+        IOException error = null;
+        try {
+            for (DbFile f : files) {
+                f.sync();
+            }
+            if (record > log.getForcedRecords()) {
+                log.force();
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            for (Request r : group) {
+                r.error = error;
+                r.done = true;
+            }
+            groups++;
+        }
+    }
+}
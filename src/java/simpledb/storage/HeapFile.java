@@ -4,14 +4,17 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
-import java.util.concurrent.locks.Lock;  
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -30,7 +33,19 @@ public class HeapFile implements DbFile {
 
     File file;
     TupleDesc td;
-    int numPage;
+    volatile int numPage;
+    volatile boolean readAhead = false;
+    final PageChannel channel;
+    volatile PageMapping mapping;
+    private FreeSpaceMap freeSpace;
+    private ZoneMap zones;
+    // ranges of the tuples inserted while zones is not loaded yet
+    private ZoneMap pendingZones;
+    // 0 to use the BufferPool's page size
+    private final int pageSize;
+    // counts page writes; each written page keeps the count of its last one
+    private final AtomicLong writeClock = new AtomicLong();
+    private final Map<Integer, Long> lastWritten = new ConcurrentHashMap<>();
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -39,9 +54,26 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, 0);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages are
+     * pageSize bytes long, e.g. larger than the BufferPool's for tables that
+     * are mostly scanned.
+     *
+     * @param pageSize the size of the file's pages, or 0 to use
+     *            {@link BufferPool#getPageSize()}
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("negative page size " + pageSize);
+        }
         this.file = f;
         this.td = td;
-        this.numPage = (int) file.length() / BufferPool.getPageSize();
+        this.pageSize = pageSize;
+        this.numPage = (int) (file.length() / getPageSize());
+        this.channel = new PageChannel(f);
         // some code goes here
     }
 
@@ -79,11 +111,17 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    // see DbFile.java for javadocs
+    @Override
+    public int getPageSize() {
+        return pageSize != 0 ? pageSize : BufferPool.getPageSize();
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) throws IllegalArgumentException{
         // some code goes here
         
-        int pageSize = Database.getBufferPool().getPageSize();
+        int pageSize = getPageSize();
         int pgNo = pid.getPageNumber();
         byte[] buf = new byte[pageSize];
 
@@ -93,39 +131,259 @@ public class HeapFile implements DbFile {
         }
 
         try {
-            HeapPage heapPage = new HeapPage((HeapPageId)pid, HeapPage.createEmptyPageData());
-            if (pgNo == numPages()){ // pid reaches the end of this file. Create an empty page
-                numPage += 1;
-                return heapPage;
+            HeapPage heapPage = new HeapPage((HeapPageId)pid, HeapPage.createEmptyPageData(pageSize));
+            synchronized (this) {
+                if (pgNo == numPages()){ // pid reaches the end of this file. Create an empty page
+                    numPage += 1;
+                    return heapPage;
+                }
+            }
+            PageMapping m = mapping;
+            if (m != null) {
+                ByteBuffer mapped = m.page(pgNo);
+                if (mapped != null) {
+                    return new HeapPage((HeapPageId) pid, mapped);
+                }
             }
             // read file
-            RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "r");
-            randomAccessFile.seek(pgNo * pageSize);
-            if(randomAccessFile.read(buf)==-1){
-                randomAccessFile.close();
+            if (readPageData(pgNo, buf) == -1){
                 return heapPage;
             }
 
             heapPage = new HeapPage((HeapPageId) pid, buf);
-            randomAccessFile.close();
             return heapPage;
         } catch (IOException e){
             throw new RuntimeException(e);        
         }
     }
 
+    /**
+     * Reads the on-disk bytes of page pgNo into buf, which is one page long.
+     *
+     * @return the number of bytes read, or -1 if the page is not on disk
+     */
+    int readPageData(int pgNo, byte[] buf) throws IOException {
+        return channel.read((long) pgNo * buf.length, buf);
+    }
+
+    /** Writes the bytes of page pgNo to disk. */
+    void writePageData(int pgNo, byte[] data) throws IOException {
+        channel.write((long) pgNo * data.length, data);
+        // stamped once the bytes are written, so a read that saw the old
+        // bytes took its stamp before this one
+        lastWritten.put(pgNo, writeClock.incrementAndGet());
+    }
+
+    /**
+     * Returns a stamp to take before reading pages without a lock, e.g.
+     * ahead of a scan, for {@link #writtenSince}.
+     */
+    public long writeStamp() {
+        return writeClock.get();
+    }
+
+    /**
+     * @return true if page pgNo was written after the given stamp was
+     *         taken, so a copy read since may be out of date
+     */
+    public boolean writtenSince(int pgNo, long stamp) {
+        return lastWritten.getOrDefault(pgNo, 0L) > stamp;
+    }
+
+    /**
+     * Reads a page into a frame of the BufferPool's off-heap arena. Pages
+     * that are not fully on disk yet, or files that are memory-mapped, are
+     * read as usual, and the frame is not used.
+     *
+     * @see PageArena
+     */
+    Page readPage(PageId pid, ByteBuffer frame) {
+        int pgNo = pid.getPageNumber();
+        int pageSize = getPageSize();
+        if (mapping == null && frame.capacity() == pageSize && pgNo >= 0 && pgNo < numPages()) {
+            try {
+                if (channel.read((long) pgNo * pageSize, frame.duplicate()) == pageSize) {
+                    return HeapPage.inFrame((HeapPageId) pid, frame);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return readPage(pid);
+    }
+
+    /**
+     * Reads up to count consecutive pages starting at page pgNo with a single
+     * read, for sequential read-ahead. Pages past the end of the file are not
+     * returned.
+     */
+    List<Page> readPages(int pgNo, int count) throws IOException {
+        int pageSize = getPageSize();
+        int n = Math.min(count, numPages() - pgNo);
+        List<Page> pages = new ArrayList<>();
+        if (pgNo < 0 || n <= 0) {
+            return pages;
+        }
+        byte[] buf = new byte[n * pageSize];
+        int read = Math.max(channel.read((long) pgNo * pageSize, buf), 0);
+        // pages not written to disk yet are left to readPage
+        for (int i = 0; i < read / pageSize; i++) {
+            HeapPageId pid = new HeapPageId(getId(), pgNo + i);
+            pages.add(new HeapPage(pid, Arrays.copyOfRange(buf, i * pageSize, (i + 1) * pageSize)));
+        }
+        return pages;
+    }
+
+    /**
+     * Turns sequential read-ahead on or off for scans of this file. Scans
+     * that are already open keep their setting.
+     *
+     * @see ReadAhead
+     */
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    public boolean isReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Turns memory-mapped reads on or off. While on, pages are built
+     * directly from a read-only mapping of the file instead of being copied
+     * into a byte array, so repeated reads of a hot, read-mostly table are
+     * served from the OS page cache without a system call per page. Writes
+     * still go through the file's channel and are visible in the mapping.
+     *
+     * @see PageMapping
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        if (memoryMapped && mapping == null) {
+            mapping = new PageMapping(channel, getPageSize());
+        } else if (!memoryMapped) {
+            mapping = null;
+        }
+    }
+
+    public boolean isMemoryMapped() {
+        return mapping != null;
+    }
+
+    /**
+     * Returns the sidecar files kept next to this file, its free-space map
+     * and zone map, whether they exist yet or not. Both are rebuilt from
+     * the file's pages when missing.
+     */
+    public List<File> sideFiles() {
+        String path = file.getPath();
+        return Arrays.asList(new File(path + FreeSpaceMap.SUFFIX), new File(path + ZoneMap.SUFFIX));
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it on first use.
+     *
+     * @see FreeSpaceMap
+     */
+    synchronized FreeSpaceMap freeSpaceMap() throws IOException {
+        if (freeSpace == null) {
+            freeSpace = FreeSpaceMap.load(this);
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Returns the zone map of this file, loading it the first time a scan
+     * with predicates needs it.
+     *
+     * @see ZoneMap
+     */
+    synchronized ZoneMap zoneMap() throws IOException {
+        if (zones == null) {
+            zones = ZoneMap.load(this);
+            if (pendingZones != null) {
+                // their pages may not have been written yet
+                zones.widen(pendingZones);
+                pendingZones = null;
+            }
+        }
+        return zones;
+    }
+
+    /** Widens the zone map, or the pending one until it is loaded, to cover t. */
+    private void widenZones(int pgNo, Tuple t) {
+        ZoneMap zm;
+        synchronized (this) {
+            if (zones == null) {
+                if (pendingZones == null) {
+                    pendingZones = ZoneMap.pending(td);
+                }
+                pendingZones.widen(pgNo, t);
+                return;
+            }
+            zm = zones;
+        }
+        zm.widen(pgNo, t);
+    }
+
+    /**
+     * Returns false if the zone map shows that no tuple on page pgNo can
+     * satisfy all of the given predicates.
+     */
+    boolean mayMatch(int pgNo, List<Predicate> predicates) throws IOException {
+        if (predicates.isEmpty()) {
+            return true;
+        }
+        ZoneMap zm = zoneMap();
+        for (Predicate p : predicates) {
+            if (!zm.mayMatch(pgNo, p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         int pgNo = page.getId().getPageNumber();
-        RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rws");
-        randomAccessFile.skipBytes(pgNo * Database.getBufferPool().getPageSize());
-        randomAccessFile.write(page.getPageData());
-        if ( pgNo >= this.numPage){
-            this.numPage = pgNo + 1;
+        byte[] data = page.getPageData();
+        writePageData(pgNo, data);
+        synchronized (this) {
+            if ( pgNo >= this.numPage){
+                this.numPage = pgNo + 1;
+            }
+            if (freeSpace != null) {
+                freeSpace.setFree(pgNo, ((HeapPage) page).getNumEmptySlots() > 0);
+            }
+        }
+        ZoneMap zm;
+        synchronized (this) {
+            zm = zones;
+        }
+        if (zm != null) {
+            // pages written by recovery never went through insertTuple
+            zm.widen(pgNo, (HeapPage) page, data);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void sync() throws IOException {
+        channel.force();
+        FreeSpaceMap fsm;
+        synchronized (this) {
+            fsm = freeSpace;
+        }
+        if (fsm != null) {
+            fsm.save();
+        }
+        ZoneMap zm;
+        synchronized (this) {
+            zm = zones;
+        }
+        if (zm != null) {
+            zm.save();
         }
-        randomAccessFile.close();
     }
 
     /**
@@ -141,30 +399,159 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        return insertTuple(tid, t, null);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t, BufferRing ring)
+            throws DbException, IOException, TransactionAbortedException {
         if (!t.getTupleDesc().equals(this.td)){
             throw new DbException("The tupledesc doesn't match.");
         } 
-            List<Page> pgList = new ArrayList<>();
-            BufferPool bufferPool = Database.getBufferPool();
-            for (int i=0; i<this.numPage; i++){
-                HeapPageId pid = new HeapPageId(getId(), i); 
-                HeapPage pg = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
-                if (pg.getNumEmptySlots() == 0){ // page full
-                    continue;
+        if (Database.getBufferPool().isRowLocked(getId())) {
+            return insertRow(tid, t, ring);
+        }
+        List<Page> pgList = new ArrayList<>();
+        HeapPage pg = pageWithSpace(tid, ring, t, 0);
+        Lock latch = Database.getBufferPool().latchPage(pg.getId(), Permissions.READ_WRITE);
+        try {
+            pg.insertTuple(t);
+            pg.markDirty(true, tid);
+            widenZones(pg.getId().getPageNumber(), t);
+        } finally {
+            release(tid, pg.getId(), latch);
+        }
+        pgList.add(pg);
+        return pgList;
+    }
+
+    /**
+     * Fills one page with as many of the remaining tuples as fit, locking it
+     * once for all of them. Pages are taken from the free-space map first,
+     * so a bulk load tops up existing pages before packing fresh ones.
+     *
+     * @see DbFile#insertTuples
+     */
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples, BufferRing ring)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> pgList = new ArrayList<>();
+        if (!tuples.hasNext()) {
+            return pgList;
+        }
+        if (Database.getBufferPool().isRowLocked(getId())) {
+            // every tuple needs a record lock of its own
+            return insertTuple(tid, tuples.next(), ring);
+        }
+        HeapPage pg = pageWithSpace(tid, ring, null, 0);
+        Lock latch = Database.getBufferPool().latchPage(pg.getId(), Permissions.READ_WRITE);
+        // a variable-length tuple that did not fit in what was left of pg
+        Tuple overflow = null;
+        try {
+            while (pg.getNumEmptySlots() > 0 && tuples.hasNext()) {
+                Tuple t = tuples.next();
+                if (!t.getTupleDesc().equals(this.td)){
+                    throw new DbException("The tupledesc doesn't match.");
+                }
+                if (!pg.hasRoomFor(t)) {
+                    overflow = t;
+                    break;
                 }
                 pg.insertTuple(t);
-                pg.markDirty(true, tid);
-                pgList.add(pg);
-                return pgList;    
+                widenZones(pg.getId().getPageNumber(), t);
             }
-            // add a new page
-            HeapPageId pid = new HeapPageId(getId(), this.numPage); 
-            HeapPage pg = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
-            pg.insertTuple(t);
             pg.markDirty(true, tid);
-            pgList.add(pg);
-            // this.numPage += 1;
-            return pgList;
+        } finally {
+            release(tid, pg.getId(), latch);
+        }
+        pgList.add(pg);
+        if (overflow != null) {
+            pgList.addAll(insertTuple(tid, overflow, ring));
+        }
+        return pgList;
+    }
+
+    /**
+     * Inserts t into a table locked by record: into an empty slot whose
+     * record tid can lock without waiting, which a transaction that deleted
+     * or inserted there and has not released its lock yet keeps from being
+     * reused.
+     */
+    private List<Page> insertRow(TransactionId tid, Tuple t, BufferRing ring)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        RecordLocks locks = bufferPool.recordLocks();
+        for (int from = 0; ; ) {
+            HeapPage pg = pageWithSpace(tid, ring, t, from);
+            HeapPageId pid = pg.getId();
+            Lock latch = bufferPool.latchPage(pid, Permissions.READ_WRITE);
+            boolean inserted = false;
+            try {
+                inserted = pg.insertTuple(t, slot -> locks.tryLockRecord(tid, new RecordId(pid, slot),
+                        Permissions.READ_WRITE));
+                if (inserted) {
+                    pg.markDirty(true, tid);
+                    locks.inserted(tid, t);
+                    widenZones(pid.getPageNumber(), t);
+                }
+            } finally {
+                release(tid, pid, latch);
+            }
+            if (inserted) {
+                locks.checkEscalation(tid, getId());
+                List<Page> pgList = new ArrayList<>();
+                pgList.add(pg);
+                return pgList;
+            }
+            // filled by other transactions meanwhile
+            from = pid.getPageNumber() + 1;
+        }
+    }
+
+    /** Unlocks a page latch, if one was taken, and unpins the page. */
+    private static void release(TransactionId tid, PageId pid, Lock latch) {
+        if (latch != null) {
+            latch.unlock();
+        }
+        Database.getBufferPool().unpinPage(tid, pid);
+    }
+
+    /**
+     * Returns a page with room for t, or with at least one empty slot if t
+     * is null, locked READ_WRITE for tid and pinned, appending a new page
+     * if no existing page from the given one on has room.
+     */
+    private HeapPage pageWithSpace(TransactionId tid, BufferRing ring, Tuple t, int from)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        // only visit pages the free-space map says may have room; the
+        // first page past the end is a new one
+        for (int i = Math.min(fsm.nextFreePage(from), this.numPage); ;
+                i = Math.min(fsm.nextFreePage(i + 1), this.numPage)) {
+            boolean fresh = i >= this.numPage;
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean held = bufferPool.holdsLock(tid, pid);
+            HeapPage pg = (HeapPage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE, ring);
+            if (t == null ? pg.getNumEmptySlots() > 0 : pg.hasRoomFor(t)) {
+                if (fresh) {
+                    fsm.setFree(i, true);
+                }
+                return pg;
+            }
+            if (fresh && pg.getNumEmptySlots() == pg.numSlots) {
+                throw new DbException("The tuple is too large for a page of the file.");
+            }
+            // page full: the map was stale, or another transaction filled
+            // the new page while we waited for its lock. A page with room
+            // for smaller variable-length tuples stays in the map.
+            if (pg.getNumEmptySlots() == 0) {
+                fsm.setFree(i, false);
+            }
+            bufferPool.unpinPage(tid, pid);
+            if (!held) {
+                bufferPool.unsafeReleasePage(tid, pid);
+            }
+        }
     }
 
     // see DbFile.java for javadocs
@@ -176,37 +563,195 @@ public class HeapFile implements DbFile {
         if (pid.getTableId() != getId()){ // pageid doesn't match
             throw new DbException("The tupele is not a member of the file.");
         }    
+        if (Database.getBufferPool().isRowLocked(getId())) {
+            return deleteRow(tid, t.getRecordId());
+        }
         ArrayList<Page> pgList = new ArrayList<>();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        HeapPage page = (HeapPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_WRITE);
+        Lock latch = Database.getBufferPool().latchPage(pid, Permissions.READ_WRITE);
+        try {
+            page.deleteTuple(t);
+        } finally {
+            release(tid, pid, latch);
+        }
         pgList.add(page);
+        try {
+            freeSpaceMap().setFree(pid.getPageNumber(), true);
+        } catch (IOException e) {
+            throw new DbException("could not load the free-space map: " + e.getMessage());
+        }
         return pgList;
     }
 
+    /**
+     * Deletes a record of a table locked by record. The record only gets
+     * locked here and stays on its page, hidden from tid, until tid commits.
+     */
+    private ArrayList<Page> deleteRow(TransactionId tid, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        RecordLocks locks = bufferPool.recordLocks();
+        locks.lockRecord(tid, rid, Permissions.READ_WRITE);
+        PageId pid = rid.getPageId();
+        HeapPage page = (HeapPage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE);
+        Lock latch = bufferPool.latchPage(pid, Permissions.READ_ONLY);
+        try {
+            if (page.getTuple(rid.getTupleNumber()) == null || locks.isDeleted(tid, rid)) {
+                throw new DbException("The tuple slot is already empty");
+            }
+            locks.deleted(tid, rid);
+        } finally {
+            release(tid, pid, latch);
+        }
+        // no page has changed yet
+        return new ArrayList<>();
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         return new HeapFileIterator(this, tid);
     }
 
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return new HeapFileIterator(this, tid, ring);
+    }
+
+    /**
+     * Like {@link #iterator(TransactionId, BufferRing)}, but skips pages
+     * that the file's zone map shows cannot hold a tuple satisfying all of
+     * the given predicates. Tuples of the pages it does read are returned
+     * whether they satisfy the predicates or not, so the caller still
+     * filters them.
+     *
+     * @param predicates predicates on fields of this file's TupleDesc
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring, List<Predicate> predicates) {
+        HeapFileIterator it = new HeapFileIterator(this, tid, ring);
+        it.predicates = new ArrayList<>(predicates);
+        return it;
+    }
+
+    /**
+     * Iterates over the tuples of a HeapFile page by page. The page being
+     * iterated is pinned so it stays cached, and its latch is held in shared
+     * mode while tuples are read from it. In a table locked by record, each
+     * record is locked before its tuple is returned, without holding the
+     * latch, and read again once locked.
+     */
     public class HeapFileIterator implements DbFileIterator {
         int pgNo = 0;
         BufferPool bufferPool = Database.getBufferPool();
         Permissions perm = Permissions.READ_ONLY;
         TransactionId tid;
         Iterator<Tuple> it;
+        // the pinned page it iterates over
+        HeapPageId pinned;
+        HeapPage page;
+        // non-null if the table is locked by record
+        RecordLocks rowLocks;
+        // the next tuple, locked already; only used with rowLocks
+        Tuple locked;
         HeapFile file;
+        ReadAhead readAhead;
+        BufferRing ring;
+        // pages that cannot satisfy these are skipped
+        List<Predicate> predicates = Collections.emptyList();
         
         HeapFileIterator(HeapFile f, TransactionId tid){
+            this(f, tid, null);
+        }
+
+        HeapFileIterator(HeapFile f, TransactionId tid, BufferRing ring){
             this.tid = tid;
             this.file = f;
+            this.ring = ring;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException{
+            this.readAhead = this.file.readAhead ? new ReadAhead(this.file, this.bufferPool, this.ring) : null;
+            // a snapshot reads committed versions and locks no records
+            this.rowLocks = this.bufferPool.isRowLocked(getId()) && !this.bufferPool.isSnapshot(this.tid)
+                    ? this.bufferPool.recordLocks() : null;
+            this.it = skip(pgNo) ? Collections.emptyIterator() : startPage(pgNo);
+        }
+
+        /** @return true if the zone map rules out all tuples of page pgNo */
+        private boolean skip(int pgNo) throws DbException {
+            try {
+                return !this.file.mayMatch(pgNo, this.predicates);
+            } catch (IOException e) {
+                throw new DbException("could not load the zone map: " + e.getMessage());
+            }
+        }
+
+        /** Unpins the current page and pins page pgNo instead. */
+        private Iterator<Tuple> startPage(int pgNo) throws DbException, TransactionAbortedException {
+            unpin();
+            fetching(pgNo);
             HeapPageId heapPageId = new HeapPageId(getId(), pgNo);
-            HeapPage page = (HeapPage) this.bufferPool.getPage(this.tid, heapPageId, perm);
-            this.it = page.iterator();
+            HeapPage page = (HeapPage) this.bufferPool.pinPage(this.tid, heapPageId, perm, this.ring);
+            this.pinned = heapPageId;
+            this.page = page;
+            this.locked = null;
+            Lock latch = this.bufferPool.latchPage(heapPageId, perm);
+            try {
+                return page.iterator();
+            } finally {
+                if (latch != null) {
+                    latch.unlock();
+                }
+            }
+        }
+
+        private boolean pageHasNext() throws TransactionAbortedException {
+            if (this.rowLocks == null) {
+                return slotsHaveNext();
+            }
+            while (this.locked == null && slotsHaveNext()) {
+                RecordId rid = it.next().getRecordId();
+                this.rowLocks.lockRecord(this.tid, rid, perm);
+                // deleted or changed before the lock was granted
+                Tuple t = reread(rid);
+                if (t != null && !this.rowLocks.isDeleted(this.tid, rid)) {
+                    this.locked = t;
+                }
+            }
+            return this.locked != null;
+        }
+
+        private Tuple reread(RecordId rid) {
+            Lock latch = this.bufferPool.latchPage(this.pinned, perm);
+            try {
+                return this.page.getTuple(rid.getTupleNumber());
+            } finally {
+                if (latch != null) {
+                    latch.unlock();
+                }
+            }
+        }
+
+        private boolean slotsHaveNext() {
+            Lock latch = this.pinned != null ? this.bufferPool.latchPage(this.pinned, perm) : null;
+            try {
+                return it.hasNext();
+            } finally {
+                if (latch != null) {
+                    latch.unlock();
+                }
+            }
+        }
+
+        private void unpin() {
+            if (this.pinned != null) {
+                this.bufferPool.unpinPage(this.tid, this.pinned);
+                this.pinned = null;
+                this.page = null;
+                this.locked = null;
+            }
         }
 
         @Override
@@ -214,32 +759,43 @@ public class HeapFile implements DbFile {
             if (it == null){ // iterator isn't open
                 return false;
             }
-            if(it.hasNext()){ // tuples in this page are available
+            if(pageHasNext()){ // tuples in this page are available
                 return true;
             }
             if (this.pgNo+1 >= numPages()){ // no more page
+                unpin();
                 return false;
             }
-            while (!it.hasNext() && this.pgNo < this.file.numPages() - 1){ // find next page with tuples
+            while (this.pgNo < this.file.numPages() - 1){ // find next page with tuples
                 this.pgNo++;
-                HeapPageId heapPageId = new HeapPageId(getId(), this.pgNo);
-                HeapPage page = (HeapPage) this.bufferPool.getPage(tid,heapPageId,this.perm);
-                if (page == null){
+                if (skip(this.pgNo)) {
                     continue;
                 }
-                this.it = page.iterator();
-                if(this.it.hasNext()){
+                this.it = startPage(this.pgNo);
+                if(pageHasNext()){
                     return true;
                 }    
             }
+            unpin();
             return false;
         }
 
+        private void fetching(int pgNo) {
+            if (this.readAhead != null) {
+                this.readAhead.pageRequested(pgNo);
+            }
+        }
+
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if (it == null || !it.hasNext()){
+            if (it == null || !pageHasNext()){
                 throw new NoSuchElementException();
             }           
+            if (this.rowLocks != null) {
+                Tuple t = this.locked;
+                this.locked = null;
+                return t;
+            }
             return it.next();
         }
 
@@ -251,8 +807,13 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
+            unpin();
             this.pgNo = 0;
             this.it = null;
+            this.readAhead = null;
+            if (this.ring != null) {
+                this.ring.clear();
+            }
         }
     }
 
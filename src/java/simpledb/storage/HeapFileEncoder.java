@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -89,10 +91,41 @@ public class HeapFileEncoder {
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
     */
+  /** Convert the specified input text file into a binary page file,
+   * optionally compressed. <br>
+   *
+   * @param compressed if true, the output file is in the format of
+   *   CompressedHeapFile instead of HeapFile
+   * @see #convert(File, File, int, int, Type[], char)
+   * @see CompressedHeapFile
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean compressed)
+      throws IOException {
+      if (!compressed) {
+          convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
+      File raw = File.createTempFile("tempTable", ".dat");
+      try {
+          convert(inFile, raw, npagebytes, numFields, typeAr, fieldSeparator);
+          CompressedHeapFile.convert(raw, outFile, npagebytes);
+      } finally {
+          raw.delete();
+      }
+  }
+
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      for (int i = 0; i < numFields; i++) {
+          if (!typeAr[i].isFixedLength()) {
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -224,4 +257,86 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Like {@link #convert(File, File, int, int, Type[], char)}, for tables
+   * with variable-length fields, whose pages are in the slotted format
+   * described in HeapPage. Each line of the input file is one tuple.
+   */
+  static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      if (npagebytes > HeapPage.MAX_SLOTTED_PAGE_SIZE)
+          throw new IOException("pages of tables with variable-length fields are at most "
+                  + HeapPage.MAX_SLOTTED_PAGE_SIZE + " bytes");
+      int minrecbytes = 0;
+      for (int i = 0; i < numFields; i++)
+          minrecbytes += typeAr[i].getMinLen();
+      int nslots = (npagebytes - HeapPage.SLOTTED_HEADER) / (minrecbytes + HeapPage.SLOT_BYTES);
+
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           FileOutputStream os = new FileOutputStream(outFile)) {
+          byte[] page = new byte[npagebytes];
+          int recordcount = 0;
+          int end = npagebytes;
+          int npages = 0;
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.isEmpty())
+                  continue;
+              byte[] record = encodeLine(line, numFields, typeAr, fieldSeparator);
+              int free = end - HeapPage.SLOTTED_HEADER - recordcount * HeapPage.SLOT_BYTES;
+              if (recordcount == nslots || record.length + HeapPage.SLOT_BYTES > free) {
+                  if (recordcount == 0)
+                      throw new IOException("record does not fit in a page: " + line);
+                  writeSlottedPage(os, page, recordcount, end);
+                  npages++;
+                  page = new byte[npagebytes];
+                  recordcount = 0;
+                  end = npagebytes;
+              }
+              end -= record.length;
+              System.arraycopy(record, 0, page, end, record.length);
+              int entry = HeapPage.SLOTTED_HEADER + recordcount * HeapPage.SLOT_BYTES;
+              page[entry] = (byte) (end >> 8);
+              page[entry + 1] = (byte) end;
+              page[entry + 2] = (byte) (record.length >> 8);
+              page[entry + 3] = (byte) record.length;
+              recordcount++;
+          }
+          // like convert, an empty file still gets one empty page
+          if (recordcount > 0 || npages == 0)
+              writeSlottedPage(os, page, recordcount, end);
+      }
+  }
+
+  private static byte[] encodeLine(String line, int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+      if (values.length != numFields)
+          throw new IOException("expected " + numFields + " fields: " + line);
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(baos);
+      for (int i = 0; i < numFields; i++) {
+          String s = values[i].trim();
+          if (typeAr[i] == Type.INT_TYPE) {
+              try {
+                  dos.writeInt(Integer.parseInt(s));
+              } catch (NumberFormatException e) {
+                  throw new IOException("BAD LINE : " + line);
+              }
+          } else if (typeAr[i] == Type.VARCHAR_TYPE) {
+              new VarStringField(s).serialize(dos);
+          } else {
+              new StringField(s, Type.STRING_LEN).serialize(dos);
+          }
+      }
+      dos.flush();
+      return baos.toByteArray();
+  }
+
+  private static void writeSlottedPage(OutputStream os, byte[] page, int recordcount, int end)
+      throws IOException {
+      ByteBuffer.wrap(page).putInt(0, recordcount).putInt(4, end);
+      os.write(page);
+  }
 }
@@ -4,14 +4,27 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
+import java.util.function.IntPredicate;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tables whose tuples all have the same size use the format described in
+ * the HeapPage constructor. Tables with variable-length fields, such as
+ * {@link Type#VARCHAR_TYPE}, use a slotted page instead: a four-byte slot
+ * count and the four-byte offset where the record area starts, then a slot
+ * directory of two-byte offset and two-byte length pairs, one per slot. The
+ * records fill the page from its end. An offset of 0 marks an empty slot.
+ * Slot numbers, and so RecordIds, never change, but records are packed
+ * together whenever the page is written, so space freed by deletes is
+ * reused without moving any tuple to another slot.
  *
  * @see HeapFile
  * @see BufferPool
@@ -19,14 +32,44 @@ import java.io.*;
  */
 public class HeapPage implements Page {
 
+    // bytes before the slot directory of a slotted page
+    static final int SLOTTED_HEADER = 8;
+    // bytes per slot directory entry
+    static final int SLOT_BYTES = 4;
+    // largest slotted page whose offsets fit in a directory entry
+    static final int MAX_SLOTTED_PAGE_SIZE = 1 << 16;
+
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
+    // kept in step with the header so callers never recount it
+    int numEmptySlots;
+    // no slot below this one is empty, so inserts start looking here
+    private int firstFreeSlot = 0;
     final Tuple[] tuples; // tuples[numSlots] gives the record
     final int numSlots;
+    final int pageSize;
+    // true if tuples vary in size and the page uses the slotted format
+    final boolean slotted;
+    // slotted pages only: where each record is in raw, and its length
+    private int[] recordOffsets;
+    private int[] recordLengths;
+    // slotted pages only: total length of the records in used slots
+    private int recordBytes;
+    // tuples[i] is only valid once decoded[i] is set; slots are decoded
+    // from raw the first time they are reached
+    final boolean[] decoded;
+    // the bytes the page was built from; never modified by the page
+    ByteBuffer raw;
 
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    // on-disk bytes the page was decoded from, standing in for oldData
+    // until the page is first modified
+    ByteBuffer oldDataSource;
+    // arena frame owned by this page; holds the before image off the heap
+    ByteBuffer frame;
+    // guards the before image and the decoded tuples of this page only
+    private final Object oldDataLock = new Object();
 
     boolean dirty;
     TransactionId lasttrans;
@@ -37,10 +80,11 @@ public class HeapPage implements Page {
      * the slots of the page that are in use, some number of tuple slots.
      * Specifically, the number of tuples is equal to:
      * <p>
-     * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     * floor((page size*8) / (tuple size * 8 + 1))
      * <p>
      * where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the table's, from {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      * ceiling(no. tuple slots / 8)
@@ -48,31 +92,109 @@ public class HeapPage implements Page {
      * 
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()), false);
+        // the page never writes to its raw bytes, so they are the before image
+        oldData = raw.array();
+    }
+
+    /**
+     * Create a HeapPage directly from a buffer holding the page's bytes,
+     * e.g. a slice of a memory-mapped HeapFile, without copying them into
+     * a byte array first. The buffer also serves as the page's before image
+     * until the page is first modified, so it must keep the on-disk contents
+     * of the page until then.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data.slice(), false);
+        synchronized (oldDataLock) {
+            oldDataSource = raw.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Create a HeapPage from a frame of the BufferPool's off-heap arena that
+     * holds the page's bytes. The page owns the frame and keeps its before
+     * image there, off the heap, until the frame is taken back with
+     * {@link #detachFrame}.
+     */
+    static HeapPage inFrame(HeapPageId id, ByteBuffer frame) throws IOException {
+        HeapPage page = new HeapPage(id, frame.duplicate(), true);
+        page.frame = frame;
+        return page;
+    }
+
+    /**
+     * Reads the header of the page in raw. Tuples are decoded from raw
+     * when they are first needed.
+     */
+    private HeapPage(HeapPageId id, ByteBuffer raw, boolean inFrame) throws IOException {
         this.dirty = false;
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.slotted = !td.isFixedSize();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.raw = raw;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        if (slotted) {
+            readDirectory();
+        } else {
+            if (raw.remaining() < header.length + numSlots * td.getSize()) {
+                throw new IOException("page " + id + " is truncated");
+            }
+            raw.duplicate().get(header);
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                numEmptySlots++;
+            }
+        }
 
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        decoded = new boolean[numSlots];
+    }
 
-        setBeforeImage();
+    /**
+     * Reads the slot directory of a slotted page into the header bitmap and
+     * the record offsets and lengths.
+     */
+    private void readDirectory() throws IOException {
+        if (pageSize > MAX_SLOTTED_PAGE_SIZE) {
+            throw new IOException("pages of tables with variable-length fields are at most "
+                    + MAX_SLOTTED_PAGE_SIZE + " bytes");
+        }
+        if (raw.remaining() < SLOTTED_HEADER) {
+            throw new IOException("page " + pid + " is truncated");
+        }
+        int base = raw.position();
+        int count = raw.getInt(base);
+        if (count < 0 || count > numSlots || SLOTTED_HEADER + count * SLOT_BYTES > raw.remaining()) {
+            throw new IOException("page " + pid + " has a bad slot directory");
+        }
+        recordOffsets = new int[numSlots];
+        recordLengths = new int[numSlots];
+        for (int i = 0; i < count; i++) {
+            int entry = base + SLOTTED_HEADER + i * SLOT_BYTES;
+            int offset = raw.getShort(entry) & 0xffff;
+            int length = raw.getShort(entry + 2) & 0xffff;
+            if (offset == 0) {
+                continue;
+            }
+            if (offset + length > raw.remaining()) {
+                throw new IOException("page " + pid + " is truncated");
+            }
+            recordOffsets[i] = offset;
+            recordLengths[i] = length;
+            recordBytes += length;
+            header[i / 8] |= 1 << (i % 8);
+        }
     }
 
     /**
@@ -81,11 +203,13 @@ public class HeapPage implements Page {
      * @return the number of tuples on this page
      */
     private int getNumTuples() {
+        if (slotted) {
+            // enough directory entries for a page of the smallest tuples
+            return (pageSize - SLOTTED_HEADER) / (td.getMinSize() + SLOT_BYTES);
+        }
 
         int tupleSize = this.td.getSize();
-        Database.getBufferPool();
-        int bufferPoolPageSize = BufferPool.getPageSize();
-        return (int) Math.floor((bufferPoolPageSize * 8) / (tupleSize * 8 + 1));
+        return (int) Math.floor((pageSize * 8) / (tupleSize * 8 + 1));
     }
 
     /**
@@ -107,8 +231,18 @@ public class HeapPage implements Page {
     public HeapPage getBeforeImage() {
         try {
             byte[] oldDataRef = null;
+            ByteBuffer oldDataSourceRef = null;
             synchronized (oldDataLock) {
-                oldDataRef = oldData;
+                if (frame != null) {
+                    // the frame is recycled once this page leaves the pool
+                    oldDataRef = new byte[frame.capacity()];
+                    ((ByteBuffer) frame.duplicate().clear()).get(oldDataRef);
+                }
+                oldDataRef = oldDataRef != null ? oldDataRef : oldData;
+                oldDataSourceRef = oldDataSource;
+            }
+            if (oldDataRef == null) {
+                return new HeapPage(pid, oldDataSourceRef);
             }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
@@ -120,8 +254,64 @@ public class HeapPage implements Page {
     }
 
     public void setBeforeImage() {
+        setBeforeImage(getPageData());
+    }
+
+    /**
+     * Makes the given bytes the before image of this page, e.g. a version
+     * of it without the changes of transactions that have not committed.
+     */
+    void setBeforeImage(byte[] data) {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            if (frame != null) {
+                if (!raw.hasArray()) {
+                    // tuples not decoded yet still decode from raw, which
+                    // is the frame, in the layout the page was read with
+                    byte[] bytes = new byte[frame.capacity()];
+                    ((ByteBuffer) frame.duplicate().clear()).get(bytes);
+                    raw = ByteBuffer.wrap(bytes);
+                }
+                ((ByteBuffer) frame.duplicate().clear()).put(data);
+                return;
+            }
+            oldData = data;
+            oldDataSource = null;
+        }
+    }
+
+    /**
+     * Moves the before image out of this page's arena frame onto the heap
+     * and gives up the frame, so that it can be reused while this page
+     * object is still referenced.
+     *
+     * @return the frame, or null if the page does not own one
+     */
+    ByteBuffer detachFrame() {
+        synchronized (oldDataLock) {
+            ByteBuffer f = frame;
+            if (f != null) {
+                oldData = new byte[f.capacity()];
+                ((ByteBuffer) f.duplicate().clear()).get(oldData);
+                raw = ByteBuffer.wrap(oldData);
+                frame = null;
+            }
+            return f;
+        }
+    }
+
+    /**
+     * Copies the before image out of the buffer the page was decoded from,
+     * before the page changes and can be written over those bytes.
+     */
+    private void keepBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null && oldDataSource != null) {
+                oldData = new byte[oldDataSource.remaining()];
+                oldDataSource.duplicate().get(oldData);
+                // a mapped source changes once this page is written
+                raw = ByteBuffer.wrap(oldData);
+                oldDataSource = null;
+            }
         }
     }
 
@@ -135,21 +325,40 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the given slot, decoding it from the page's raw
+     * bytes if this is the first time it is needed.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    public Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots) {
+            throw new NoSuchElementException("no slot " + slotId + " on page " + pid);
+        }
+        synchronized (oldDataLock) {
+            if (!decoded[slotId]) {
+                tuples[slotId] = isSlotUsed(slotId) ? readTuple(slotId) : null;
+                decoded[slotId] = true;
             }
-            return null;
+            return tuples[slotId];
+        }
+    }
+
+    /** @return the offset of a slot's tuple in the page's bytes */
+    private int slotOffset(int slotId) {
+        if (slotted) {
+            return recordOffsets[slotId];
         }
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Decode the tuple in a used slot from the raw page bytes.
+     * The caller holds oldDataLock, so raw cannot change meanwhile.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        ByteBuffer slot = raw.duplicate();
+        slot.position(slot.position() + slotOffset(slotId));
+        DataInputStream dis = new DataInputStream(new ByteBufferInputStream(slot));
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
@@ -180,7 +389,10 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
+        if (slotted) {
+            return getSlottedPageData();
+        }
+        int len = pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
@@ -195,35 +407,52 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
+        byte[] slot = new byte[td.getSize()];
+        synchronized (oldDataLock) {
+            ByteBuffer src = raw.duplicate();
+            int base = src.position();
+            for (int i = 0; i < tuples.length; i++) {
+
+                // empty slot
+                if (!isSlotUsed(i)) {
+                    for (int j = 0; j < td.getSize(); j++) {
+                        try {
+                            dos.writeByte(0);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
+                    }
+                    continue;
+                }
+
+                // untouched slot, copy its bytes as they were read
+                if (!decoded[i]) {
+                    src.position(base + slotOffset(i));
+                    src.get(slot);
                     try {
-                        dos.writeByte(0);
+                        dos.write(slot, 0, slot.length);
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
-
+                    continue;
                 }
-                continue;
-            }
 
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
+                // non-empty slot
+                for (int j = 0; j < td.numFields(); j++) {
+                    Field f = tuples[i].getField(j);
+                    try {
+                        f.serialize(dos);
 
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
                 }
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); // - numSlots *
+        int zerolen = pageSize - (header.length + td.getSize() * tuples.length); // - numSlots *
                                                                                                  // td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
@@ -241,6 +470,101 @@ public class HeapPage implements Page {
         return baos.toByteArray();
     }
 
+    /** Like {@link #getPageData()}, for a page in the slotted format. */
+    private byte[] getSlottedPageData() {
+        byte[] data = new byte[pageSize];
+        ByteBuffer out = ByteBuffer.wrap(data);
+        int end = pageSize;
+        synchronized (oldDataLock) {
+            int count = directoryLength();
+            ByteBuffer src = raw.duplicate();
+            int base = src.position();
+            for (int i = 0; i < count; i++) {
+                if (!isSlotUsed(i)) {
+                    continue;
+                }
+                int length;
+                if (decoded[i]) {
+                    byte[] record = encodeRecord(td, tuples[i]);
+                    length = record.length;
+                    end -= length;
+                    System.arraycopy(record, 0, data, end, length);
+                } else {
+                    // untouched record, copy its bytes as they were read
+                    length = recordLengths[i];
+                    end -= length;
+                    src.position(base + recordOffsets[i]);
+                    src.get(data, end, length);
+                }
+                out.putShort(SLOTTED_HEADER + i * SLOT_BYTES, (short) end);
+                out.putShort(SLOTTED_HEADER + i * SLOT_BYTES + 2, (short) length);
+            }
+            out.putInt(0, count);
+            out.putInt(4, end);
+        }
+        return data;
+    }
+
+    /**
+     * Serializes a tuple as a record of a slotted page. String fields of
+     * VARCHAR columns are written without padding, whatever their class.
+     */
+    static byte[] encodeRecord(TupleDesc td, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (td.getFieldType(j) == Type.VARCHAR_TYPE && !(f instanceof VarStringField)) {
+                    f = new VarStringField(((StringField) f).getValue());
+                }
+                f.serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** @return one more than the highest used slot */
+    private int directoryLength() {
+        for (int i = header.length - 1; i >= 0; i--) {
+            if (header[i] != 0) {
+                return i * 8 + (31 - Integer.numberOfLeadingZeros(header[i] & 0xff)) + 1;
+            }
+        }
+        return 0;
+    }
+
+    /** @return the bytes of a slotted page not taken up by the directory or records */
+    private int freeBytes() {
+        return pageSize - SLOTTED_HEADER - directoryLength() * SLOT_BYTES - recordBytes;
+    }
+
+    /**
+     * @return the bytes an insert of a record of the given size into slot
+     *         takes on a slotted page, counting new directory entries
+     */
+    private int spaceNeeded(int slot, int recordSize) {
+        return recordSize + Math.max(0, slot + 1 - directoryLength()) * SLOT_BYTES;
+    }
+
+    /**
+     * Returns true if t can be inserted into this page. Pages of tables
+     * with fixed-size tuples have room for any tuple while they have an
+     * empty slot.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        for (int i = this.firstFreeSlot; i < this.numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                return !slotted || spaceNeeded(i, td.getSize(t)) <= freeBytes();
+            }
+        }
+        return false;
+    }
+
     /**
      * Static method to generate a byte array corresponding to an empty
      * HeapPage.
@@ -251,8 +575,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; // all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Like {@link #createEmptyPageData()}, for a table whose pages are
+     * pageSize bytes long.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; // all 0
     }
 
     /**
@@ -274,8 +605,16 @@ public class HeapPage implements Page {
         if (!isSlotUsed(slot)){ 
             throw new DbException("The tuple slot is already empty");           
         }
-        markSlotUsed(slot,false);
-        tuples[slot] = null;
+        keepBeforeImage();
+        synchronized (oldDataLock) {
+            if (slotted) {
+                recordBytes -= decoded[slot] ? td.getSize(tuples[slot]) : recordLengths[slot];
+            }
+            markSlotUsed(slot,false);
+            firstFreeSlot = Math.min(firstFreeSlot, slot);
+            tuples[slot] = null;
+            decoded[slot] = true;
+        }
     }
 
     /**
@@ -289,18 +628,69 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!insertTuple(t, slot -> true)) {
+            throw new DbException("The page is full.");
+        }
+    }
+
+    /**
+     * Like {@link #insertTuple(Tuple)}, but only into an empty slot that
+     * usable accepts.
+     *
+     * @return false if no such slot has room for t
+     */
+    boolean insertTuple(Tuple t, IntPredicate usable) throws DbException {
         if (!this.td.equals(t.getTupleDesc())){ // tupledesc mismatch
             throw new DbException("The tupledesc doesn't match.");
         }
-        for (int i=0; i<this.numSlots; i++){
+        // no slot below firstFreeSlot is empty, unless usable refused it
+        boolean refused = false;
+        for (int i=this.firstFreeSlot; i<this.numSlots; i++){
             if (!isSlotUsed(i)){
+                int size = slotted ? td.getSize(t) : 0;
+                if (slotted && spaceNeeded(i, size) > freeBytes()) {
+                    break;
+                }
+                if (!usable.test(i)) {
+                    refused = true;
+                    continue;
+                }
+                if (!refused) {
+                    firstFreeSlot = i + 1;
+                }
+                keepBeforeImage();
                 t.setRecordId(new RecordId(pid, i));
-                markSlotUsed(i, true);
-                tuples[i] = t;
-                return;
+                synchronized (oldDataLock) {
+                    markSlotUsed(i, true);
+                    tuples[i] = t;
+                    decoded[i] = true;
+                    recordBytes += size;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a copy of this page with the given slots emptied, e.g. the
+     * committed version of a page that also holds records other
+     * transactions inserted and may still take back.
+     */
+    HeapPage withoutSlots(Collection<Integer> slots) throws DbException {
+        HeapPage copy;
+        try {
+            copy = new HeapPage(pid, getPageData());
+        } catch (IOException e) {
+            throw new DbException("could not copy page " + pid + ": " + e.getMessage());
+        }
+        for (int slot : slots) {
+            Tuple t = copy.getTuple(slot);
+            if (t != null) {
+                copy.deleteTuple(t);
             }
         }
-        throw new DbException("The page is full.");
+        return copy;
     }
 
     /**
@@ -331,16 +721,15 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. On a slotted page,
+     * this is how many of the smallest possible tuples still fit; larger
+     * tuples may not, see {@link #hasRoomFor}.
      */
     public int getNumEmptySlots() {
-        int count = 0;
-        for (int i = 0; i < this.numSlots; i++) {
-            if (!this.isSlotUsed(i))
-                count++;
+        if (slotted) {
+            return Math.min(this.numEmptySlots, Math.max(0, freeBytes()) / (td.getMinSize() + SLOT_BYTES));
         }
-        return count;
-
+        return this.numEmptySlots;
     }
 
     /**
@@ -360,6 +749,9 @@ public class HeapPage implements Page {
         int offset = i % 8;
         int tmp = (byte) 1 << offset;
         byte h = header[i / 8];
+        if (((h & tmp) != 0) != value) {
+            numEmptySlots += value ? -1 : 1;
+        }
         if (value){
             header[i / 8] = (byte) (h | tmp);
         }else{
@@ -373,12 +765,43 @@ public class HeapPage implements Page {
      *         (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        ArrayList<Tuple> tuplesInUse = new ArrayList<>();
-        for (int i = 0; i < this.getNumTuples(); i++) {
-            if (this.isSlotUsed(i)) {
-                tuplesInUse.add(this.tuples[i]);
+        return new SlotIterator();
+    }
+
+    /**
+     * Iterates over the slots that were in use when it was created and
+     * decodes each tuple only when the iteration reaches it. Tuples deleted
+     * in the meantime are skipped; tuples inserted in the meantime are not
+     * returned.
+     */
+    private class SlotIterator implements Iterator<Tuple> {
+        private final byte[] used = header.clone();
+        private int slot = -1;
+        private Tuple next;
+
+        private boolean wasUsed(int i) {
+            return ((used[i / 8] >> (i % 8)) & 1) == 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && slot + 1 < numSlots) {
+                slot++;
+                if (wasUsed(slot)) {
+                    next = getTuple(slot);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
+            Tuple t = next;
+            next = null;
+            return t;
         }
-        return tuplesInUse.iterator();
     }
 }
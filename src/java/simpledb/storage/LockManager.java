@@ -3,262 +3,714 @@ package simpledb.storage;
 import simpledb.common.Permissions;
 
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+/**
+ * Grants transactions shared (READ_ONLY) and exclusive (READ_WRITE) locks on
+ * pages, and locks of any {@link LockMode} on pages, records (by RecordId)
+ * and tables (by {@link TableLockId}). The LockManager does not know how
+ * these nest; callers locking records take the intention locks on their
+ * pages and tables first.
+ * <p>
+ * Every locked resource has a {@link LockQueue} of the locks held on it and
+ * the requests waiting for one. Requests are granted in the order they
+ * arrive, except that a holder strengthening its lock goes ahead of the
+ * other waiters, so a steady stream of readers cannot starve a writer. A
+ * request that cannot be granted parks on its resource's condition and is
+ * woken when the queue changes; it gives up with a
+ * TransactionAbortedException when its transaction's timeout runs out.
+ * <p>
+ * The queues are hashed into stripes, each with its own latch, so requests
+ * for resources of different stripes never wait for each other's
+ * bookkeeping. Deadlocks are found on a {@link WaitForGraph} shared by all
+ * stripes and kept up to date as requests block and leave their queues, by
+ * searching for a cycle from the transactions that just started waiting
+ * for another. One transaction of each cycle, chosen by the
+ * {@link VictimPolicy}, has its waiting requests aborted.
+ * <p>
+ * Latches are always taken in the order stripe, then wait-for graph, and at
+ * most one stripe at a time; waiters of other stripes are woken only after
+ * the stripe's latch is released.
+ */
 public class LockManager {
-    // key：pid; value: list of locks of the page
-    private Map<PageId, List<PageLevelLock>> lockMap;
-    private ConcurrentHashMap<TransactionId, HashSet<TransactionId>> waitForMap;
-    private long timeout = 200;
+    /** Milliseconds a transaction waits for a lock unless it has a timeout of its own. */
+    public static final long DEFAULT_TIMEOUT = 2000;
+
+    /** Number of stripes of the lock table unless given to the constructor. */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /** How the transaction aborted to break a deadlock is chosen among those on the cycle. */
+    public enum VictimPolicy {
+        /** The one that started last. */
+        YOUNGEST,
+        /** The one holding the fewest locks. */
+        FEWEST_LOCKS,
+        /** The one holding the fewest exclusive locks, which has changed the fewest pages and records. */
+        LEAST_WORK
+    }
+
+    /** One independently latched slice of the lock table. */
+    private static class LockStripe {
+        // guards the queues of the stripe; waiters park on conditions of it
+        final ReentrantLock latch = new ReentrantLock();
+        // key: pid, RecordId or TableLockId; value: locks held on it and
+        // requests waiting for one
+        final Map<Object, LockQueue> lockMap = new HashMap<>();
+    }
+
+    private final LockStripe[] stripes;
+    // key: tid; value: resources the transaction holds a lock on and how,
+    // so releasing all of its locks does not walk the whole lock table
+    private final Map<TransactionId, Map<Object, LockMode>> heldLocks = new ConcurrentHashMap<>();
+    // the graph and the maps below are guarded by the graph's monitor
+    private final WaitForGraph waitForGraph = new WaitForGraph();
+    // key: tid; value: the requests of the transaction that are waiting
+    private final Map<TransactionId, List<LockRequest>> waiting = new HashMap<>();
+    private volatile VictimPolicy victimPolicy = VictimPolicy.YOUNGEST;
+    private final Map<TransactionId, Long> timeouts = new ConcurrentHashMap<>();
+    private volatile long defaultTimeout = DEFAULT_TIMEOUT;
 
     public LockManager() {
-        this.lockMap = new ConcurrentHashMap<>();
-        this.waitForMap = new ConcurrentHashMap<>();
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a LockManager whose lock table is split into the given number
+     * of stripes.
+     *
+     * @param numStripes number of independently latched stripes
+     */
+    public LockManager(int numStripes) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("need at least one stripe");
+        }
+        this.stripes = new LockStripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            this.stripes[i] = new LockStripe();
+        }
+    }
+
+    private LockStripe stripeFor(Object resource) {
+        int h = resource.hashCode();
+        h ^= (h >>> 16);
+        return stripes[Math.floorMod(h, stripes.length)];
+    }
+
+    /**
+     * Sets how long transactions without a timeout of their own wait for a
+     * lock before they are aborted.
+     *
+     * @param millis the timeout in milliseconds
+     */
+    public void setDefaultTimeout(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("timeout must not be negative");
+        }
+        defaultTimeout = millis;
+    }
+
+    /**
+     * Sets how long tid waits for a lock before it is aborted. The timeout
+     * is forgotten when all of tid's locks are released.
+     *
+     * @param tid
+     * @param millis the timeout in milliseconds
+     */
+    public void setTimeout(TransactionId tid, long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("timeout must not be negative");
+        }
+        timeouts.put(tid, millis);
+    }
+
+    /**
+     * Sets how the transaction aborted to break a deadlock is chosen;
+     * {@link VictimPolicy#YOUNGEST} unless set.
+     */
+    public void setVictimPolicy(VictimPolicy policy) {
+        victimPolicy = policy;
+    }
+
+    private long timeout(TransactionId tid) {
+        return timeouts.getOrDefault(tid, defaultTimeout);
     }
 
     /**
      * return a hashset contains all transactions in lockMap
      */
     public HashSet<TransactionId> getTransactions() {
-        HashSet<TransactionId> trans = new HashSet<>();
-        for (PageId pid : lockMap.keySet()) {
-            for (PageLevelLock l : lockMap.get(pid)) {
-                trans.add(l.getTransactionId());
+        return new HashSet<>(heldLocks.keySet());
+    }
+
+    /**
+     * return the pages the transaction holds a lock on
+     *
+     * @param tid
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pids = new HashSet<>();
+        for (Object resource : heldLocks.getOrDefault(tid, Collections.emptyMap()).keySet()) {
+            if (resource instanceof PageId) {
+                pids.add((PageId) resource);
             }
         }
-        return trans;
+        return pids;
+    }
+
+    /**
+     * return the resources the transaction holds a lock on, and how
+     *
+     * @param tid
+     */
+    public Map<Object, LockMode> getLocks(TransactionId tid) {
+        Map<Object, LockMode> held = heldLocks.get(tid);
+        return held == null ? new HashMap<>() : new HashMap<>(held);
+    }
+
+    /**
+     * return the mode of the lock the transaction holds on a resource, or
+     * null if it holds none
+     *
+     * @param tid
+     * @param resource
+     */
+    public LockMode getLockMode(TransactionId tid, Object resource) {
+        Map<Object, LockMode> held = heldLocks.get(tid);
+        return held == null ? null : held.get(resource);
+    }
+
+    private void granted(TransactionId tid, Object resource, LockMode mode) {
+        heldLocks.compute(tid, (k, held) -> {
+            if (held == null) {
+                held = new ConcurrentHashMap<>();
+            }
+            held.put(resource, mode);
+            return held;
+        });
+    }
+
+    private void released(TransactionId tid, Object resource) {
+        heldLocks.computeIfPresent(tid, (k, held) -> {
+            held.remove(resource);
+            return held.isEmpty() ? null : held;
+        });
     }
 
     /**
-     * transaction acquire page level lock
-     * throw TransactionAbortedException when timeout
-     * avoid deadlock
-     * 
+     * transaction acquire page level lock, waiting until it can be granted
+     * throw TransactionAbortedException when the request is chosen to break
+     * a deadlock, the transaction's timeout runs out or the thread is
+     * interrupted
+     *
      * @param tid
      * @param pid
      * @param perm
      */
-    public synchronized void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+    public void acquireLock(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException {
+        acquireLock(tid, (Object) pid, LockMode.of(perm));
+    }
 
-        boolean locked = false;
-        long start = System.currentTimeMillis();
-        while (!locked) {
-            if (System.currentTimeMillis() - start > timeout) {
-                throw new TransactionAbortedException();
+    /**
+     * transaction acquire a lock of the given mode on a page, record or
+     * table, waiting until it can be granted; a lock tid already holds is
+     * strengthened to the join of both modes
+     * throw TransactionAbortedException as
+     * {@link #acquireLock(TransactionId, PageId, Permissions)} does
+     *
+     * @param tid
+     * @param resource a PageId, RecordId or TableLockId
+     * @param mode
+     */
+    public void acquireLock(TransactionId tid, Object resource, LockMode mode)
+            throws TransactionAbortedException {
+        LockStripe stripe = stripeFor(resource);
+        List<LockRequest> victims = new ArrayList<>();
+        stripe.latch.lock();
+        LockQueue queue = null;
+        LockRequest request = null;
+        try {
+            queue = stripe.lockMap.computeIfAbsent(resource, k -> new LockQueue(stripe.latch));
+            if (grant(queue, tid, resource, mode, null, victims)) {
+                return;
+            }
+            request = enqueue(queue, tid, mode);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout(tid));
+            breakDeadlocks(updateWaitsFor(queue), victims);
+            while (true) {
+                if (!victims.isEmpty()) {
+                    stripe.latch.unlock();
+                    try {
+                        wake(victims);
+                    } finally {
+                        stripe.latch.lock();
+                    }
+                    // the queue may have moved on while it was not latched
+                    if (!request.aborted && grant(queue, tid, resource, mode, request, victims)) {
+                        request = null;
+                        return;
+                    }
+                }
+                if (request.aborted) {
+                    throw new TransactionAbortedException();
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new TransactionAbortedException();
+                }
+                try {
+                    queue.changed.awaitNanos(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                }
+                if (!request.aborted && grant(queue, tid, resource, mode, request, victims)) {
+                    request = null;
+                    return;
+                }
+            }
+        } finally {
+            // a thread stopped while parked may come back without the latch
+            if (!stripe.latch.isHeldByCurrentThread()) {
+                stripe.latch.lock();
             }
-            locked = acquireLockHelper(tid, pid, perm);
+            if (request != null) {
+                dequeue(queue, request);
+                // requests behind this one may be grantable now
+                changed(queue, victims);
+            }
+            if (queue != null && queue.isEmpty()) {
+                stripe.lockMap.remove(resource, queue);
+            }
+            stripe.latch.unlock();
+            wake(victims);
         }
     }
 
     /**
      * transaction acquire lock helper function
-     * 
+     * grants the lock only if it can be granted without waiting
+     *
      * @param tid
      * @param pid
      * @param perm
+     * @return true if tid holds the lock now
      */
-    public synchronized boolean acquireLockHelper(TransactionId tid, PageId pid, Permissions perm)
-            throws TransactionAbortedException {
-        PageLevelLock lock = new PageLevelLock(tid, perm);
-        List<PageLevelLock> locks = lockMap.get(pid);
-        if (locks == null || locks.size() == 0) {
-            locks = new ArrayList<>();
-            locks.add(lock);
-            lockMap.put(pid, locks);
+    public boolean acquireLockHelper(TransactionId tid, PageId pid, Permissions perm) {
+        return acquireLockHelper(tid, (Object) pid, LockMode.of(perm));
+    }
+
+    /**
+     * grants a lock of the given mode on a page, record or table only if it
+     * can be granted without waiting
+     *
+     * @param tid
+     * @param resource a PageId, RecordId or TableLockId
+     * @param mode
+     * @return true if tid holds the lock now
+     */
+    public boolean acquireLockHelper(TransactionId tid, Object resource, LockMode mode) {
+        LockStripe stripe = stripeFor(resource);
+        stripe.latch.lock();
+        try {
+            LockQueue queue = stripe.lockMap.computeIfAbsent(resource, k -> new LockQueue(stripe.latch));
+            boolean locked = grant(queue, tid, resource, mode, null, null);
+            if (queue.isEmpty()) {
+                stripe.lockMap.remove(resource, queue);
+            }
+            return locked;
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Grants tid a lock on the resource of queue if it conflicts neither
+     * with the locks held by other transactions nor with the requests ahead
+     * of it. A lock tid already holds is strengthened to cover mode as well.
+     *
+     * @param request tid's waiting request, or null if it has not queued
+     * @param victims collects the requests aborted to break deadlocks
+     * @return true if tid holds the lock now
+     */
+    private boolean grant(LockQueue queue, TransactionId tid, Object resource, LockMode mode,
+            LockRequest request, List<LockRequest> victims) {
+        HeldLock held = queue.holder(tid);
+        if (held != null && held.getMode().covers(mode)) {
+            if (request != null) {
+                dequeue(queue, request);
+            }
             return true;
         }
+        mode = held != null ? held.getMode().join(mode) : mode;
+        for (HeldLock l : queue.holders) {
+            if (conflicts(l.getTransactionId(), l.getMode(), tid, mode)) {
+                return false;
+            }
+        }
+        // an upgrade only queues behind other upgrades
+        boolean upgrade = held != null;
+        for (LockRequest r : queue.waiters) {
+            if (r == request) {
+                break;
+            }
+            if (!r.aborted && (r.upgrade || !upgrade) && conflicts(r.tid, r.mode, tid, mode)) {
+                return false;
+            }
+        }
+        if (held != null) {
+            held.setMode(mode);
+        } else {
+            queue.holders.add(new HeldLock(tid, mode));
+        }
+        granted(tid, resource, mode);
+        if (request != null) {
+            dequeue(queue, request);
+            // a shared lock may let the shared requests behind it in too
+            changed(queue, victims);
+        }
+        return true;
+    }
 
-        // only one transaction
-        if (locks.size() == 1) {
-            PageLevelLock curLock = locks.get(0);
-            if (curLock.getTransactionId().equals(tid)) {
-                // upgrade lock or not
-                if (curLock.getPermissions().equals(Permissions.READ_ONLY)
-                        && perm.equals(Permissions.READ_WRITE)) {
-                    curLock.setPermissions(Permissions.READ_WRITE);
-                }
-                return true;
-            } else {
-                // add READ lock
-                if (curLock.getPermissions().equals(Permissions.READ_ONLY)
-                        && perm.equals(Permissions.READ_ONLY)) {
-                    locks.add(lock);
-                    return true;
-                }
-                if (!waitForMap.containsKey(tid)) {
-                    waitForMap.put(tid, new HashSet<>());
+    private static boolean conflicts(TransactionId a, LockMode modeA, TransactionId b, LockMode modeB) {
+        return !a.equals(b) && !modeA.compatibleWith(modeB);
+    }
+
+    private LockRequest enqueue(LockQueue queue, TransactionId tid, LockMode mode) {
+        HeldLock held = queue.holder(tid);
+        LockRequest request = new LockRequest(queue, tid, held != null ? held.getMode().join(mode) : mode,
+                held != null);
+        if (request.upgrade) {
+            // behind the upgrades already waiting, ahead of everything else
+            ListIterator<LockRequest> it = queue.waiters.listIterator();
+            while (it.hasNext()) {
+                if (!it.next().upgrade) {
+                    it.previous();
+                    break;
                 }
-                waitForMap.get(tid).add(curLock.getTransactionId());
+            }
+            it.add(request);
+        } else {
+            queue.waiters.addLast(request);
+        }
+        synchronized (waitForGraph) {
+            waiting.computeIfAbsent(tid, k -> new ArrayList<>()).add(request);
+        }
+        return request;
+    }
 
-                // check for deadlocks
-                if (detectDeadLock()) {
-                    waitForMap.get(tid).remove(curLock.getTransactionId());
-                    throw new TransactionAbortedException();
+    private void dequeue(LockQueue queue, LockRequest request) {
+        queue.waiters.remove(request);
+        synchronized (waitForGraph) {
+            for (TransactionId t : request.waitsFor) {
+                waitForGraph.removeEdge(request.tid, t);
+            }
+            request.waitsFor.clear();
+            List<LockRequest> requests = waiting.get(request.tid);
+            if (requests != null) {
+                requests.remove(request);
+                if (requests.isEmpty()) {
+                    waiting.remove(request.tid);
                 }
-                return false;
             }
         }
+    }
 
-        // multiple transactions, which means they must be READ_ONLY
-        if (!perm.equals(Permissions.READ_ONLY)) {
-            if (!waitForMap.containsKey(tid)) {
-                waitForMap.put(tid, new HashSet<>());
+    /**
+     * Recomputes the transactions each waiter of queue waits for: the
+     * holders and the requests ahead of it it conflicts with, and brings the
+     * wait-for graph up to date. Aborted requests wait for nothing.
+     *
+     * @return the transactions that now wait for one they did not before
+     */
+    private Set<TransactionId> updateWaitsFor(LockQueue queue) {
+        Set<TransactionId> blocked = new HashSet<>();
+        int i = 0;
+        for (LockRequest r : queue.waiters) {
+            Set<TransactionId> waitsFor = new HashSet<>();
+            for (HeldLock l : queue.holders) {
+                if (conflicts(l.getTransactionId(), l.getMode(), r.tid, r.mode)) {
+                    waitsFor.add(l.getTransactionId());
+                }
+            }
+            for (LockRequest ahead : queue.waiters.subList(0, i)) {
+                if (!ahead.aborted && conflicts(ahead.tid, ahead.mode, r.tid, r.mode)) {
+                    waitsFor.add(ahead.tid);
+                }
             }
+            synchronized (waitForGraph) {
+                if (r.aborted) {
+                    waitsFor.clear();
+                }
+                for (TransactionId t : r.waitsFor) {
+                    if (!waitsFor.contains(t)) {
+                        waitForGraph.removeEdge(r.tid, t);
+                    }
+                }
+                for (TransactionId t : waitsFor) {
+                    if (!r.waitsFor.contains(t)) {
+                        waitForGraph.addEdge(r.tid, t);
+                        blocked.add(r.tid);
+                    }
+                }
+                r.waitsFor.clear();
+                r.waitsFor.addAll(waitsFor);
+            }
+            i++;
+        }
+        return blocked;
+    }
 
-            for (PageLevelLock l : locks) {
-                waitForMap.get(tid).add(l.getTransactionId());
+    /** Brings the waits of queue up to date and wakes its waiters. */
+    private void changed(LockQueue queue, List<LockRequest> victims) {
+        breakDeadlocks(updateWaitsFor(queue), victims);
+        queue.changed.signalAll();
+    }
+
+    /**
+     * Aborts a victim of each cycle in the wait-for graph through one of the
+     * given transactions; any new cycle goes through one of them.
+     *
+     * @param victims collects the aborted requests, which the caller wakes
+     *            once it no longer holds a stripe latch
+     */
+    private void breakDeadlocks(Set<TransactionId> blocked, List<LockRequest> victims) {
+        if (blocked.isEmpty()) {
+            return;
+        }
+        synchronized (waitForGraph) {
+            for (TransactionId tid : blocked) {
+                List<TransactionId> cycle = waitForGraph.findCycle(tid);
+                while (cycle != null) {
+                    abortWaits(victim(cycle), victims);
+                    cycle = waitForGraph.findCycle(tid);
+                }
             }
+        }
+    }
 
-            // check for deadlocks
-            if (detectDeadLock()) {
-                for (PageLevelLock l : locks) {
-                    if (l.getTransactionId() != tid) {
-                        waitForMap.get(tid).remove(l.getTransactionId());
+    private TransactionId victim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        long least = Long.MAX_VALUE;
+        for (TransactionId tid : cycle) {
+            Map<Object, LockMode> held = heldLocks.getOrDefault(tid, Collections.emptyMap());
+            long cost;
+            switch (victimPolicy) {
+            case FEWEST_LOCKS:
+                cost = held.size();
+                break;
+            case LEAST_WORK:
+                cost = 0;
+                for (LockMode mode : held.values()) {
+                    if (mode == LockMode.X) {
+                        cost++;
                     }
                 }
+                break;
+            default:
+                cost = 0;
+            }
+            // ties go to the youngest
+            if (victim == null || cost < least || (cost == least && tid.getId() > victim.getId())) {
+                victim = tid;
+                least = cost;
+            }
+        }
+        return victim;
+    }
 
-                throw new TransactionAbortedException();
+    /**
+     * Marks the waiting requests of tid aborted and takes them out of the
+     * wait-for graph. They leave their queues when their threads wake.
+     */
+    private void abortWaits(TransactionId tid, List<LockRequest> victims) {
+        for (LockRequest r : waiting.getOrDefault(tid, Collections.emptyList())) {
+            if (!r.aborted) {
+                r.aborted = true;
+                for (TransactionId t : r.waitsFor) {
+                    waitForGraph.removeEdge(r.tid, t);
+                }
+                r.waitsFor.clear();
+                if (victims != null) {
+                    victims.add(r);
+                }
             }
-            return false;
         }
+    }
 
-        for (PageLevelLock l : locks) {
-            // transaction already holds the lock
-            if (l.getTransactionId().equals(tid)) {
-                return true;
+    /** Wakes the threads of aborted requests; called without a stripe latch. */
+    private static void wake(List<LockRequest> victims) {
+        for (LockRequest r : victims) {
+            r.queue.latch.lock();
+            try {
+                r.queue.changed.signalAll();
+            } finally {
+                r.queue.latch.unlock();
             }
         }
-        locks.add(lock);
-        return true;
+        victims.clear();
     }
 
     /**
      * release lock of the transation for given page
-     * 
+     *
      * @param tid
      * @param pid
      */
-    public synchronized void releaseLock(TransactionId tid, PageId pid) {
-        if (lockMap.containsKey(pid)) {
-            List<PageLevelLock> locks = lockMap.get(pid);
-            for (PageLevelLock l : locks) {
-                if (l.getTransactionId().equals(tid)) {
-                    locks.remove(l);
-                    return;
+    public void releaseLock(TransactionId tid, PageId pid) {
+        releaseLock(tid, (Object) pid);
+    }
+
+    /**
+     * release lock of the transation for given page, record or table
+     *
+     * @param tid
+     * @param resource
+     */
+    public void releaseLock(TransactionId tid, Object resource) {
+        LockStripe stripe = stripeFor(resource);
+        List<LockRequest> victims = new ArrayList<>();
+        stripe.latch.lock();
+        try {
+            LockQueue queue = stripe.lockMap.get(resource);
+            if (queue != null && queue.release(tid)) {
+                changed(queue, victims);
+                released(tid, resource);
+                if (queue.isEmpty()) {
+                    stripe.lockMap.remove(resource, queue);
                 }
             }
+        } finally {
+            stripe.latch.unlock();
         }
+        wake(victims);
     }
 
     /**
      * release all locks of the transaction
-     * 
+     *
      * @param tid
      */
-    public synchronized void releaseAllLocks(TransactionId tid) {
-        for (PageId pid : lockMap.keySet()) {
-            List<PageLevelLock> locks = lockMap.get(pid);
-            for (PageLevelLock l : locks) {
-                if (l.getTransactionId().equals(tid)) {
-                    locks.remove(l);
-                    break;
-                }
-            }
+    public void releaseAllLocks(TransactionId tid) {
+        timeouts.remove(tid);
+        Map<Object, LockMode> held = heldLocks.get(tid);
+        if (held == null) {
+            return;
+        }
+        for (Object resource : new ArrayList<>(held.keySet())) {
+            releaseLock(tid, resource);
         }
     }
 
     /**
      * return true if the transaction holds a lock
-     * 
+     *
      * @param tid
      * @param pid
      */
-    public synchronized Boolean holdsLock(TransactionId tid, PageId pid) {
-        if (lockMap.containsKey(pid)) {
-            List<PageLevelLock> locks = lockMap.get(pid);
-            for (PageLevelLock l : locks) {
-                if (l.getTransactionId().equals(tid)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    public Boolean holdsLock(TransactionId tid, PageId pid) {
+        return holdsLock(tid, (Object) pid);
     }
 
-
     /**
-     * detect deadlock using BFS
+     * return true if the transaction holds a lock on a page, record or table
+     *
+     * @param tid
+     * @param resource
      */
-    private synchronized boolean detectDeadLock() {
-        ConcurrentHashMap<TransactionId, Integer> tidDegree = new ConcurrentHashMap<>();
-        Deque<TransactionId> queue = new LinkedList<>();
+    public Boolean holdsLock(TransactionId tid, Object resource) {
+        Map<Object, LockMode> held = heldLocks.get(tid);
+        return held != null && held.containsKey(resource);
+    }
+}
 
-        for (TransactionId tid : getTransactions()) {
-            tidDegree.putIfAbsent(tid, 0);
-        }
-        for (TransactionId tid1 : getTransactions()) {
-            if (waitForMap.containsKey(tid1)) {
-                for (TransactionId tid2 : waitForMap.get(tid1)) {
-                    tidDegree.put(tid2, tidDegree.getOrDefault(tid2, 0) + 1);
-                }
-            }
-        }
+/* the locks held on a resource and the requests waiting for one */
+class LockQueue {
+    final List<HeldLock> holders = new ArrayList<>();
+    final LinkedList<LockRequest> waiters = new LinkedList<>();
+    // the latch of the queue's stripe
+    final ReentrantLock latch;
+    // signalled whenever a lock is released or a request leaves the queue
+    final Condition changed;
 
-        // Build queue
-        for (TransactionId id : getTransactions()) {
-            if (tidDegree.get(id) == 0) {
-                queue.offer(id);
-            }
-        }
+    LockQueue(ReentrantLock latch) {
+        this.latch = latch;
+        this.changed = latch.newCondition();
+    }
 
-        int count = 0;
-        while (!queue.isEmpty()) {
-            TransactionId curTid = queue.poll();
-            count += 1;
-
-            if (waitForMap.containsKey(curTid)) {
-                for (TransactionId tid : waitForMap.get(curTid)) {
-                    if (tidDegree.get(tid) != 0) {
-                        tidDegree.put(tid, tidDegree.get(tid) - 1);
-                    } else {
-                        queue.offer(tid);
-                    }
-                }
+    HeldLock holder(TransactionId tid) {
+        for (HeldLock l : holders) {
+            if (l.getTransactionId().equals(tid)) {
+                return l;
             }
         }
+        return null;
+    }
 
-        return count != getTransactions().size();
+    /** @return true if tid held a lock on the resource */
+    boolean release(TransactionId tid) {
+        return holders.remove(holder(tid));
+    }
+
+    boolean isEmpty() {
+        return holders.isEmpty() && waiters.isEmpty();
     }
 }
 
-/* page level lock */
-class PageLevelLock {
+/* a request waiting in a LockQueue */
+class LockRequest {
+    final LockQueue queue;
+    final TransactionId tid;
+    // the mode the transaction will hold once granted
+    final LockMode mode;
+    // the transaction holds a weaker lock it wants to strengthen
+    final boolean upgrade;
+    // transactions the request waits for
+    final Set<TransactionId> waitsFor = new HashSet<>();
+    // set when the request is aborted to break a deadlock
+    volatile boolean aborted = false;
+
+    LockRequest(LockQueue queue, TransactionId tid, LockMode mode, boolean upgrade) {
+        this.queue = queue;
+        this.tid = tid;
+        this.mode = mode;
+        this.upgrade = upgrade;
+    }
+}
+
+/* a lock held on a page, record or table */
+class HeldLock {
     private TransactionId tid;
-    private Permissions perm;
+    private LockMode mode;
 
-    public PageLevelLock(TransactionId tid, Permissions perm) {
+    public HeldLock(TransactionId tid, LockMode mode) {
         this.tid = tid;
-        this.perm = perm;
+        this.mode = mode;
     }
 
     public TransactionId getTransactionId() {
         return this.tid;
     }
 
-    public Permissions getPermissions() {
-        return this.perm;
+    public LockMode getMode() {
+        return this.mode;
     }
 
-    public void setPermissions(Permissions perm) {
-        this.perm = perm;
+    public void setMode(LockMode mode) {
+        this.mode = mode;
     }
-}
\ No newline at end of file
+}
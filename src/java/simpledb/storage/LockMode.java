@@ -0,0 +1,59 @@
+package simpledb.storage;
+
+import simpledb.common.Permissions;
+
+/**
+ * Modes of the locks the {@link LockManager} grants, for locking at more
+ * than one granularity: a transaction that wants a shared (S) or exclusive
+ * (X) lock on a record first takes an intention lock (IS or IX) on the
+ * record's page and table, so a lock on the whole table conflicts with
+ * those on the records inside it without the LockManager looking at them.
+ * SIX is a shared lock on a table whose transaction also means to lock
+ * some of its records exclusively.
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //         IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    // the weakest mode that grants everything both modes do
+    private static final LockMode[][] JOIN = {
+            /* IS  */ {IS,  IX,  S,   SIX, X},
+            /* IX  */ {IX,  IX,  SIX, SIX, X},
+            /* S   */ {S,   SIX, S,   SIX, X},
+            /* SIX */ {SIX, SIX, SIX, SIX, X},
+            /* X   */ {X,   X,   X,   X,   X},
+    };
+
+    /** @return true if two transactions may hold this mode and other at once */
+    public boolean compatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** @return the weakest mode that grants everything this mode and other do */
+    public LockMode join(LockMode other) {
+        return JOIN[ordinal()][other.ordinal()];
+    }
+
+    /** @return true if holding this mode grants everything other does */
+    public boolean covers(LockMode other) {
+        return join(other) == this;
+    }
+
+    /** @return S for READ_ONLY and X for READ_WRITE */
+    public static LockMode of(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? X : S;
+    }
+
+    /** @return the intention mode taken on the parents of a resource locked with perm */
+    public static LockMode intentionFor(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? IX : IS;
+    }
+}
@@ -92,9 +92,15 @@ public class LogFile {
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
+    // value of totalRecords at the last force(); record counts never go
+    // back, unlike offsets, which shrink when the log is truncated
+    volatile int forcedRecords = 0;
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // shares log forces and page syncs among concurrent committers
+    private final GroupCommit groupCommit = new GroupCommit(this);
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -140,6 +146,15 @@ public class LogFile {
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /**
+     * @return the number of records appended to the log that are known to
+     *   be on disk. A record is durable once getTotalRecords() right after
+     *   appending it is at most this value.
+     */
+    public int getForcedRecords() {
+        return forcedRecords;
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -171,21 +186,73 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk. The force is shared with other
+        transactions committing at the same time.
 
         @param tid The committing transaction.
+        @see #setGroupCommitWindow
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        int record;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            record = totalRecords;
+            tidToFirstLogRecord.remove(tid.getId());
+        }
+        // wait outside the monitor so later committers can append to
+        // the group being forced
+        groupCommit.await(record, Collections.emptySet());
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** @return true if tid has a BEGIN record and no COMMIT or ABORT record yet */
+    public synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /**
+     * Forces the log until the first record records, as counted by
+     * {@link #getTotalRecords}, are on disk, as part of a commit group.
+     * Must not be called while holding this log's monitor.
+     */
+    public void force(int record) throws IOException {
+        groupCommit.await(record, Collections.emptySet());
+    }
+
+    /**
+     * Syncs the given files as part of a commit group, so that concurrent
+     * committers that wrote to the same file share one fsync.
+     * Must not be called while holding this log's monitor.
+     */
+    public void syncFiles(Collection<? extends DbFile> files) throws IOException {
+        groupCommit.await(0, files);
+    }
+
+    /**
+     * Sets how long the leader of a commit group waits for more commits to
+     * join before it forces the log. Zero, the default, forces at once;
+     * commits that arrive during a force still share the next one.
+     *
+     * @param micros the group window in microseconds
+     */
+    public void setGroupCommitWindow(long micros) {
+        groupCommit.setWindowMicros(micros);
+    }
+
+    /** @return the group commit window in microseconds */
+    public long getGroupCommitWindow() {
+        return groupCommit.getWindowMicros();
+    }
+
+    /** @return the number of commit groups forced so far */
+    public long getNumCommitGroups() {
+        return groupCommit.getNumGroups();
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -267,7 +334,19 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have several constructors; use the one that
+            // parses a page from its bytes
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class) {
+                    pageConst = c;
+                    break;
+                }
+            }
+            if (pageConst == null) {
+                throw new NoSuchMethodException(pageClassName + "(PageId, byte[])");
+            }
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -277,10 +356,10 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | IllegalAccessException | InstantiationException e){
             e.printStackTrace();
             throw new IOException();
         }
@@ -569,6 +648,7 @@ public class LogFile {
 
     public  synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        forcedRecords = totalRecords;
     }
 
 }
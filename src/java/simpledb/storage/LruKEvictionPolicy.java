@@ -0,0 +1,159 @@
+package simpledb.storage;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum, SIGMOD '93).
+ * <p>
+ * The policy remembers the times of the last K references to every page and
+ * evicts the page whose K-th most recent reference is the oldest. Pages that
+ * have been referenced fewer than K times have an infinite backward
+ * K-distance and are evicted first, least recently used first. A page read
+ * once by a large sequential scan therefore never pushes out a page that is
+ * used over and over, such as a B+ tree internal page.
+ * <p>
+ * The history of evicted pages is retained for a while (up to capacity
+ * entries), so a page that comes back soon after being evicted keeps its
+ * reference count.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /** K used by {@link #LruKEvictionPolicy(int)}; LRU-2 is the usual choice. */
+    public static final int DEFAULT_K = 2;
+
+    /** Factory for LRU-K policies with the default K. */
+    public static final EvictionPolicy.Factory FACTORY = LruKEvictionPolicy::new;
+
+    private final int k;
+    private final int retainedCapacity;
+    private long clock = 0;
+    private long nextSeq = 0;
+
+    // histories of resident pages, ordered from best victim to worst
+    private final TreeSet<History> resident = new TreeSet<>(VICTIM_ORDER);
+    private final Map<PageId, History> residentMap = new HashMap<>();
+    // histories of recently evicted pages, oldest first
+    private final LinkedHashMap<PageId, History> retained = new LinkedHashMap<>();
+
+    /**
+     * Reference history of one page. times[0] is the most recent reference.
+     */
+    private static class History {
+        final PageId pid;
+        final long[] times;
+        int count;
+        long seq;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        void reference(long now) {
+            System.arraycopy(times, 0, times, 1, times.length - 1);
+            times[0] = now;
+            if (count < times.length)
+                count++;
+        }
+
+        boolean hasFullHistory() {
+            return count == times.length;
+        }
+
+        /** K-th most recent reference, or the last one if there are fewer than K. */
+        long priority() {
+            return hasFullHistory() ? times[times.length - 1] : times[0];
+        }
+    }
+
+    private static final Comparator<History> VICTIM_ORDER = (a, b) -> {
+        // pages with an infinite backward K-distance go first
+        if (a.hasFullHistory() != b.hasFullHistory())
+            return a.hasFullHistory() ? 1 : -1;
+        int c = Long.compare(a.priority(), b.priority());
+        return c != 0 ? c : Long.compare(a.seq, b.seq);
+    };
+
+    /**
+     * Creates an LRU-K policy with K = {@link #DEFAULT_K}.
+     *
+     * @param capacity the number of pages the pool can hold
+     */
+    public LruKEvictionPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    /**
+     * @param capacity the number of pages the pool can hold
+     * @param k        the number of references remembered for every page
+     */
+    public LruKEvictionPolicy(int capacity, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.retainedCapacity = Math.max(capacity, 1);
+    }
+
+    public void pageAdded(PageId pid) {
+        History h = retained.remove(pid);
+        if (h == null) {
+            h = residentMap.get(pid);
+            if (h != null) {
+                // already resident, treat as a hit
+                pageAccessed(pid);
+                return;
+            }
+            h = new History(pid, k);
+        }
+        h.reference(++clock);
+        h.seq = nextSeq++;
+        resident.add(h);
+        residentMap.put(pid, h);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = residentMap.get(pid);
+        if (h == null) {
+            pageAdded(pid);
+            return;
+        }
+        resident.remove(h);
+        h.reference(++clock);
+        resident.add(h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = residentMap.remove(pid);
+        if (h != null)
+            resident.remove(h);
+        retained.remove(pid);
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        for (Iterator<History> it = resident.iterator(); it.hasNext();) {
+            History h = it.next();
+            if (!evictable.test(h.pid))
+                continue;
+            it.remove();
+            residentMap.remove(h.pid);
+            retain(h);
+            return h.pid;
+        }
+        return null;
+    }
+
+    private void retain(History h) {
+        retained.put(h.pid, h);
+        if (retained.size() > retainedCapacity) {
+            Iterator<PageId> oldest = retained.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+}
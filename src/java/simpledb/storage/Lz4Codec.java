@@ -0,0 +1,165 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compressor for the LZ4 block format, used to compress the pages of a
+ * {@link CompressedHeapFile}.
+ * <p>
+ * A block is a sequence of tokens, each made of a run of literal bytes
+ * followed by a match: a 16-bit back-reference offset and a length of at
+ * least {@link #MIN_MATCH} bytes to copy from the output already produced.
+ * Matches may overlap their own output, so a long run of zero padding
+ * compresses to a handful of bytes. The compressor finds matches with a
+ * single-entry hash table of 4-byte sequences. This trades some ratio for
+ * speed, which suits pages that are written on every commit.
+ */
+public final class Lz4Codec {
+
+    static final int MIN_MATCH = 4;
+    // the format requires the last bytes of a block to be literals
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+
+    private Lz4Codec() {
+    }
+
+    /** @return the largest size a block of n bytes can compress to */
+    public static int maxCompressedLength(int n) {
+        return n + n / 255 + 16;
+    }
+
+    /**
+     * Compresses src.
+     *
+     * @return the compressed block
+     */
+    public static byte[] compress(byte[] src) {
+        byte[] dst = new byte[maxCompressedLength(src.length)];
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int ip = 0;
+        int op = 0;
+        int limit = src.length - MF_LIMIT;
+        while (ip < limit) {
+            int seq = readInt(src, ip);
+            int h = (seq * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                ip++;
+                continue;
+            }
+            // extend the match backwards over pending literals
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int matchLen = MIN_MATCH;
+            int matchLimit = src.length - LAST_LITERALS;
+            while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                matchLen++;
+            }
+            op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLen);
+            ip += matchLen;
+            anchor = ip;
+        }
+        op = writeSequence(dst, op, src, anchor, src.length - anchor, 0, 0);
+        return Arrays.copyOf(dst, op);
+    }
+
+    /**
+     * Decompresses the block in src[off, off+len) into dst, which must be
+     * exactly as long as the original data.
+     *
+     * @throws IOException if the block is malformed or does not decompress
+     *                     to exactly dst.length bytes
+     */
+    public static void decompress(byte[] src, int off, int len, byte[] dst) throws IOException {
+        int ip = off;
+        int end = off + len;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip >= end) {
+                    break;
+                }
+                int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+                ip += 2;
+                int matchLen = token & 15;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < 0) {
+                    throw new IOException("bad match offset " + offset + " at " + op);
+                }
+                // byte by byte, since the match may overlap its own output
+                for (int i = 0; i < matchLen; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt compressed block", e);
+        }
+        if (ip != end || op != dst.length) {
+            throw new IOException("compressed block decodes to " + op + " bytes, expected " + dst.length);
+        }
+    }
+
+    private static int writeSequence(byte[] dst, int op, byte[] src, int anchor, int literals,
+                                     int offset, int matchLen) {
+        int tokenPos = op++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15) {
+            op = writeLength(dst, op, literals - 15);
+        }
+        System.arraycopy(src, anchor, dst, op, literals);
+        op += literals;
+        if (matchLen > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int extra = matchLen - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15) {
+                op = writeLength(dst, op, extra - 15);
+            }
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int n) {
+        while (n >= 255) {
+            dst[op++] = (byte) 255;
+            n -= 255;
+        }
+        dst[op++] = (byte) n;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A preallocated off-heap slab of page frames for the BufferPool.
+ * <p>
+ * The arena allocates all of its memory up front as direct ByteBuffers of
+ * at most {@link #SLAB_BYTES} each and cuts them into page-sized frames.
+ * Heap pages read into a frame keep their on-disk bytes, which double as
+ * their before image, outside the Java heap, so the garbage collector never
+ * scans or copies them however large the pool is. Tuples decoded from a
+ * frame, and pages of other kinds such as B+tree pages, still live on the
+ * heap.
+ * <p>
+ * Frames are handed out and returned by the BufferPool as pages enter and
+ * leave it. When the arena runs dry, pages are simply read onto the heap.
+ */
+public class PageArena {
+
+    /** Largest single direct allocation of the arena. */
+    static final int SLAB_BYTES = 1 << 30;
+
+    private final int pageSize;
+    private final int numFrames;
+    private final Deque<ByteBuffer> free;
+
+    /**
+     * @param numFrames number of frames to allocate
+     * @param pageSize  size of each frame in bytes
+     */
+    public PageArena(int numFrames, int pageSize) {
+        this.pageSize = pageSize;
+        this.numFrames = numFrames;
+        this.free = new ArrayDeque<>(numFrames);
+        int framesPerSlab = Math.max(1, SLAB_BYTES / pageSize);
+        for (int allocated = 0; allocated < numFrames; ) {
+            int frames = Math.min(framesPerSlab, numFrames - allocated);
+            ByteBuffer slab = ByteBuffer.allocateDirect(frames * pageSize);
+            for (int i = 0; i < frames; i++) {
+                slab.limit((i + 1) * pageSize);
+                slab.position(i * pageSize);
+                free.push(slab.slice());
+            }
+            allocated += frames;
+        }
+    }
+
+    /** @return a free frame, or null if every frame is in use */
+    synchronized ByteBuffer allocate() {
+        ByteBuffer frame = free.poll();
+        if (frame != null) {
+            frame.clear();
+        }
+        return frame;
+    }
+
+    /** Returns a frame obtained from {@link #allocate} to the arena. */
+    synchronized void release(ByteBuffer frame) {
+        if (frame.capacity() == pageSize) {
+            free.push(frame);
+        }
+    }
+
+    /** @return the size of each frame in bytes */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return the total number of frames in the arena */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of frames not holding a page */
+    public synchronized int getNumFreeFrames() {
+        return free.size();
+    }
+}
@@ -0,0 +1,186 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The long-lived FileChannel behind a DbFile.
+ * <p>
+ * The channel is opened on first use and kept open, and pages are read and
+ * written with positional I/O, so concurrent readers and writers never share
+ * a file position. Writes are not synced; callers decide when data must be
+ * on disk and call {@link #force}, which is a no-op if nothing was written
+ * since the last force.
+ * <p>
+ * Page-sized transfers go through direct buffers taken from a small shared
+ * pool, which saves the JDK from copying through a temporary direct buffer
+ * of its own on every call.
+ */
+public class PageChannel {
+
+    /** Number of idle direct buffers kept for reuse. */
+    static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final Queue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private final File file;
+    private volatile FileChannel channel;
+    private volatile boolean unsynced = false;
+
+    public PageChannel(File file) {
+        this.file = file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null) {
+            synchronized (this) {
+                c = channel;
+                if (c == null) {
+                    c = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Reads up to dst.length bytes starting at the given offset.
+     *
+     * @return the number of bytes read, which is less than dst.length only at
+     *         the end of the file, or -1 if position is past the end
+     */
+    public int read(long position, byte[] dst) throws IOException {
+        boolean pooled = dst.length == BufferPool.getPageSize();
+        ByteBuffer buf = pooled ? acquireBuffer() : ByteBuffer.wrap(dst);
+        try {
+            int total = read(position, buf);
+            if (pooled && total > 0) {
+                buf.flip();
+                buf.get(dst, 0, total);
+            }
+            return total;
+        } finally {
+            if (pooled) {
+                releaseBuffer(buf);
+            }
+        }
+    }
+
+    /**
+     * Reads into the remaining space of dst starting at the given offset.
+     *
+     * @return the number of bytes read, or -1 if position is past the end
+     */
+    public int read(long position, ByteBuffer dst) throws IOException {
+        FileChannel c = channel();
+        boolean empty = !dst.hasRemaining();
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = c.read(dst, position + total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total == 0 && !empty ? -1 : total;
+    }
+
+    /** Writes all of src at the given offset, extending the file if needed. */
+    public void write(long position, byte[] src) throws IOException {
+        FileChannel c = channel();
+        boolean pooled = src.length == BufferPool.getPageSize();
+        ByteBuffer buf;
+        if (pooled) {
+            buf = acquireBuffer();
+            buf.put(src).flip();
+        } else {
+            buf = ByteBuffer.wrap(src);
+        }
+        try {
+            long pos = position;
+            while (buf.hasRemaining()) {
+                pos += c.write(buf, pos);
+            }
+            unsynced = true;
+        } finally {
+            if (pooled) {
+                releaseBuffer(buf);
+            }
+        }
+    }
+
+    /**
+     * Writes src at the end of the file.
+     *
+     * @return the offset src was written at
+     */
+    public synchronized long append(byte[] src) throws IOException {
+        long position = channel().size();
+        write(position, src);
+        return position;
+    }
+
+    /**
+     * Maps a region of the file read-only. The mapping is shared with the
+     * OS page cache, so it sees later writes made through this channel.
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /** @return the current size of the file in bytes */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    /** Forces all writes made through this channel to disk. */
+    public void force() throws IOException {
+        FileChannel c = channel;
+        if (c != null && unsynced) {
+            unsynced = false;
+            c.force(false);
+        }
+    }
+
+    /** Closes the channel; it is reopened on the next read or write. */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            force();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        int size = BufferPool.getPageSize();
+        ByteBuffer buf;
+        while ((buf = BUFFERS.poll()) != null) {
+            POOLED.decrementAndGet();
+            // the page size only changes in tests; drop stale buffers
+            if (buf.capacity() == size) {
+                buf.clear();
+                return buf;
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    private static void releaseBuffer(ByteBuffer buf) {
+        if (POOLED.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFERS.offer(buf);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb.storage;
+
+import simpledb.common.Debug;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer that moves pages of committed transactions from the
+ * BufferPool to disk.
+ * <p>
+ * While a cleaner is running, the BufferPool commits without forcing pages:
+ * it logs the updated pages, forces the log and hands the pages to the
+ * cleaner, which writes them back later. The WAL rule is preserved because a
+ * page is only written once the log records describing it have been forced
+ * (see {@link BufferPool#cleanPage}).
+ * <p>
+ * The cleaner trickles pages out at no more than maxPagesPerSecond. Once
+ * more than highWaterMark of the pool's frames hold committed but unwritten
+ * pages, it stops throttling until the pool drops back below the mark, so
+ * that page misses keep finding clean victims.
+ */
+public class PageCleaner implements Runnable {
+
+    /** Default write-back rate of a throttled cleaner. */
+    public static final int DEFAULT_PAGES_PER_SECOND = 1000;
+
+    /** Default fraction of the pool that may hold unwritten committed pages. */
+    public static final double DEFAULT_HIGH_WATER_MARK = 0.5;
+
+    private static final long IDLE_WAIT_MILLIS = 50;
+
+    private final BufferPool bufferPool;
+    private final long nanosPerPage;
+    private final int highWaterPages;
+    private final BlockingQueue<PageId> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param bufferPool        the pool whose committed pages are cleaned
+     * @param maxPagesPerSecond write-back rate below the high-water mark
+     * @param highWaterMark     fraction of the pool's frames above which the
+     *                          cleaner writes as fast as it can
+     */
+    PageCleaner(BufferPool bufferPool, int maxPagesPerSecond, double highWaterMark) {
+        if (maxPagesPerSecond <= 0) {
+            throw new IllegalArgumentException("maxPagesPerSecond must be positive");
+        }
+        if (highWaterMark < 0 || highWaterMark > 1) {
+            throw new IllegalArgumentException("highWaterMark must be between 0 and 1");
+        }
+        this.bufferPool = bufferPool;
+        this.nanosPerPage = TimeUnit.SECONDS.toNanos(1) / maxPagesPerSecond;
+        this.highWaterPages = (int) (highWaterMark * bufferPool.getNumPages());
+        this.thread = new Thread(this, "simpledb-page-cleaner");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /** Stops the cleaner and waits for the page it is writing, if any. */
+    void shutdown() {
+        running = false;
+        // not interrupt(): interrupting a write would close the file's channel
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Schedules a page of a committed transaction for write-back. */
+    void enqueue(PageId pid) {
+        queue.add(pid);
+    }
+
+    public void run() {
+        while (running) {
+            PageId pid;
+            try {
+                pid = queue.poll(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (pid == null) {
+                continue;
+            }
+            try {
+                bufferPool.cleanPage(pid);
+            } catch (IOException e) {
+                // leave the page dirty, eviction or a later flush will retry
+                Debug.log("PageCleaner: failed to write page %s: %s", pid, e);
+            }
+            if (bufferPool.getNumCommittedDirtyPages() <= highWaterPages) {
+                LockSupport.parkNanos(nanosPerPage);
+            }
+        }
+    }
+}
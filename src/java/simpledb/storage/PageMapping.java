@@ -0,0 +1,78 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only memory mapping of a HeapFile, kept as a list of extents of
+ * {@link #EXTENT_PAGES} pages each.
+ * <p>
+ * Only whole pages that exist on disk are mapped. Pages written through the
+ * file's PageChannel show up in the mapping through the OS page cache. When
+ * the file grows, the next request for a page past the mapped end maps
+ * again, but only the last, partial extent and any new extents, never the
+ * whole file.
+ */
+class PageMapping {
+
+    /** Number of pages mapped by one extent. */
+    static final int EXTENT_PAGES = 1024;
+
+    private final PageChannel channel;
+    private final int pageSize;
+    private final List<MappedByteBuffer> extents = new ArrayList<>();
+    private int mappedPages = 0;
+
+    PageMapping(PageChannel channel, int pageSize) {
+        this.channel = channel;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return a read-only view of page pgNo's bytes in the mapping, or null
+     *         if the page is not on disk yet
+     */
+    ByteBuffer page(int pgNo) throws IOException {
+        MappedByteBuffer extent;
+        synchronized (this) {
+            if (pgNo >= mappedPages) {
+                grow();
+                if (pgNo >= mappedPages) {
+                    return null;
+                }
+            }
+            extent = extents.get(pgNo / EXTENT_PAGES);
+        }
+        ByteBuffer view = extent.duplicate();
+        int offset = (pgNo % EXTENT_PAGES) * pageSize;
+        view.position(offset);
+        view.limit(offset + pageSize);
+        return view.slice();
+    }
+
+    /** @return the number of pages currently mapped */
+    synchronized int getMappedPages() {
+        return mappedPages;
+    }
+
+    private void grow() throws IOException {
+        int filePages = (int) (channel.size() / pageSize);
+        if (filePages <= mappedPages) {
+            return;
+        }
+        // remap the last, partially mapped extent and add new ones
+        for (int k = mappedPages / EXTENT_PAGES; k * EXTENT_PAGES < filePages; k++) {
+            int pages = Math.min(EXTENT_PAGES, filePages - k * EXTENT_PAGES);
+            MappedByteBuffer extent = channel.map((long) k * EXTENT_PAGES * pageSize, (long) pages * pageSize);
+            if (k < extents.size()) {
+                extents.set(k, extent);
+            } else {
+                extents.add(extent);
+            }
+        }
+        mappedPages = filePages;
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb.storage;
+
+import simpledb.common.Debug;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sequential read-ahead for one scan over a HeapFile.
+ * <p>
+ * The scan reports every page it is about to fetch. Once it has requested
+ * {@link #SEQUENTIAL_TRIGGER} consecutive pages, ReadAhead reads the next
+ * window of pages in the background with a single large read and places
+ * them in the BufferPool, so that the scan finds them cached.
+ * <p>
+ * The window adapts to how fast the scan consumes pages. If the scan catches
+ * up with a read that is still in flight, the window doubles. If pages that
+ * were read ahead have already been evicted when the scan reaches them, the
+ * pool cannot hold that much and the window halves.
+ */
+class ReadAhead {
+
+    static final int SEQUENTIAL_TRIGGER = 2;
+    static final int INITIAL_WINDOW = 4;
+    static final int MIN_WINDOW = 2;
+    static final int MAX_WINDOW = 64;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "simpledb-read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final HeapFile file;
+    private final BufferPool bufferPool;
+    private final BufferRing ring;
+    private final int maxWindow;
+
+    private int window = INITIAL_WINDOW;
+    private int lastPgNo = -1;
+    private int sequentialRun = 0;
+    // pages [firstAhead, nextAhead) have been read ahead
+    private int firstAhead = 0;
+    private int nextAhead = 0;
+    private Future<?> inFlight;
+    private int inFlightStart, inFlightEnd;
+
+    /**
+     * @param ring the scan's ring, or null if the scan caches its pages in
+     *             the pool; pages read ahead go to the same place
+     */
+    ReadAhead(HeapFile file, BufferPool bufferPool, BufferRing ring) {
+        this.file = file;
+        this.bufferPool = bufferPool;
+        this.ring = ring;
+        // never read more than a quarter of the frames ahead of the scan
+        int frames = ring != null ? ring.getSize() : bufferPool.getNumPages();
+        this.maxWindow = Math.min(MAX_WINDOW, frames / 4);
+    }
+
+    /** @return the number of pages currently read ahead at a time */
+    int getWindow() {
+        return window;
+    }
+
+    /**
+     * Called by the scan right before it fetches page pgNo from the pool.
+     * May block until an in-flight read that covers the page completes.
+     */
+    void pageRequested(int pgNo) {
+        if (maxWindow < MIN_WINDOW) {
+            return;
+        }
+        if (pgNo == lastPgNo + 1) {
+            sequentialRun++;
+        } else {
+            sequentialRun = 0;
+            window = Math.min(INITIAL_WINDOW, maxWindow);
+            firstAhead = nextAhead = pgNo + 1;
+        }
+        lastPgNo = pgNo;
+
+        if (pgNo >= firstAhead && pgNo < nextAhead) {
+            if (inFlight != null && pgNo >= inFlightStart && pgNo < inFlightEnd && !inFlight.isDone()) {
+                // the scan is faster than the reads
+                window = Math.min(window * 2, maxWindow);
+                awaitInFlight();
+            } else if (!isCached(new HeapPageId(file.getId(), pgNo))) {
+                // read too far ahead, the pages were evicted before use
+                window = Math.max(window / 2, MIN_WINDOW);
+            }
+        }
+
+        if (sequentialRun + 1 < SEQUENTIAL_TRIGGER) {
+            return;
+        }
+        if (nextAhead - pgNo <= window / 2 && (inFlight == null || inFlight.isDone())) {
+            int start = Math.max(nextAhead, pgNo + 1);
+            int end = Math.min(start + window, file.numPages());
+            if (start < end) {
+                submit(start, end);
+            }
+        }
+    }
+
+    private void submit(int start, int end) {
+        if (start > nextAhead) {
+            firstAhead = start;
+        }
+        inFlightStart = start;
+        inFlightEnd = end;
+        nextAhead = end;
+        inFlight = EXECUTOR.submit(() -> {
+            try {
+                // pages written while they are read are dropped
+                long stamp = file.writeStamp();
+                List<Page> pages = file.readPages(start, end - start);
+                if (ring != null) {
+                    for (Page page : pages) {
+                        ring.add(page, file, stamp);
+                    }
+                } else {
+                    bufferPool.prefetchPages(pages, file, stamp);
+                }
+            } catch (IOException e) {
+                // the scan reads the pages itself
+                Debug.log("ReadAhead: could not read pages %d-%d: %s", start, end, e);
+            }
+        });
+    }
+
+    private boolean isCached(PageId pid) {
+        return ring != null ? ring.contains(pid) : bufferPool.isCached(pid);
+    }
+
+    private void awaitInFlight() {
+        try {
+            inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Debug.log("ReadAhead: read failed: %s", e.getCause());
+        }
+    }
+}
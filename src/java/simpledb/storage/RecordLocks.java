@@ -0,0 +1,272 @@
+package simpledb.storage;
+
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record-level locking for the heap files that use it, see
+ * {@link BufferPool#setRowLocking}.
+ * <p>
+ * A transaction reading or changing a record of such a table holds a
+ * shared or exclusive lock on the record's RecordId, under an intention
+ * lock (IS or IX) on the record's page and table; pages it fetches from the
+ * BufferPool only get the intention lock. Two transactions changing
+ * different records of one page therefore no longer conflict. Once a
+ * transaction holds more record locks on a table than the table's
+ * threshold, it escalates: it locks the whole table S, or X if it has
+ * changed any of the table's records, and drops its record locks there.
+ * <p>
+ * Since a page may hold the uncommitted changes of several transactions,
+ * they cannot be undone by putting back the page's before image. Instead
+ * the changes are kept here: an insert is done at once and taken back if
+ * its transaction aborts, while a delete only locks its record and is done
+ * when its transaction commits, so a deleted record keeps its slot, and
+ * readers keep waiting for its lock, until then. A commit writes a version
+ * of the page without the records other running transactions inserted.
+ */
+class RecordLocks {
+
+    /** The uncommitted changes of a transaction to record-locked tables. */
+    private static class Changes {
+        // key: table id; value: number of record locks held on the table
+        final Map<Integer, Integer> recordLocks = new HashMap<>();
+        // inserted tuples, oldest first
+        final List<Tuple> inserted = new ArrayList<>();
+        final Set<RecordId> deleted = new LinkedHashSet<>();
+    }
+
+    private final LockManager lockManager;
+    // key: table id; value: record locks a transaction may hold on it
+    // before it escalates to a table lock
+    private final Map<Integer, Integer> thresholds = new ConcurrentHashMap<>();
+    private final Map<TransactionId, Changes> changes = new ConcurrentHashMap<>();
+    // key: page; value: transactions with uncommitted inserts on the page,
+    // and the slots they inserted into
+    private final Map<PageId, Map<TransactionId, Set<Integer>>> inserts = new ConcurrentHashMap<>();
+
+    RecordLocks(LockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    void enable(int tableId, int threshold) {
+        thresholds.put(tableId, threshold);
+    }
+
+    /** @return true if the records of the table are locked one by one */
+    boolean enabled(int tableId) {
+        return !thresholds.isEmpty() && thresholds.containsKey(tableId);
+    }
+
+    /** Takes the intention locks on a page and its table for access with perm. */
+    void lockPage(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
+        LockMode intention = LockMode.intentionFor(perm);
+        lockManager.acquireLock(tid, new TableLockId(pid.getTableId()), intention);
+        lockManager.acquireLock(tid, pid, intention);
+    }
+
+    /** @return true if tid's lock on the record's table already grants perm on the record */
+    private boolean tableCovers(TransactionId tid, RecordId rid, Permissions perm) {
+        LockMode held = lockManager.getLockMode(tid, new TableLockId(rid.getPageId().getTableId()));
+        return held != null && held.covers(LockMode.of(perm));
+    }
+
+    /**
+     * Locks a record for tid, waiting until the lock can be granted, and
+     * escalates to a table lock if tid now holds more record locks on the
+     * table than its threshold.
+     */
+    void lockRecord(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException {
+        if (tableCovers(tid, rid, perm)) {
+            return;
+        }
+        lockPage(tid, rid.getPageId(), perm);
+        boolean held = lockManager.holdsLock(tid, rid);
+        lockManager.acquireLock(tid, rid, LockMode.of(perm));
+        if (!held) {
+            counted(tid, rid.getPageId().getTableId());
+        }
+        checkEscalation(tid, rid.getPageId().getTableId());
+    }
+
+    /**
+     * Locks a record for tid only if that needs no waiting and never
+     * escalates, so it may be called while holding a page latch. The
+     * caller holds the intention lock on the record's page.
+     *
+     * @return true if tid holds the lock now
+     */
+    boolean tryLockRecord(TransactionId tid, RecordId rid, Permissions perm) {
+        if (tableCovers(tid, rid, perm)) {
+            return true;
+        }
+        boolean held = lockManager.holdsLock(tid, rid);
+        if (!lockManager.acquireLockHelper(tid, rid, LockMode.of(perm))) {
+            return false;
+        }
+        if (!held) {
+            counted(tid, rid.getPageId().getTableId());
+        }
+        return true;
+    }
+
+    private void counted(TransactionId tid, int tableId) {
+        Changes c = changes.computeIfAbsent(tid, k -> new Changes());
+        synchronized (c) {
+            c.recordLocks.merge(tableId, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Escalates tid to a lock on the whole table if it holds more record
+     * locks on it than the table's threshold.
+     */
+    void checkEscalation(TransactionId tid, int tableId) throws TransactionAbortedException {
+        Changes c = changes.get(tid);
+        if (c == null) {
+            return;
+        }
+        synchronized (c) {
+            if (c.recordLocks.getOrDefault(tableId, 0) <= thresholds.getOrDefault(tableId, Integer.MAX_VALUE)) {
+                return;
+            }
+        }
+        List<RecordId> records = new ArrayList<>();
+        boolean write = false;
+        for (Map.Entry<Object, LockMode> e : lockManager.getLocks(tid).entrySet()) {
+            if (e.getKey() instanceof RecordId
+                    && ((RecordId) e.getKey()).getPageId().getTableId() == tableId) {
+                records.add((RecordId) e.getKey());
+                write |= e.getValue() == LockMode.X;
+            }
+        }
+        lockManager.acquireLock(tid, new TableLockId(tableId), write ? LockMode.X : LockMode.S);
+        for (RecordId rid : records) {
+            lockManager.releaseLock(tid, rid);
+        }
+        synchronized (c) {
+            c.recordLocks.remove(tableId);
+        }
+    }
+
+    /** Remembers a tuple tid inserted; called while holding its page's latch. */
+    void inserted(TransactionId tid, Tuple t) {
+        Changes c = changes.computeIfAbsent(tid, k -> new Changes());
+        synchronized (c) {
+            c.inserted.add(t);
+        }
+        RecordId rid = t.getRecordId();
+        inserts.computeIfAbsent(rid.getPageId(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet())
+                .add(rid.getTupleNumber());
+    }
+
+    /** Remembers a record tid deleted, which stays on its page until tid commits. */
+    void deleted(TransactionId tid, RecordId rid) {
+        Changes c = changes.computeIfAbsent(tid, k -> new Changes());
+        synchronized (c) {
+            c.deleted.add(rid);
+        }
+    }
+
+    /** @return true if tid deleted the record and has not completed yet */
+    boolean isDeleted(TransactionId tid, RecordId rid) {
+        Changes c = changes.get(tid);
+        if (c == null) {
+            return false;
+        }
+        synchronized (c) {
+            return c.deleted.contains(rid);
+        }
+    }
+
+    /** @return the tuples tid inserted, oldest first */
+    List<Tuple> inserted(TransactionId tid) {
+        Changes c = changes.get(tid);
+        if (c == null) {
+            return Collections.emptyList();
+        }
+        synchronized (c) {
+            return new ArrayList<>(c.inserted);
+        }
+    }
+
+    /** @return the records tid deleted */
+    List<RecordId> deleted(TransactionId tid) {
+        Changes c = changes.get(tid);
+        if (c == null) {
+            return Collections.emptyList();
+        }
+        synchronized (c) {
+            return new ArrayList<>(c.deleted);
+        }
+    }
+
+    /** @return the pages tid inserted records into or deleted records from */
+    Set<PageId> changedPages(TransactionId tid) {
+        Set<PageId> pids = new LinkedHashSet<>();
+        for (Tuple t : inserted(tid)) {
+            pids.add(t.getRecordId().getPageId());
+        }
+        for (RecordId rid : deleted(tid)) {
+            pids.add(rid.getPageId());
+        }
+        return pids;
+    }
+
+    /** @return the slots of a page that transactions other than tid inserted into */
+    Set<Integer> insertedByOthers(TransactionId tid, PageId pid) {
+        Set<Integer> slots = new HashSet<>();
+        for (Map.Entry<TransactionId, Set<Integer>> e : inserts.getOrDefault(pid, Collections.emptyMap()).entrySet()) {
+            if (!e.getKey().equals(tid)) {
+                slots.addAll(e.getValue());
+            }
+        }
+        return slots;
+    }
+
+    /** @return a transaction other than tid with uncommitted inserts on the page, or null */
+    TransactionId otherInserter(TransactionId tid, PageId pid) {
+        for (TransactionId t : inserts.getOrDefault(pid, Collections.emptyMap()).keySet()) {
+            if (!t.equals(tid)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the inserts of tid on a page once they are committed or taken
+     * back; called while holding the page's latch, so that no commit
+     * writing the page in between takes them for uncommitted ones.
+     */
+    void settled(TransactionId tid, PageId pid) {
+        inserts.computeIfPresent(pid, (k, byTid) -> {
+            byTid.remove(tid);
+            return byTid.isEmpty() ? null : byTid;
+        });
+    }
+
+    /** Forgets the changes of tid, which has committed or been rolled back. */
+    void end(TransactionId tid) {
+        Changes c = changes.remove(tid);
+        if (c == null) {
+            return;
+        }
+        synchronized (c) {
+            for (Tuple t : c.inserted) {
+                settled(tid, t.getRecordId().getPageId());
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters and latency histograms of one BufferPool, broken down by table.
+ * <p>
+ * The pool counts hits and misses in {@link BufferPool#getPage}, evictions
+ * in its partitions, and times every page it reads from or writes to a
+ * DbFile. Counters are LongAdders and histograms have one bucket per power
+ * of two nanoseconds, so recording never takes a lock. Which tables occupy
+ * the pool, and how many of their pages are dirty, is computed from the
+ * pool itself when asked for.
+ * <p>
+ * {@link #registerMBean()} exposes the metrics of the current pool over JMX
+ * as {@value #OBJECT_NAME}; <code>SimpleDb metrics</code> prints the same
+ * {@link #report()}.
+ */
+public class StorageMetrics implements StorageMetricsMBean {
+
+    /** Name the MBean is registered under. */
+    public static final String OBJECT_NAME = "simpledb:type=StorageMetrics";
+
+    private static volatile boolean registered = false;
+
+    /** Latencies bucketed by powers of two nanoseconds. */
+    public static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder totalNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 1);
+            buckets[63 - Long.numberOfLeadingZeros(nanos)].increment();
+            totalNanos.add(nanos);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i].add(other.buckets[i].sum());
+            }
+            totalNanos.add(other.totalNanos.sum());
+        }
+
+        public long getCount() {
+            long n = 0;
+            for (LongAdder b : buckets) {
+                n += b.sum();
+            }
+            return n;
+        }
+
+        public double getMeanMicros() {
+            long n = getCount();
+            return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+        }
+
+        /**
+         * @return an upper bound on the latency of a fraction p of the
+         *         recorded events, in microseconds
+         */
+        public double getPercentileMicros(double p) {
+            long n = getCount();
+            long wanted = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length && n > 0; i++) {
+                seen += buckets[i].sum();
+                if (seen >= wanted) {
+                    return Math.scalb(1.0, i + 1) / 1000.0;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /** Metrics of one table. */
+    public static class TableMetrics {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final LongAdder prefetched = new LongAdder();
+        final Histogram reads = new Histogram();
+        final Histogram writes = new Histogram();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public long getPrefetchedPages() {
+            return prefetched.sum();
+        }
+
+        public Histogram getReads() {
+            return reads;
+        }
+
+        public Histogram getWrites() {
+            return writes;
+        }
+
+        void add(TableMetrics other) {
+            hits.add(other.hits.sum());
+            misses.add(other.misses.sum());
+            evictions.add(other.evictions.sum());
+            prefetched.add(other.prefetched.sum());
+            reads.add(other.reads);
+            writes.add(other.writes);
+        }
+    }
+
+    private final BufferPool bufferPool;
+    private final Map<Integer, TableMetrics> tables = new ConcurrentHashMap<>();
+
+    StorageMetrics(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server, once per JVM. It
+     * reports on whichever BufferPool the Database holds when it is read.
+     */
+    public static synchronized void registerMBean() throws JMException {
+        if (registered) {
+            return;
+        }
+        StorageMetricsMBean current = (StorageMetricsMBean) Proxy.newProxyInstance(
+                StorageMetricsMBean.class.getClassLoader(), new Class<?>[] {StorageMetricsMBean.class},
+                (proxy, method, args) -> {
+                    try {
+                        return method.invoke(Database.getBufferPool().getMetrics(), args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new StandardMBean(current, StorageMetricsMBean.class), name);
+        }
+        registered = true;
+    }
+
+    /** @return the metrics of the given table, created on first use */
+    public TableMetrics table(int tableId) {
+        return tables.computeIfAbsent(tableId, id -> new TableMetrics());
+    }
+
+    /** @return the metrics of all tables added together */
+    public TableMetrics total() {
+        TableMetrics sum = new TableMetrics();
+        for (TableMetrics t : tables.values()) {
+            sum.add(t);
+        }
+        return sum;
+    }
+
+    void hit(PageId pid) {
+        table(pid.getTableId()).hits.increment();
+    }
+
+    void miss(PageId pid) {
+        table(pid.getTableId()).misses.increment();
+    }
+
+    void evicted(PageId pid) {
+        table(pid.getTableId()).evictions.increment();
+    }
+
+    void prefetched(PageId pid) {
+        table(pid.getTableId()).prefetched.increment();
+    }
+
+    void read(PageId pid, long nanos) {
+        table(pid.getTableId()).reads.record(nanos);
+    }
+
+    void written(PageId pid, long nanos) {
+        table(pid.getTableId()).writes.record(nanos);
+    }
+
+    @Override
+    public long getHits() {
+        return total().getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return total().getMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        TableMetrics t = total();
+        long requests = t.getHits() + t.getMisses();
+        return requests == 0 ? 0 : (double) t.getHits() / requests;
+    }
+
+    @Override
+    public long getEvictions() {
+        return total().getEvictions();
+    }
+
+    @Override
+    public long getPageReads() {
+        return total().reads.getCount();
+    }
+
+    @Override
+    public long getPageWrites() {
+        return total().writes.getCount();
+    }
+
+    @Override
+    public long getPrefetchedPages() {
+        return total().getPrefetchedPages();
+    }
+
+    @Override
+    public int getResidentFrames() {
+        int n = 0;
+        for (int[] o : bufferPool.occupancy().values()) {
+            n += o[0];
+        }
+        return n;
+    }
+
+    @Override
+    public int getDirtyPages() {
+        int n = 0;
+        for (int[] o : bufferPool.occupancy().values()) {
+            n += o[1];
+        }
+        return n;
+    }
+
+    @Override
+    public int getCapacity() {
+        return bufferPool.getNumPages();
+    }
+
+    @Override
+    public double getMeanReadMicros() {
+        return total().reads.getMeanMicros();
+    }
+
+    @Override
+    public double getMeanWriteMicros() {
+        return total().writes.getMeanMicros();
+    }
+
+    @Override
+    public double getReadMicrosP99() {
+        return total().reads.getPercentileMicros(0.99);
+    }
+
+    @Override
+    public double getWriteMicrosP99() {
+        return total().writes.getPercentileMicros(0.99);
+    }
+
+    @Override
+    public void reset() {
+        tables.clear();
+    }
+
+    @Override
+    public String report() {
+        Map<Integer, int[]> occupancy = bufferPool.occupancy();
+        TreeSet<Integer> ids = new TreeSet<>(tables.keySet());
+        ids.addAll(occupancy.keySet());
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("pool: %d of %d frames used, %d dirty pages, hit ratio %.3f",
+                getResidentFrames(), getCapacity(), getDirtyPages(), getHitRatio()));
+        lines.add(String.format("%-24s %8s %6s %10s %10s %9s %10s %9s %9s %9s %9s %9s",
+                "table", "frames", "dirty", "hits", "misses", "evictions", "prefetched",
+                "reads", "read-us", "read-p99", "writes", "write-us"));
+        for (int id : ids) {
+            TableMetrics t = tables.getOrDefault(id, new TableMetrics());
+            int[] o = occupancy.getOrDefault(id, new int[2]);
+            lines.add(String.format("%-24s %8d %6d %10d %10d %9d %10d %9d %9.1f %9.1f %9d %9.1f",
+                    tableName(id), o[0], o[1], t.getHits(), t.getMisses(), t.getEvictions(),
+                    t.getPrefetchedPages(), t.reads.getCount(), t.reads.getMeanMicros(),
+                    t.reads.getPercentileMicros(0.99), t.writes.getCount(), t.writes.getMeanMicros()));
+        }
+        return String.join(System.lineSeparator(), lines);
+    }
+
+    private static String tableName(int tableId) {
+        try {
+            String name = Database.getCatalog().getTableName(tableId);
+            if (name != null) {
+                return name;
+            }
+        } catch (RuntimeException e) {
+            // dropped from the catalog since
+        }
+        return Integer.toString(tableId);
+    }
+}
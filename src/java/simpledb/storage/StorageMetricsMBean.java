@@ -0,0 +1,46 @@
+package simpledb.storage;
+
+/**
+ * Management interface of {@link StorageMetrics}. The registered MBean always
+ * reports on the current BufferPool of the Database.
+ *
+ * @see StorageMetrics#registerMBean()
+ */
+public interface StorageMetricsMBean {
+
+    long getHits();
+
+    long getMisses();
+
+    /** @return hits / (hits + misses), or 0 before the first request */
+    double getHitRatio();
+
+    long getEvictions();
+
+    long getPageReads();
+
+    long getPageWrites();
+
+    long getPrefetchedPages();
+
+    /** @return frames of the pool that hold a cached page */
+    int getResidentFrames();
+
+    int getDirtyPages();
+
+    int getCapacity();
+
+    double getMeanReadMicros();
+
+    double getMeanWriteMicros();
+
+    double getReadMicrosP99();
+
+    double getWriteMicrosP99();
+
+    /** @return a per-table dump of all metrics, one line per table */
+    String report();
+
+    /** Sets all counters and histograms back to zero. */
+    void reset();
+}
@@ -0,0 +1,32 @@
+package simpledb.storage;
+
+/**
+ * Names a whole table to the {@link LockManager}, next to the PageIds and
+ * RecordIds of its pages and records.
+ */
+public final class TableLockId {
+    private final int tableId;
+
+    public TableLockId(int tableId) {
+        this.tableId = tableId;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TableLockId && ((TableLockId) o).tableId == tableId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(tableId) * 31 + 7;
+    }
+
+    @Override
+    public String toString() {
+        return "table " + tableId;
+    }
+}
@@ -196,7 +196,9 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Tuples with variable-length fields may be smaller; this is
+     *         the size of the largest.
+     * @see #isFixedSize()
      */
     public int getSize() {
         // some code goes here
@@ -209,6 +211,48 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return The size (in bytes) of the smallest tuple corresponding to
+     *         this TupleDesc.
+     */
+    public int getMinSize() {
+        int size = 0;
+        for (TDItem item : tdItemList) {
+            size += item.fieldType.getMinLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if all tuples corresponding to this TupleDesc take up
+     *         {@link #getSize()} bytes, i.e. no field varies in length.
+     */
+    public boolean isFixedSize() {
+        for (TDItem item : tdItemList) {
+            if (!item.fieldType.isFixedLength()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes tuple t takes up when serialized. This is
+     * {@link #getSize()} unless the TupleDesc has variable-length fields.
+     */
+    public int getSize(Tuple t) {
+        int size = 0;
+        for (int i = 0; i < tdItemList.size(); i++) {
+            Type type = tdItemList.get(i).fieldType;
+            if (type == Type.VARCHAR_TYPE) {
+                size += 4 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            } else {
+                size += type.getLen();
+            }
+        }
+        return size;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
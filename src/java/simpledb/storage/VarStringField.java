@@ -0,0 +1,53 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a string of up to {@link Type#STRING_LEN}
+ * bytes as a {@link Type#VARCHAR_TYPE}. Unlike a StringField, it is written
+ * with only as many bytes as the string has, so its size on disk varies.
+ * It compares and is equal to StringFields with the same value.
+ */
+public class VarStringField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field; longer strings are cut to
+	 *            {@link Type#STRING_LEN}
+	 */
+	public VarStringField(String s) {
+		super(s, Type.STRING_LEN);
+	}
+
+	/**
+	 * Write this string to dos: four bytes of string length followed by the
+	 * string itself, without padding.
+	 * 
+	 * @param dos
+	 *            Where the string is written
+	 */
+	@Override
+	public void serialize(DataOutputStream dos) throws IOException {
+		dos.writeInt(getValue().length());
+		dos.writeBytes(getValue());
+	}
+
+	/** @return the number of bytes {@link #serialize} writes */
+	public int getSerializedSize() {
+		return 4 + getValue().length();
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	@Override
+	public Type getType() {
+		return Type.VARCHAR_TYPE;
+	}
+}
@@ -0,0 +1,193 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Committed versions of pages kept for snapshot transactions, which read
+ * without taking locks.
+ * <p>
+ * Every commit gets a timestamp from a logical clock, and every snapshot
+ * the timestamp of the last commit before it began. A snapshot sees the
+ * newest version of each page committed no later than its timestamp.
+ * <p>
+ * The current committed version of a page is its before image in the
+ * BufferPool, or the page on disk. A commit that changes a page while
+ * snapshots are running puts the page's previous version into the page's
+ * version chain, so older snapshots can still find it, followed by the new
+ * version. The new version is pending until the commit has set the page's
+ * before image; a snapshot that needs a pending version waits for it.
+ * Versions no running snapshot can see any more are dropped as snapshots
+ * end and commits finish, and a page whose chain would hold only its
+ * current version has no chain.
+ * <p>
+ * Readers must take the before image of a page before they look up its
+ * chain: a commit that changes the before image in between has already
+ * added the version the reader needs.
+ */
+class VersionStore {
+
+    /** A committed version of a page, from its commit on until the next one. */
+    private static class Version {
+        final long ts;
+        // null while the commit has not set the before image yet
+        Page page;
+
+        Version(long ts, Page page) {
+            this.ts = ts;
+            this.page = page;
+        }
+    }
+
+    // timestamp of the last commit
+    private long clock = 0;
+    // key: timestamp; value: number of running snapshots that have it
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+    private final Map<TransactionId, Long> snapshotOf = new ConcurrentHashMap<>();
+    // versions of each page, oldest first
+    private final Map<PageId, List<Version>> chains = new HashMap<>();
+
+    /** Starts a snapshot for tid that sees everything committed so far. */
+    synchronized void begin(TransactionId tid) {
+        if (snapshotOf.containsKey(tid)) {
+            throw new IllegalStateException("transaction already has a snapshot");
+        }
+        snapshotOf.put(tid, clock);
+        snapshots.merge(clock, 1, Integer::sum);
+    }
+
+    /** @return tid's snapshot timestamp, or -1 if tid is not a snapshot */
+    long snapshotOf(TransactionId tid) {
+        Long ts = tid == null ? null : snapshotOf.get(tid);
+        return ts == null ? -1 : ts;
+    }
+
+    /** Ends tid's snapshot, if it has one, and drops the versions only it could see. */
+    synchronized void end(TransactionId tid) {
+        Long ts = snapshotOf.remove(tid);
+        if (ts == null) {
+            return;
+        }
+        snapshots.computeIfPresent(ts, (k, n) -> n > 1 ? n - 1 : null);
+        for (Iterator<Map.Entry<PageId, List<Version>>> it = chains.entrySet().iterator(); it.hasNext(); ) {
+            if (trim(it.next().getValue())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Called by a committing transaction before it sets the before images
+     * of the pages it changed.
+     *
+     * @return the commit's timestamp, to pass to {@link #committed}
+     */
+    synchronized long commit(List<Page> pages) {
+        if (pages.isEmpty()) {
+            return clock;
+        }
+        long ts = ++clock;
+        for (Page page : pages) {
+            List<Version> chain = chains.computeIfAbsent(page.getId(), k -> new ArrayList<>());
+            if (chain.isEmpty() && !snapshots.isEmpty()) {
+                // running snapshots keep seeing the version before this commit
+                chain.add(new Version(Long.MIN_VALUE, page.getBeforeImage()));
+            }
+            // snapshots starting before the commit is done wait for it
+            chain.add(new Version(ts, null));
+        }
+        return ts;
+    }
+
+    /**
+     * Called by a committing transaction once the before images of its
+     * pages hold the versions it committed.
+     */
+    synchronized void committed(List<Page> pages, long ts) {
+        for (Page page : pages) {
+            List<Version> chain = chains.get(page.getId());
+            if (chain == null) {
+                continue;
+            }
+            for (Version v : chain) {
+                if (v.ts == ts) {
+                    v.page = page.getBeforeImage();
+                }
+            }
+            if (trim(chain)) {
+                chains.remove(page.getId());
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the version of a page the snapshot with timestamp ts sees.
+     *
+     * @param current the page's current committed version, taken before
+     *            this call
+     */
+    synchronized Page visible(PageId pid, long ts, Page current) {
+        List<Version> chain = chains.get(pid);
+        if (chain == null) {
+            return current;
+        }
+        Version visible = null;
+        for (Version v : chain) {
+            if (v.ts <= ts) {
+                visible = v;
+            }
+        }
+        if (visible == null) {
+            return current;
+        }
+        while (visible.page == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return current;
+            }
+        }
+        return visible.page;
+    }
+
+    /**
+     * Drops the versions of chain no running snapshot sees; the newest
+     * version and pending ones stay while any older one is needed.
+     *
+     * @return true if the chain is no longer needed at all
+     */
+    private boolean trim(List<Version> chain) {
+        List<Version> kept = new ArrayList<>();
+        for (int i = 0; i < chain.size(); i++) {
+            Version v = chain.get(i);
+            long until = i + 1 < chain.size() ? chain.get(i + 1).ts : Long.MAX_VALUE;
+            // v is seen by the snapshots from its commit up to the next one
+            Long seenBy = snapshots.ceilingKey(v.ts);
+            if (v.page == null || i == chain.size() - 1 || (seenBy != null && seenBy < until)) {
+                kept.add(v);
+            }
+        }
+        chain.clear();
+        chain.addAll(kept);
+        // a lone committed version is the page's before image
+        return kept.size() == 1 && kept.get(0).page != null;
+    }
+
+    /** @return the number of versions kept for all pages */
+    synchronized int size() {
+        int n = 0;
+        for (List<Version> chain : chains.values()) {
+            n += chain.size();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The wait-for graph of the LockManager: an edge from a to b means a
+ * request of transaction a waits for a lock b holds or requested before it.
+ * <p>
+ * The graph is kept up to date edge by edge as requests block, move up
+ * their queues and leave them, rather than rebuilt from the lock table.
+ * Every cycle is closed by the edge added last, so a check from the
+ * transaction that edge leaves finds it, and costs time proportional to the
+ * waiting transactions reachable from there, however many pages are locked.
+ * <p>
+ * Not thread-safe; the LockManager calls it while holding its latch.
+ */
+class WaitForGraph {
+    // key: waiting transaction; value: transactions it waits for, with the
+    // number of its requests that wait for each
+    private final Map<TransactionId, Map<TransactionId, Integer>> edges = new HashMap<>();
+
+    void addEdge(TransactionId from, TransactionId to) {
+        edges.computeIfAbsent(from, k -> new HashMap<>()).merge(to, 1, Integer::sum);
+    }
+
+    void removeEdge(TransactionId from, TransactionId to) {
+        Map<TransactionId, Integer> out = edges.get(from);
+        if (out == null) {
+            return;
+        }
+        out.computeIfPresent(to, (k, n) -> n > 1 ? n - 1 : null);
+        if (out.isEmpty()) {
+            edges.remove(from);
+        }
+    }
+
+    /** @return the transactions tid waits for */
+    Set<TransactionId> waitsFor(TransactionId tid) {
+        Map<TransactionId, Integer> out = edges.get(tid);
+        return out == null ? Collections.emptySet() : Collections.unmodifiableSet(out.keySet());
+    }
+
+    /** @return the number of waiting transactions */
+    int size() {
+        return edges.size();
+    }
+
+    /**
+     * Searches depth-first for a cycle through start.
+     *
+     * @return the transactions on the cycle, starting with start, or null if
+     *         start is on none
+     */
+    List<TransactionId> findCycle(TransactionId start) {
+        Set<TransactionId> visited = new HashSet<>();
+        Deque<Iterator<TransactionId>> stack = new ArrayDeque<>();
+        Deque<TransactionId> path = new ArrayDeque<>();
+        visited.add(start);
+        path.push(start);
+        stack.push(waitsFor(start).iterator());
+        while (!stack.isEmpty()) {
+            Iterator<TransactionId> it = stack.peek();
+            if (!it.hasNext()) {
+                stack.pop();
+                path.pop();
+                continue;
+            }
+            TransactionId next = it.next();
+            if (next.equals(start)) {
+                List<TransactionId> cycle = new ArrayList<>(path);
+                Collections.reverse(cycle);
+                return cycle;
+            }
+            if (visited.add(next)) {
+                path.push(next);
+                stack.push(waitsFor(next).iterator());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,350 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent zone map of a HeapFile: the smallest and largest value of
+ * each INT_TYPE field on each page, so scans can skip pages that cannot
+ * hold a tuple matching their predicates.
+ * <p>
+ * Ranges only ever widen while the database runs: inserts widen the range
+ * of their page, and so does every page written to the file. Deletes leave
+ * ranges as they are, since an aborted delete puts its tuple back. A range
+ * may therefore be wider than its page's values, which costs a wasted page
+ * visit but never a missed tuple. Ranges are recomputed exactly when the
+ * map is rebuilt.
+ * <p>
+ * The map is kept next to the heap file in a sidecar file, named after it
+ * with {@link #SUFFIX} appended, holding the number of pages and fields
+ * covered followed by an entry per page: a minimum and maximum per field,
+ * and a checksum of those ranges and of the page bytes they were last
+ * widened for when the page was written. Like the {@link FreeSpaceMap},
+ * only the pages changed since the last save are written back. Loading
+ * the map reads the heap file and recomputes the ranges of every page
+ * whose checksum does not match, which catches pages written while the
+ * map was not loaded, or not saved before a crash, and torn entries; a
+ * sidecar that is missing or does not match the file's size is rebuilt
+ * from all of the pages.
+ * <p>
+ * A file only loads its map, and so only creates the sidecar, once a scan
+ * with predicates asks for it. Until then inserts widen a {@link #pending}
+ * map kept in memory, which is merged into the loaded one.
+ */
+class ZoneMap {
+
+    /** Appended to the heap file's name to name the sidecar file. */
+    static final String SUFFIX = ".zm";
+
+    /** Size of the page and field counts that precede the ranges. */
+    private static final int HEADER_BYTES = 8;
+
+    /** Number of pages read at once while checking or rebuilding the map. */
+    private static final int REBUILD_BATCH = 64;
+
+    private final PageChannel sidecar;
+    private final TupleDesc td;
+    private final int numFields;
+    // minimum and maximum of field f on page p at index p * numFields + f;
+    // a page without values has min > max
+    private int[] mins = new int[0];
+    private int[] maxs = new int[0];
+    // CRC32 of the bytes of page p as last written or read, or 0 if it
+    // never was
+    private int[] pageSums = new int[0];
+    // number of pages the map knows about; later pages may hold anything
+    private int numPages;
+    // range of pages changed since the last save, or lo > hi
+    private int dirtyLo = Integer.MAX_VALUE;
+    private int dirtyHi = -1;
+    private boolean headerDirty = false;
+
+    private ZoneMap(File sidecar, TupleDesc td) {
+        this.sidecar = sidecar == null ? null : new PageChannel(sidecar);
+        this.td = td;
+        this.numFields = td.numFields();
+    }
+
+    /**
+     * Returns an empty map without a sidecar, to collect the ranges of
+     * tuples inserted before the file's map is loaded. Pages it has not
+     * seen hold no such tuples.
+     */
+    static ZoneMap pending(TupleDesc td) {
+        return new ZoneMap(null, td);
+    }
+
+    /**
+     * Loads the map of the given file from its sidecar, recomputing the
+     * ranges of the pages it is out of date for, or rebuilds it from the
+     * file's pages if the sidecar is missing or does not match the file.
+     */
+    static ZoneMap load(HeapFile file) throws IOException {
+        File sidecar = new File(file.getFile().getPath() + SUFFIX);
+        ZoneMap map = new ZoneMap(sidecar, file.getTupleDesc());
+        int filePages = file.numPages();
+        int[] sums = map.read(filePages);
+        if (sums == null) {
+            map.ensureCapacity(filePages);
+            map.numPages = filePages;
+            map.headerDirty = true;
+        }
+        map.check(file, sums);
+        return map;
+    }
+
+    /** @return the number of bytes of the entry of a page in the sidecar */
+    private int entryBytes() {
+        return numFields * 8 + 4;
+    }
+
+    /**
+     * Reads the ranges from the sidecar.
+     *
+     * @return the checksum of each page's entry, or null if the sidecar
+     *         does not cover filePages pages
+     */
+    private int[] read(int filePages) throws IOException {
+        if (sidecar.size() < HEADER_BYTES) {
+            return null;
+        }
+        byte[] header = new byte[HEADER_BYTES];
+        sidecar.read(0, header);
+        ByteBuffer h = ByteBuffer.wrap(header);
+        int pages = h.getInt();
+        int fields = h.getInt();
+        if (pages != filePages || fields != numFields) {
+            return null;
+        }
+        byte[] entries = new byte[pages * entryBytes()];
+        if (sidecar.read(HEADER_BYTES, entries) < entries.length) {
+            return null;
+        }
+        ensureCapacity(pages);
+        ByteBuffer buf = ByteBuffer.wrap(entries);
+        int[] sums = new int[pages];
+        for (int pgNo = 0; pgNo < pages; pgNo++) {
+            for (int i = pgNo * numFields; i < (pgNo + 1) * numFields; i++) {
+                mins[i] = buf.getInt();
+                maxs[i] = buf.getInt();
+            }
+            sums[pgNo] = buf.getInt();
+        }
+        numPages = pages;
+        return sums;
+    }
+
+    /**
+     * Reads the pages of file and recomputes the ranges of each page whose
+     * entry checksum, taken over its ranges and the page as read now, does
+     * not match the one in sums, or of every page if sums is null.
+     */
+    private void check(HeapFile file, int[] sums) throws IOException {
+        int pageSize = file.getPageSize();
+        byte[] buf = new byte[REBUILD_BATCH * pageSize];
+        for (int pgNo = 0; pgNo < numPages; pgNo += REBUILD_BATCH) {
+            int n = Math.min(REBUILD_BATCH, numPages - pgNo);
+            int read = Math.max(file.channel.read((long) pgNo * pageSize, ByteBuffer.wrap(buf, 0, n * pageSize)), 0);
+            for (int i = 0; i < n; i++) {
+                int p = pgNo + i;
+                if (i >= read / pageSize) {
+                    // pages not on disk yet may hold anything
+                    clear(p, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                    pageSums[p] = 0;
+                    markDirty(p, p + 1);
+                    continue;
+                }
+                byte[] data = Arrays.copyOfRange(buf, i * pageSize, (i + 1) * pageSize);
+                pageSums[p] = checksum(data);
+                if (sums == null || entrySum(p) != sums[p]) {
+                    clear(p, Integer.MAX_VALUE, Integer.MIN_VALUE);
+                    widen(p, new HeapPage(new HeapPageId(file.getId(), p), data), data);
+                }
+            }
+        }
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /** @return the checksum of the entry of page pgNo */
+    private int entrySum(int pgNo) {
+        ByteBuffer buf = ByteBuffer.allocate(entryBytes());
+        for (int i = pgNo * numFields; i < (pgNo + 1) * numFields; i++) {
+            buf.putInt(mins[i]);
+            buf.putInt(maxs[i]);
+        }
+        buf.putInt(pageSums[pgNo]);
+        return checksum(buf.array());
+    }
+
+    private void ensureCapacity(int pages) {
+        if (pages * numFields > mins.length) {
+            int size = Math.max(pages * numFields, mins.length * 2);
+            mins = Arrays.copyOf(mins, size);
+            maxs = Arrays.copyOf(maxs, size);
+            pageSums = Arrays.copyOf(pageSums, size / numFields);
+        }
+    }
+
+    private void clear(int pgNo, int min, int max) {
+        Arrays.fill(mins, pgNo * numFields, (pgNo + 1) * numFields, min);
+        Arrays.fill(maxs, pgNo * numFields, (pgNo + 1) * numFields, max);
+    }
+
+    /** Makes room for page pgNo, which holds no values yet. */
+    private void extend(int pgNo) {
+        if (pgNo < numPages) {
+            return;
+        }
+        ensureCapacity(pgNo + 1);
+        // pages between the old end and pgNo have never been seen
+        for (int i = numPages; i < pgNo; i++) {
+            if (sidecar != null) {
+                clear(i, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            } else {
+                clear(i, Integer.MAX_VALUE, Integer.MIN_VALUE);
+            }
+        }
+        clear(pgNo, Integer.MAX_VALUE, Integer.MIN_VALUE);
+        Arrays.fill(pageSums, numPages, pgNo + 1, 0);
+        headerDirty = true;
+        markDirty(numPages, pgNo + 1);
+        numPages = pgNo + 1;
+    }
+
+    /** Widens the ranges of page pgNo to cover the values of t. */
+    synchronized void widen(int pgNo, Tuple t) {
+        extend(pgNo);
+        boolean changed = false;
+        for (int f = 0; f < numFields; f++) {
+            if (td.getFieldType(f) != Type.INT_TYPE) {
+                continue;
+            }
+            int v = ((IntField) t.getField(f)).getValue();
+            int i = pgNo * numFields + f;
+            if (v < mins[i]) {
+                mins[i] = v;
+                changed = true;
+            }
+            if (v > maxs[i]) {
+                maxs[i] = v;
+                changed = true;
+            }
+        }
+        if (changed) {
+            markDirty(pgNo, pgNo + 1);
+        }
+    }
+
+    /**
+     * Widens the ranges of page pgNo to cover all tuples on page, which
+     * was just written as, or read from, the given bytes.
+     */
+    synchronized void widen(int pgNo, HeapPage page, byte[] data) {
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            widen(pgNo, it.next());
+        }
+        extend(pgNo);
+        pageSums[pgNo] = checksum(data);
+        markDirty(pgNo, pgNo + 1);
+    }
+
+    /** Widens the ranges of every page to cover those of a pending map. */
+    synchronized void widen(ZoneMap pending) {
+        for (int pgNo = 0; pgNo < pending.numPages; pgNo++) {
+            for (int f = 0; f < numFields; f++) {
+                int j = pgNo * numFields + f;
+                if (pending.mins[j] > pending.maxs[j]) {
+                    continue;
+                }
+                extend(pgNo);
+                int i = pgNo * numFields + f;
+                if (pending.mins[j] < mins[i] || pending.maxs[j] > maxs[i]) {
+                    mins[i] = Math.min(mins[i], pending.mins[j]);
+                    maxs[i] = Math.max(maxs[i], pending.maxs[j]);
+                    markDirty(pgNo, pgNo + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if no tuple on page pgNo can satisfy p, true if one
+     *         may; predicates on fields other than INT_TYPE ones always
+     *         may be satisfied
+     */
+    synchronized boolean mayMatch(int pgNo, Predicate p) {
+        int f = p.getField();
+        if (pgNo >= numPages || td.getFieldType(f) != Type.INT_TYPE) {
+            return true;
+        }
+        int min = mins[pgNo * numFields + f];
+        int max = maxs[pgNo * numFields + f];
+        if (min > max) {
+            return false;
+        }
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            return min <= v && v <= max;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        default:
+            return true;
+        }
+    }
+
+    private void markDirty(int fromPage, int toPage) {
+        if (fromPage < toPage) {
+            dirtyLo = Math.min(dirtyLo, fromPage);
+            dirtyHi = Math.max(dirtyHi, toPage - 1);
+        }
+    }
+
+    /**
+     * Writes the entries changed since the last save to the sidecar and
+     * forces it to disk. Entries torn by a crash fail their checksum and
+     * are recomputed on the next load.
+     */
+    synchronized void save() throws IOException {
+        if (dirtyLo <= dirtyHi) {
+            ByteBuffer buf = ByteBuffer.allocate((dirtyHi - dirtyLo + 1) * entryBytes());
+            for (int pgNo = dirtyLo; pgNo <= dirtyHi; pgNo++) {
+                for (int i = pgNo * numFields; i < (pgNo + 1) * numFields; i++) {
+                    buf.putInt(mins[i]);
+                    buf.putInt(maxs[i]);
+                }
+                buf.putInt(entrySum(pgNo));
+            }
+            sidecar.write(HEADER_BYTES + (long) dirtyLo * entryBytes(), buf.array());
+            dirtyLo = Integer.MAX_VALUE;
+            dirtyHi = -1;
+        }
+        if (headerDirty) {
+            sidecar.write(0, ByteBuffer.allocate(HEADER_BYTES).putInt(numPages).putInt(numFields).array());
+            headerDirty = false;
+        }
+        sidecar.force();
+    }
+}
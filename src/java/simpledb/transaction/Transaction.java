@@ -27,10 +27,28 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction running as a read-only snapshot of the database
+     * as of now; see {@link simpledb.storage.BufferPool#beginSnapshot}
+     */
+    public void startSnapshot() {
+        Database.getBufferPool().beginSnapshot(tid);
+        start();
+    }
+
     public TransactionId getId() {
         return tid;
     }
 
+    /**
+     * Sets how long this transaction waits for a lock before it is aborted.
+     *
+     * @param millis the timeout in milliseconds
+     */
+    public void setLockTimeout(long millis) {
+        Database.getBufferPool().setLockTimeout(tid, millis);
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -53,8 +71,9 @@ public class Transaction {
             // Release locks and flush pages if needed
             Database.getBufferPool().transactionComplete(tid, !abort); // release locks
 
-            // write commit log record
-            if (!abort) {
+            // write commit log record, unless the buffer pool already did
+            // before writing pages of tables locked by record
+            if (!abort && Database.getLogFile().isLive(tid)) {
             	Database.getLogFile().logCommit(tid);
             }
 
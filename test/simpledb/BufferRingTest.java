@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 20;
+    private static final int HOT_PAGES = 5;
+    private static final int BIG_PAGES = 60;
+
+    private BufferPool bp;
+    private HeapFile hot;
+    private HeapFile big;
+    private List<List<Integer>> bigTuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        bigTuples = new ArrayList<>();
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * BIG_PAGES, null, bigTuples);
+        bp = Database.resetBufferPool(POOL_PAGES);
+        bp.setRingStrategy(0.5, 4);
+    }
+
+    private void touchHotPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < HOT_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    private void assertHotPagesCached() {
+        for (int i = 0; i < HOT_PAGES; i++) {
+            assertTrue(bp.isCached(new HeapPageId(hot.getId(), i)));
+        }
+    }
+
+    @Test public void ringOnlyForLargeTables() {
+        assertNull(bp.newRing(hot));
+        assertNotNull(bp.newRing(big));
+        assertEquals(4, bp.newRing(big).getSize());
+    }
+
+    /**
+     * Scanning a table larger than the pool leaves the cached pages of other
+     * tables alone and does not cache its own pages.
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        touchHotPages();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, big.getId());
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        bp.transactionComplete(tid);
+
+        assertEquals(bigTuples.size(), count);
+        assertHotPagesCached();
+        for (int i = 0; i < BIG_PAGES; i++) {
+            assertFalse(bp.isCached(new HeapPageId(big.getId(), i)));
+        }
+    }
+
+    /**
+     * A bulk insert into a large table probes its full pages through a ring;
+     * only the page the tuples go to enters the pool.
+     */
+    @Test public void insertKeepsWorkingSet() throws Exception {
+        touchHotPages();
+        List<List<Integer>> newTuples = new ArrayList<>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 10, null, newTuples);
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new SeqScan(tid, source.getId()), big.getId());
+        insert.open();
+        assertEquals(10, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        bp.transactionComplete(tid);
+
+        assertHotPagesCached();
+        bigTuples.addAll(newTuples);
+        SystemTestUtil.matchTuples(big, bigTuples);
+    }
+
+    /**
+     * A page in a ring that is written and evicted from the pool meanwhile
+     * is read again, not served from the ring.
+     */
+    @Test public void ringDropsPagesWrittenSinceRead() throws Exception {
+        BufferRing ring = bp.newRing(big);
+        HeapPageId pid = new HeapPageId(big.getId(), 0);
+        TransactionId reader = new TransactionId();
+        HeapPage old = (HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY, ring);
+        int empty = old.getNumEmptySlots();
+        bp.transactionComplete(reader);
+
+        TransactionId writer = new TransactionId();
+        bp.deleteTuple(writer, old.iterator().next());
+        bp.transactionComplete(writer);
+        bp.discardPage(pid);
+
+        reader = new TransactionId();
+        HeapPage current = (HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY, ring);
+        assertEquals(empty + 1, current.getNumEmptySlots());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
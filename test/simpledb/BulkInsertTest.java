@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkInsertTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        bp = Database.getBufferPool();
+    }
+
+    private List<Tuple> makeTuples(int count) {
+        List<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            batch.add(Utility.getHeapTuple(new int[] {i, -i}));
+            tuples.add(Arrays.asList(i, -i));
+        }
+        return batch;
+    }
+
+    /**
+     * A bulk insert packs its tuples into full pages.
+     */
+    @Test public void fillsPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> batch = makeTuples(504 * 3 + 10);
+        bp.insertTuples(tid, hf.getId(), batch.iterator());
+        assertEquals(4, hf.numPages());
+        for (int i = 0; i < 3; i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertEquals(0, p.getNumEmptySlots());
+            assertEquals(tid, p.isDirty());
+        }
+        assertEquals(new HeapPageId(hf.getId(), 3), batch.get(batch.size() - 1).getRecordId().getPageId());
+        bp.transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Slots left on existing pages are filled before new pages are added.
+     */
+    @Test public void topsUpExistingPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.insertTuples(tid, hf.getId(), makeTuples(500).iterator());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        bp.insertTuples(tid, hf.getId(), makeTuples(10).iterator());
+        assertEquals(2, hf.numPages());
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(504 - 6, p.getNumEmptySlots());
+        bp.transactionComplete(tid);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Aborting a bulk insert leaves the table as it was.
+     */
+    @Test public void abort() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.insertTuples(tid, hf.getId(), makeTuples(2000).iterator());
+        bp.transactionComplete(tid, false);
+        tuples.clear();
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkInsertTest.class);
+    }
+}
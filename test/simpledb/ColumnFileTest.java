@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private File dir;
+    private ColumnFile cf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[] {"a", "b", "s", "c"});
+        dir = Files.createTempDirectory("columns").toFile();
+        dir.deleteOnExit();
+        cf = open("cols");
+    }
+
+    private ColumnFile open(String name) {
+        File f = new File(dir, name + ".dat");
+        for (int i = 0; i < td.numFields(); i++) {
+            new File(f.getPath() + ColumnFile.COLUMN_SUFFIX + i).deleteOnExit();
+        }
+        ColumnFile file = new ColumnFile(f, td);
+        Database.getCatalog().addTable(file, name);
+        return file;
+    }
+
+    private Tuple tuple(int a, int b, String s, int c) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        t.setField(2, new StringField(s, Type.STRING_LEN));
+        t.setField(3, new IntField(c));
+        return t;
+    }
+
+    private void insert(int rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuple(i, i % 7, "s" + (i % 3), 42));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+    }
+
+    /** Each encoding is picked for values it suits, and decodes to the same values. */
+    @Test public void encodings() throws Exception {
+        int[][] columns = {
+            new int[2000],          // long runs of values far apart: run-length
+            new int[2000],          // narrow range: frame of reference
+            new int[2000],          // few values far apart: dictionary
+            new int[500],           // random: plain
+        };
+        Random r = new Random(7);
+        int run = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (i % 100 == 0) {
+                run = r.nextInt();
+            }
+            columns[0][i] = run;
+            columns[1][i] = 1000000 + r.nextInt(100);
+            columns[2][i] = new int[] {Integer.MIN_VALUE, 0, Integer.MAX_VALUE}[r.nextInt(3)];
+        }
+        for (int i = 0; i < 500; i++) {
+            columns[3][i] = r.nextInt();
+        }
+        byte[] expected = {ColumnPage.RUN_LENGTH, ColumnPage.FRAME_OF_REFERENCE, ColumnPage.DICTIONARY,
+                ColumnPage.PLAIN};
+        for (int k = 0; k < columns.length; k++) {
+            ColumnPage page = new ColumnPage(new ColumnPageId(cf.getId(), 0, 0), new byte[BufferPool.getPageSize()]);
+            for (int v : columns[k]) {
+                assertTrue(page.canAppend(new IntField(v)));
+                page.append(new IntField(v));
+            }
+            assertEquals(expected[k], page.getEncoding());
+            ColumnPage read = new ColumnPage(page.getId(), page.getPageData());
+            assertEquals(columns[k].length, read.getCount());
+            for (int i = 0; i < columns[k].length; i++) {
+                assertEquals(new IntField(columns[k][i]), read.getField(i));
+            }
+        }
+    }
+
+    @Test public void insertScanReopen() throws Exception {
+        insert(4000);
+        // column c is constant, so all of it fits in one page
+        assertEquals(1, cf.numPages(3));
+        assertTrue(cf.numPages(0) > 1);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ColumnFile reopened = open("cols");
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(tuple(n, n % 7, "s" + (n % 3), 42).toString(), t.toString());
+            n++;
+        }
+        it.close();
+        assertEquals(4000, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A scan of some columns leaves the pages of the others alone. */
+    @Test public void readsOnlyScannedColumns() throws Exception {
+        insert(3000);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), "c", new int[] {1, 3});
+        scan.open();
+        int sum = 0;
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertNull(t.getField(0));
+            sum += ((IntField) t.getField(1)).getValue();
+            n++;
+        }
+        scan.close();
+        assertEquals(3000, n);
+        int expected = 0;
+        for (int i = 0; i < 3000; i++) {
+            expected += i % 7;
+        }
+        assertEquals(expected, sum);
+        for (int col : new int[] {0, 2}) {
+            assertFalse(Database.getBufferPool().isCached(new ColumnPageId(cf.getId(), col, 0)));
+        }
+        assertTrue(Database.getBufferPool().isCached(new ColumnPageId(cf.getId(), 3, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner scans only the columns a query refers to. */
+    @Test public void plannerPrunesColumns() throws Exception {
+        insert(1000);
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addFilter("t.a", Predicate.Op.GREATER_THAN_OR_EQ, "500");
+        lp.addAggregate("SUM", "t.b", null);
+        lp.addProjectField("t.b", "SUM");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("cols", new TableStats(cf.getId(), 1));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        OpIterator scan = plan;
+        while (!(scan instanceof SeqScan)) {
+            scan = ((Operator) scan).getChildren()[0];
+        }
+        assertTrue(scan instanceof ColumnScan);
+        assertArrayEquals(new int[] {0, 1}, ((ColumnScan) scan).getColumns());
+
+        plan.open();
+        assertTrue(plan.hasNext());
+        int expected = 0;
+        for (int i = 500; i < 1000; i++) {
+            expected += i % 7;
+        }
+        assertEquals(new IntField(expected), plan.next().getField(0));
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Text files convert to column files, which the catalog recognizes. */
+    @Test public void convertAndLoadSchema() throws Exception {
+        File text = new File(dir, "wide.txt");
+        text.deleteOnExit();
+        try (Writer w = new FileWriter(text)) {
+            for (int i = 0; i < 2000; i++) {
+                w.write(i + "," + (i / 100) + ",name" + i + "," + (i % 2) + "\n");
+            }
+        }
+        File data = new File(dir, "wide.dat");
+        ColumnFile.convert(text, data, BufferPool.getPageSize(), new Type[] {Type.INT_TYPE, Type.INT_TYPE,
+                Type.STRING_TYPE, Type.INT_TYPE}, ',');
+        for (int i = 0; i < 4; i++) {
+            new File(data.getPath() + ColumnFile.COLUMN_SUFFIX + i).deleteOnExit();
+        }
+        assertTrue(ColumnFile.isColumnar(data));
+        assertFalse(data.exists());
+
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        try (Writer w = new FileWriter(schema)) {
+            w.write("wide (a int, b int, s string, c int)\n");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+        DbFile file = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("wide"));
+        assertTrue(file instanceof ColumnFile);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = ((ColumnFile) file).iterator(tid, new int[] {2});
+        it.open();
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(it.hasNext());
+            assertEquals("name" + i, ((StringField) it.next().getField(2)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 504 * 8;
+
+    private File raw;
+    private File packed;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        raw = SystemTestUtil.createRandomHeapFileUnopened(2, ROWS, 1000, null, tuples);
+        packed = tempFile();
+        CompressedHeapFile.convert(raw, packed, BufferPool.getPageSize());
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + CompressedHeapFile.DIRECTORY_SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    private CompressedHeapFile open(File f, TupleDesc td) {
+        CompressedHeapFile hf = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    @Test public void codecRoundTrip() throws Exception {
+        Random r = new Random(42);
+        byte[] mixed = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < mixed.length; i += 7) {
+            mixed[i] = (byte) r.nextInt();
+        }
+        byte[] random = new byte[1000];
+        r.nextBytes(random);
+        for (byte[] data : Arrays.asList(new byte[0], new byte[3], new byte[BufferPool.getPageSize()], mixed, random)) {
+            byte[] block = Lz4Codec.compress(data);
+            byte[] out = new byte[data.length];
+            Lz4Codec.decompress(block, 0, block.length, out);
+            assertArrayEquals(data, out);
+        }
+        assertTrue(Lz4Codec.compress(new byte[BufferPool.getPageSize()]).length < 64);
+    }
+
+    @Test public void scan() throws Exception {
+        CompressedHeapFile hf = open(packed, Utility.getTupleDesc(2));
+        assertTrue(CompressedHeapFile.isCompressed(packed));
+        assertEquals(ROWS / 504, hf.numPages());
+        assertTrue(packed.length() < raw.length());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Committed changes, including pages that grow out of their extent and
+     * new pages, are read back after the file is opened again.
+     */
+    @Test public void writeAndReopen() throws Exception {
+        CompressedHeapFile hf = open(packed, Utility.getTupleDesc(2));
+        TransactionId tid = new TransactionId();
+        // free room on page 0 for less compressible tuples
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        List<Tuple> victims = new ArrayList<>();
+        first.iterator().forEachRemaining(victims::add);
+        for (Tuple t : victims.subList(0, 100)) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        Random r = new Random(7);
+        for (int i = 0; i < 600; i++) {
+            int v = r.nextInt();
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {v, -v}));
+            tuples.add(Arrays.asList(v, -v));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertEquals(ROWS / 504 + 1, hf.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(open(packed, Utility.getTupleDesc(2)), tuples);
+    }
+
+    /**
+     * HeapFileEncoder writes string tables, which are mostly padding,
+     * compressed to a fraction of their size.
+     */
+    @Test public void encodeStrings() throws Exception {
+        File text = File.createTempFile("strings", ".txt");
+        text.deleteOnExit();
+        int rows = 2000;
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++) {
+                w.write(i + ",name" + i + "\n");
+            }
+        }
+        Type[] types = new Type[] {Type.INT_TYPE, Type.STRING_TYPE};
+        File plain = tempFile();
+        File compressed = tempFile();
+        HeapFileEncoder.convert(text, plain, BufferPool.getPageSize(), 2, types, ',');
+        HeapFileEncoder.convert(text, compressed, BufferPool.getPageSize(), 2, types, ',', true);
+        assertTrue(compressed.length() * 3 < plain.length());
+
+        CompressedHeapFile hf = open(compressed, new TupleDesc(types));
+        SeqScan scan = new SeqScan(new TransactionId(), hf.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + i, ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        scan.close();
+        assertEquals(rows, count);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void noMapping() throws DbException {
+        open(packed, Utility.getTupleDesc(2)).setMemoryMapped(true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockProEvictionPolicy;
+import simpledb.storage.EvictionPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKEvictionPolicy;
+import simpledb.storage.PageId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class EvictionPolicyTest {
+
+    private static final int CAPACITY = 10;
+    private static final int HOT_PAGES = 5;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Simulates a small pool: a hot set that is referenced repeatedly,
+     * interleaved with a long scan that touches every other page once.
+     * Returns the number of hot pages that are still resident at the end.
+     */
+    private int hotPagesAfterScan(EvictionPolicy policy) {
+        Set<PageId> resident = new HashSet<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < HOT_PAGES; i++)
+                access(policy, resident, pid(i));
+        }
+        for (int i = 1000; i < 1200; i++) {
+            access(policy, resident, pid(i));
+            if (i % 20 == 0) {
+                for (int j = 0; j < HOT_PAGES; j++)
+                    access(policy, resident, pid(j));
+            }
+        }
+        int hot = 0;
+        for (int i = 0; i < HOT_PAGES; i++) {
+            if (resident.contains(pid(i)))
+                hot++;
+        }
+        return hot;
+    }
+
+    private void access(EvictionPolicy policy, Set<PageId> resident, PageId pid) {
+        if (resident.contains(pid)) {
+            policy.pageAccessed(pid);
+            return;
+        }
+        if (resident.size() >= CAPACITY) {
+            PageId victim = policy.chooseVictim(p -> true);
+            assertNotNull(victim);
+            assertTrue(resident.remove(victim));
+        }
+        resident.add(pid);
+        policy.pageAdded(pid);
+    }
+
+    /**
+     * Unit test for LruKEvictionPolicy: a scan does not flush the hot set.
+     */
+    @Test public void lruKScanResistant() {
+        assertEquals(HOT_PAGES, hotPagesAfterScan(new LruKEvictionPolicy(CAPACITY)));
+    }
+
+    /**
+     * Unit test for ClockProEvictionPolicy: a scan does not flush the hot set.
+     */
+    @Test public void clockProScanResistant() {
+        assertEquals(HOT_PAGES, hotPagesAfterScan(new ClockProEvictionPolicy(CAPACITY)));
+    }
+
+    /**
+     * Both policies skip pages that may not be evicted and give up when
+     * nothing can be evicted.
+     */
+    @Test public void respectsEvictable() {
+        EvictionPolicy[] policies = {
+                new LruKEvictionPolicy(CAPACITY), new ClockProEvictionPolicy(CAPACITY) };
+        for (EvictionPolicy policy : policies) {
+            for (int i = 0; i < CAPACITY; i++)
+                policy.pageAdded(pid(i));
+            assertEquals(pid(7), policy.chooseVictim(p -> p.equals(pid(7))));
+            assertNull(policy.chooseVictim(p -> p.equals(pid(7))));
+            assertNull(policy.chooseVictim(p -> false));
+        }
+    }
+
+    /**
+     * Removed pages are never chosen as victims.
+     */
+    @Test public void pageRemoved() {
+        EvictionPolicy[] policies = {
+                new LruKEvictionPolicy(CAPACITY), new ClockProEvictionPolicy(CAPACITY) };
+        for (EvictionPolicy policy : policies) {
+            policy.pageAdded(pid(0));
+            policy.pageAdded(pid(1));
+            policy.pageRemoved(pid(0));
+            assertEquals(pid(1), policy.chooseVictim(p -> true));
+            assertNull(policy.chooseVictim(p -> true));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
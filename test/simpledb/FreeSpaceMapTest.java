@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, new ArrayList<>());
+        bp = Database.getBufferPool();
+    }
+
+    private RecordId insert(TransactionId tid) throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] {1, 2});
+        bp.insertTuple(tid, hf.getId(), t);
+        return t.getRecordId();
+    }
+
+    /**
+     * Inserting into a table of full pages goes straight to a new page
+     * without locking any of the full ones.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(PAGES, insert(tid).getPageId().getPageNumber());
+        for (int i = 0; i < PAGES; i++) {
+            assertFalse(bp.holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A slot freed by a delete is found again by the next insert.
+     */
+    @Test public void deleteThenInsert() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 6), Permissions.READ_WRITE);
+        Tuple victim = p.iterator().next();
+        bp.deleteTuple(tid, victim);
+        assertEquals(1, p.getNumEmptySlots());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(victim.getRecordId(), insert(tid));
+        assertEquals(0, p.getNumEmptySlots());
+        assertEquals(PAGES, insert(tid).getPageId().getPageNumber());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The map is saved on commit and used when the file is opened again.
+     */
+    @Test public void reopen() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 3), Permissions.READ_WRITE);
+        Iterator<Tuple> it = p.iterator();
+        bp.deleteTuple(tid, it.next());
+        bp.deleteTuple(tid, it.next());
+        bp.transactionComplete(tid);
+        assertTrue(new File(hf.getFile().getPath() + ".fsm").exists());
+
+        hf = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp = Database.getBufferPool();
+        tid = new TransactionId();
+        assertEquals(3, insert(tid).getPageId().getPageNumber());
+        assertEquals(3, insert(tid).getPageId().getPageNumber());
+        assertEquals(PAGES, insert(tid).getPageId().getPageNumber());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 16;
+
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        log = Database.getLogFile();
+    }
+
+    @After public void tearDown() {
+        log.setGroupCommitWindow(0);
+    }
+
+    /**
+     * Runs THREADS transactions that commit at the same time, each after
+     * calling work, and fails if any of them fails.
+     */
+    private void commitConcurrently(Work work) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int n = i;
+            Thread t = new Thread(() -> {
+                try {
+                    Transaction tx = new Transaction();
+                    tx.start();
+                    work.run(tx, n);
+                    barrier.await();
+                    tx.commit();
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), errors);
+    }
+
+    private interface Work {
+        void run(Transaction tx, int n) throws Exception;
+    }
+
+    @Test public void window() {
+        assertEquals(0, log.getGroupCommitWindow());
+        log.setGroupCommitWindow(250);
+        assertEquals(250, log.getGroupCommitWindow());
+    }
+
+    /**
+     * Concurrent commits share forces of the log, and every commit record
+     * is on disk once its commit returns.
+     */
+    @Test public void sharedForces() throws Exception {
+        log.setGroupCommitWindow(20000);
+        long groups = log.getNumCommitGroups();
+        commitConcurrently((tx, n) -> { });
+        assertTrue(log.getNumCommitGroups() - groups < THREADS);
+        assertTrue(log.getForcedRecords() >= log.getTotalRecords());
+    }
+
+    /**
+     * Transactions that write to different tables have their pages synced
+     * in shared groups and all of their tuples survive.
+     */
+    @Test public void sharedPageSyncs() throws Exception {
+        log.setGroupCommitWindow(20000);
+        List<HeapFile> files = new ArrayList<>();
+        List<List<List<Integer>>> contents = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            files.add(SystemTestUtil.createRandomHeapFile(2, 10, null, tuples));
+            contents.add(tuples);
+        }
+        long groups = log.getNumCommitGroups();
+        commitConcurrently((tx, n) -> {
+            Database.getBufferPool().insertTuple(tx.getId(), files.get(n).getId(),
+                    Utility.getHeapTuple(new int[] {n, n}));
+        });
+        // each commit syncs its pages and then forces its commit record
+        assertTrue(log.getNumCommitGroups() - groups < 2 * THREADS);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int i = 0; i < THREADS; i++) {
+            List<Integer> tuple = new ArrayList<>();
+            tuple.add(i);
+            tuple.add(i);
+            contents.get(i).add(tuple);
+            SystemTestUtil.matchTuples(files.get(i), contents.get(i));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -13,8 +13,11 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -123,6 +126,33 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getTuple()
+     */
+    @Test public void getTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple tup = page.getTuple(7);
+        assertEquals(EXAMPLE_VALUES[7][0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[7][1], ((IntField) tup.getField(1)).getValue());
+        assertEquals(7, tup.getRecordId().getTupleNumber());
+        assertSame(tup, page.getTuple(7));
+        assertNull(page.getTuple(30));
+    }
+
+    /**
+     * getPageData() returns the bytes the page was read from, whether or not
+     * its tuples have been decoded.
+     */
+    @Test public void getPageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+        page.getTuple(3);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+        }
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
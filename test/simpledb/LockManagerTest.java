@@ -0,0 +1,261 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.LockMode;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.TableLockId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    private static final PageId P0 = new HeapPageId(1, 0);
+    private static final PageId P1 = new HeapPageId(1, 1);
+
+    private LockManager lm;
+    private ExecutorService pool;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager();
+        pool = Executors.newCachedThreadPool();
+    }
+
+    private Future<Void> acquire(TransactionId tid, PageId pid, Permissions perm) {
+        return pool.submit(() -> {
+            lm.acquireLock(tid, pid, perm);
+            return null;
+        });
+    }
+
+    /** Asserts the request is still waiting a while after it was made. */
+    private void assertWaiting(Future<Void> f) throws Exception {
+        try {
+            f.get(100, TimeUnit.MILLISECONDS);
+            fail("lock granted while it conflicts");
+        } catch (TimeoutException expected) {
+        }
+    }
+
+    /** A waiter is granted its lock on release, however long it waited. */
+    @Test public void wokenOnRelease() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, P0, Permissions.READ_WRITE);
+        Future<Void> f = acquire(t2, P0, Permissions.READ_WRITE);
+        Thread.sleep(500);
+        assertFalse(f.isDone());
+        lm.releaseAllLocks(t1);
+        f.get(1, TimeUnit.SECONDS);
+        assertTrue(lm.holdsLock(t2, P0));
+    }
+
+    /** Readers arriving after a waiting writer queue behind it. */
+    @Test public void fifo() throws Exception {
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        TransactionId late = new TransactionId();
+        lm.acquireLock(reader, P0, Permissions.READ_ONLY);
+        Future<Void> w = acquire(writer, P0, Permissions.READ_WRITE);
+        assertWaiting(w);
+        Future<Void> r = acquire(late, P0, Permissions.READ_ONLY);
+        assertWaiting(r);
+
+        lm.releaseAllLocks(reader);
+        w.get(1, TimeUnit.SECONDS);
+        assertWaiting(r);
+        lm.releaseAllLocks(writer);
+        r.get(1, TimeUnit.SECONDS);
+    }
+
+    /** A holder upgrading its shared lock goes ahead of waiting writers. */
+    @Test public void upgradeFirst() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, P0, Permissions.READ_ONLY);
+        Future<Void> w = acquire(t2, P0, Permissions.READ_WRITE);
+        assertWaiting(w);
+        lm.acquireLock(t1, P0, Permissions.READ_WRITE);
+        assertWaiting(w);
+        lm.releaseAllLocks(t1);
+        w.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test public void deadlock() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, P0, Permissions.READ_WRITE);
+        lm.acquireLock(t2, P1, Permissions.READ_WRITE);
+        Future<Void> f = acquire(t1, P1, Permissions.READ_ONLY);
+        assertWaiting(f);
+        try {
+            lm.acquireLock(t2, P0, Permissions.READ_ONLY);
+            fail("deadlock not detected");
+        } catch (TransactionAbortedException expected) {
+        }
+        lm.releaseAllLocks(t2);
+        f.get(1, TimeUnit.SECONDS);
+    }
+
+    private void assertAborted(Future<Void> f) throws Exception {
+        try {
+            f.get(1, TimeUnit.SECONDS);
+            fail("deadlock not broken");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+    }
+
+    /** The youngest transaction on a cycle is aborted, even if another closed it. */
+    @Test public void youngestVictim() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(younger, P0, Permissions.READ_WRITE);
+        lm.acquireLock(older, P1, Permissions.READ_WRITE);
+        Future<Void> f = acquire(younger, P1, Permissions.READ_ONLY);
+        assertWaiting(f);
+        Future<Void> g = acquire(older, P0, Permissions.READ_ONLY);
+        assertAborted(f);
+        assertWaiting(g);
+        lm.releaseAllLocks(younger);
+        g.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test public void leastWorkVictim() throws Exception {
+        lm.setVictimPolicy(LockManager.VictimPolicy.LEAST_WORK);
+        TransactionId idle = new TransactionId();
+        TransactionId busy = new TransactionId();
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquireLock(idle, P0, Permissions.READ_WRITE);
+        lm.acquireLock(idle, new HeapPageId(1, 3), Permissions.READ_ONLY);
+        lm.acquireLock(busy, P1, Permissions.READ_WRITE);
+        lm.acquireLock(busy, p2, Permissions.READ_WRITE);
+        Future<Void> f = acquire(idle, P1, Permissions.READ_ONLY);
+        assertWaiting(f);
+        // busy is the youngest, but has written more pages
+        Future<Void> g = acquire(busy, P0, Permissions.READ_WRITE);
+        assertAborted(f);
+        lm.releaseAllLocks(idle);
+        g.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test public void timeoutPerTransaction() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, P0, Permissions.READ_WRITE);
+        lm.setTimeout(t2, 50);
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquireLock(t2, P0, Permissions.READ_ONLY);
+            fail("lock granted while it conflicts");
+        } catch (TransactionAbortedException expected) {
+        }
+        assertTrue(System.currentTimeMillis() - start < LockManager.DEFAULT_TIMEOUT);
+        // the aborted request left the queue
+        lm.releaseAllLocks(t1);
+        assertTrue(lm.acquireLockHelper(t2, P0, Permissions.READ_WRITE));
+    }
+
+    /** Intention locks on a table admit each other, but not a lock on the whole table. */
+    @Test public void intentionModes() throws Exception {
+        TableLockId table = new TableLockId(1);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(t1, table, LockMode.IX);
+        lm.acquireLock(t2, table, LockMode.IS);
+        lm.acquireLock(t1, new RecordId(P0, 0), LockMode.X);
+        lm.acquireLock(t2, new RecordId(P0, 1), LockMode.S);
+        assertFalse(lm.acquireLockHelper(t3, table, LockMode.S));
+        // t2 reads the whole table while t1 still writes part of it
+        Future<Void> f = pool.submit(() -> {
+            lm.acquireLock(t2, table, LockMode.S);
+            return null;
+        });
+        assertWaiting(f);
+        lm.releaseAllLocks(t1);
+        f.get(1, TimeUnit.SECONDS);
+        assertEquals(LockMode.S, lm.getLockMode(t2, table));
+        assertEquals(LockMode.SIX, LockMode.S.join(LockMode.IX));
+        assertTrue(LockMode.SIX.covers(LockMode.IS));
+        assertFalse(LockMode.SIX.covers(LockMode.X));
+    }
+
+    /**
+     * Threads locking random pages spread over many stripes never hold
+     * conflicting locks, and every deadlock among them is broken.
+     */
+    @Test public void stripedStress() throws Exception {
+        LockManager striped = new LockManager(8);
+        int pages = 24;
+        AtomicInteger[] readers = new AtomicInteger[pages];
+        AtomicInteger[] writers = new AtomicInteger[pages];
+        for (int i = 0; i < pages; i++) {
+            readers[i] = new AtomicInteger();
+            writers[i] = new AtomicInteger();
+        }
+        AtomicInteger committed = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int w = 0; w < 8; w++) {
+            Random rand = new Random(w);
+            workers.add(pool.submit(() -> {
+                for (int n = 0; n < 200; n++) {
+                    TransactionId tid = new TransactionId();
+                    int[] pgs = rand.ints(0, pages).distinct().limit(3).toArray();
+                    boolean[] write = new boolean[pgs.length];
+                    try {
+                        for (int i = 0; i < pgs.length; i++) {
+                            write[i] = rand.nextInt(3) == 0;
+                            striped.acquireLock(tid, new HeapPageId(1, pgs[i]),
+                                    write[i] ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+                        }
+                    } catch (TransactionAbortedException e) {
+                        striped.releaseAllLocks(tid);
+                        continue;
+                    }
+                    for (int i = 0; i < pgs.length; i++) {
+                        if (write[i]) {
+                            assertEquals(1, writers[pgs[i]].incrementAndGet());
+                            assertEquals(0, readers[pgs[i]].get());
+                        } else {
+                            readers[pgs[i]].incrementAndGet();
+                            assertEquals(0, writers[pgs[i]].get());
+                        }
+                    }
+                    for (int i = 0; i < pgs.length; i++) {
+                        (write[i] ? writers : readers)[pgs[i]].decrementAndGet();
+                    }
+                    striped.releaseAllLocks(tid);
+                    committed.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : workers) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+        assertTrue(committed.get() > 0);
+        assertTrue(striped.getTransactions().isEmpty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MemoryMappedHeapFileTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+        hf.setMemoryMapped(true);
+    }
+
+    @Test public void scan() throws Exception {
+        assertTrue(hf.isMemoryMapped());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Committed inserts, including ones that append pages, are read back
+     * through the mapping.
+     */
+    @Test public void insertAndGrow() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, i}));
+            tuples.add(Arrays.asList(i, i));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertTrue(hf.numPages() > PAGES);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * The before image of a mapped page is what is on disk, also after the
+     * page was written over.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        hf.writePage(page);
+
+        assertEquals(504, countTuples(page.getBeforeImage()));
+        assertEquals(503, countTuples((HeapPage) hf.readPage(pid)));
+    }
+
+    private static int countTuples(HeapPage p) {
+        int count = 0;
+        for (Iterator<Tuple> it = p.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Aborting a transaction restores the mapped page.
+     */
+    @Test public void abort() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(tid, page.iterator().next());
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MemoryMappedHeapFileTest.class);
+    }
+}
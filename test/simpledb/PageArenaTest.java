@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageArenaTest extends SimpleDbTestBase {
+    private static final int PAGES = 30;
+    private static final int POOL_PAGES = 10;
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+        bp = Database.resetBufferPool(POOL_PAGES, BufferPool.DEFAULT_EVICTION_POLICY, 1, true);
+    }
+
+    private static int countTuples(HeapPage p) {
+        int count = 0;
+        for (Iterator<Tuple> it = p.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test public void arenaFrames() {
+        PageArena arena = new PageArena(10, 64);
+        assertEquals(10, arena.getNumFrames());
+        assertEquals(10, arena.getNumFreeFrames());
+        assertNull(new BufferPool(POOL_PAGES).getArena());
+    }
+
+    /**
+     * Evicted pages give their frames back to the arena.
+     */
+    @Test public void scanLargerThanPool() throws Exception {
+        PageArena arena = bp.getArena();
+        assertEquals(POOL_PAGES + BufferPool.ARENA_SLACK_FRAMES, arena.getNumFrames());
+        SystemTestUtil.matchTuples(hf, tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(BufferPool.ARENA_SLACK_FRAMES, arena.getNumFreeFrames());
+
+        bp.discardPage(new HeapPageId(hf.getId(), PAGES - 1));
+        assertEquals(BufferPool.ARENA_SLACK_FRAMES + 1, arena.getNumFreeFrames());
+    }
+
+    /**
+     * Aborts restore the before image kept in the frame; commits replace it.
+     */
+    @Test public void beforeImageInFrame() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        TransactionId t1 = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(t1, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(t1, p.iterator().next());
+        bp.transactionComplete(t1, false);
+
+        TransactionId t2 = new TransactionId();
+        p = (HeapPage) bp.getPage(t2, pid, Permissions.READ_WRITE);
+        assertEquals(504, countTuples(p));
+        bp.deleteTuple(t2, p.iterator().next());
+        assertEquals(504, countTuples(p.getBeforeImage()));
+        bp.transactionComplete(t2, true);
+        assertEquals(503, countTuples(p.getBeforeImage()));
+    }
+
+    /**
+     * A page that leaves the pool keeps its before image after its frame
+     * is reused.
+     */
+    @Test public void evictedPageKeepsBeforeImage() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        byte[] before = first.getBeforeImage().getPageData();
+        for (int i = 1; i < PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        assertFalse(bp.isCached(first.getId()));
+        assertArrayEquals(before, first.getBeforeImage().getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
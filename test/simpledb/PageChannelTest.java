@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.PageChannel;
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageChannelTest extends SimpleDbTestBase {
+    private File file;
+    private PageChannel channel;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("channel", ".dat");
+        file.deleteOnExit();
+        channel = new PageChannel(file);
+    }
+
+    @After public void tearDown() throws Exception {
+        channel.close();
+    }
+
+    private static byte[] page(int fill) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Arrays.fill(data, (byte) fill);
+        return data;
+    }
+
+    /**
+     * Pages written at an offset read back the same, in any order.
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        channel.write(2L * pageSize, page(3));
+        channel.write(0, page(1));
+        channel.write(pageSize, page(2));
+        channel.force();
+        assertEquals(3L * pageSize, file.length());
+
+        byte[] buf = new byte[pageSize];
+        for (int i = 2; i >= 0; i--) {
+            assertEquals(pageSize, channel.read((long) i * pageSize, buf));
+            assertArrayEquals(page(i + 1), buf);
+        }
+    }
+
+    /**
+     * Reads stop at the end of the file.
+     */
+    @Test public void readPastEnd() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        channel.write(0, page(7));
+        assertEquals(-1, channel.read(pageSize, new byte[pageSize]));
+        byte[] two = new byte[2 * pageSize];
+        assertEquals(pageSize, channel.read(0, two));
+    }
+
+    /**
+     * Appends go to the end of the file, also after the channel reopens.
+     */
+    @Test public void append() throws Exception {
+        assertEquals(0, channel.append(new byte[9]));
+        assertEquals(9, channel.append(page(1)));
+        channel.close();
+        assertEquals(9 + BufferPool.getPageSize(), channel.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChannelTest.class);
+    }
+}
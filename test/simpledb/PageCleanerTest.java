@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCleanerTest extends TestUtil.CreateHeapFile {
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.getBufferPool();
+    }
+
+    @After public void tearDown() throws IOException {
+        bp.stopPageCleaner();
+    }
+
+    private int tuplesOnDisk(HeapFile f, int pgNo) {
+        return countTuples((HeapPage) f.readPage(new HeapPageId(f.getId(), pgNo)));
+    }
+
+    private static int countTuples(HeapPage p) {
+        int count = 0;
+        for (Iterator<Tuple> it = p.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private void waitForCleaner() throws InterruptedException {
+        for (int i = 0; i < 200 && bp.getNumCommittedDirtyPages() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, bp.getNumCommittedDirtyPages());
+    }
+
+    /**
+     * With a cleaner running, commit leaves the page in the pool and the
+     * cleaner writes it back afterwards.
+     */
+    @Test public void writesCommittedPages() throws Exception {
+        bp.startPageCleaner(PageCleaner.DEFAULT_PAGES_PER_SECOND, PageCleaner.DEFAULT_HIGH_WATER_MARK);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid, true);
+        waitForCleaner();
+        assertEquals(10, tuplesOnDisk(empty, 0));
+    }
+
+    /**
+     * Aborting a transaction that touched a page the cleaner has not written
+     * yet keeps the committed changes.
+     */
+    @Test public void abortKeepsCommittedChanges() throws Exception {
+        // a cleaner that is slow enough to still hold the page
+        bp.startPageCleaner(1, 1.0);
+        TransactionId t1 = new TransactionId();
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(2, 2));
+        bp.transactionComplete(t1, true);
+
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(3, 2));
+        bp.transactionComplete(t2, false);
+
+        TransactionId t3 = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(t3, new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(2, countTuples(p));
+        bp.transactionComplete(t3);
+
+        bp.stopPageCleaner();
+        assertEquals(2, tuplesOnDisk(empty, 0));
+    }
+
+    /**
+     * A pool full of committed but unwritten pages can still evict.
+     */
+    @Test public void evictsCommittedPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        bp = Database.resetBufferPool(2);
+        bp.startPageCleaner(1, 1.0);
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            TransactionId tid = new TransactionId();
+            HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+            HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            Tuple t = p.iterator().next();
+            bp.deleteTuple(tid, t);
+            bp.transactionComplete(tid, true);
+        }
+        bp.stopPageCleaner();
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            assertEquals(503, tuplesOnDisk(hf, pgNo));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
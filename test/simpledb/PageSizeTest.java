@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int LARGE_PAGE = 64 * 1024;
+    // two int columns per tuple
+    private static final int TUPLES_PER_LARGE_PAGE = LARGE_PAGE * 8 / (8 * 8 + 1);
+
+    private File file;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        Random r = new Random(3);
+        for (int i = 0; i < TUPLES_PER_LARGE_PAGE * 3; i++) {
+            tuples.add(Arrays.asList(r.nextInt(), r.nextInt()));
+        }
+        file = File.createTempFile("large", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, LARGE_PAGE, 2);
+    }
+
+    private HeapFile open() {
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2), LARGE_PAGE);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /** A table with large pages is read next to one with the default size. */
+    @Test public void scanMixedSizes() throws Exception {
+        HeapFile large = open();
+        List<List<Integer>> small = new ArrayList<>();
+        HeapFile regular = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, small);
+
+        assertEquals(LARGE_PAGE, Database.getCatalog().getPageSize(large.getId()));
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(regular.getId()));
+        assertEquals(3, large.numPages());
+        HeapPage page = (HeapPage) large.readPage(new HeapPageId(large.getId(), 0));
+        assertEquals(LARGE_PAGE, page.getPageData().length);
+        assertEquals(0, page.getNumEmptySlots());
+
+        SystemTestUtil.matchTuples(large, tuples);
+        SystemTestUtil.matchTuples(regular, small);
+    }
+
+    /**
+     * A large page takes up as many frames of the pool as it spans, so
+     * caching one evicts as many default-size pages.
+     */
+    @Test public void framesAreWeighted() throws Exception {
+        HeapFile large = open();
+        HeapFile regular = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        BufferPool bp = Database.resetBufferPool(20, BufferPool.DEFAULT_EVICTION_POLICY, 1);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            bp.getPage(tid, new HeapPageId(large.getId(), i), Permissions.READ_ONLY);
+        }
+        // 16 frames each, so only the last fits in 20
+        assertFalse(bp.isCached(new HeapPageId(large.getId(), 0)));
+        assertFalse(bp.isCached(new HeapPageId(large.getId(), 1)));
+        assertTrue(bp.isCached(new HeapPageId(large.getId(), 2)));
+
+        for (int i = 0; i < 4; i++) {
+            bp.getPage(tid, new HeapPageId(regular.getId(), i), Permissions.READ_ONLY);
+        }
+        assertTrue(bp.isCached(new HeapPageId(large.getId(), 2)));
+        bp.getPage(tid, new HeapPageId(regular.getId(), 4), Permissions.READ_ONLY);
+        assertFalse(bp.isCached(new HeapPageId(large.getId(), 2)));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bp.isCached(new HeapPageId(regular.getId(), i)));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    @Test public void insertAndReopen() throws Exception {
+        HeapFile large = open();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; i++) {
+            Database.getBufferPool().insertTuple(tid, large.getId(), Utility.getHeapTuple(new int[] {i, -i}));
+            tuples.add(Arrays.asList(i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertEquals(4L * LARGE_PAGE, file.length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(open(), tuples);
+    }
+
+    /** A catalog entry may give the table's page size after its schema. */
+    @Test public void loadSchemaPageSize() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File data = new File(dir, "wide.dat");
+        data.deleteOnExit();
+        Files.copy(file.toPath(), data.toPath());
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        try (Writer w = new FileWriter(schema)) {
+            w.write("wide (a int, b int) pagesize " + LARGE_PAGE + "\n");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+        int id = Database.getCatalog().getTableId("wide");
+        assertEquals(LARGE_PAGE, Database.getCatalog().getPageSize(id));
+        SystemTestUtil.matchTuples(Database.getCatalog().getDatabaseFile(id), tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKEvictionPolicy;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PartitionedBufferPoolTest extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+    }
+
+    /**
+     * Small pools stay in a single partition.
+     */
+    @Test public void defaultPartitions() {
+        assertEquals(1, BufferPool.defaultPartitions(BufferPool.DEFAULT_PAGES));
+        assertTrue(BufferPool.defaultPartitions(1 << 20) >= 1);
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumPartitions());
+    }
+
+    /**
+     * Every partition evicts on its own; a scan over a file that is much
+     * larger than the pool still sees every tuple.
+     */
+    @Test public void scanLargerThanPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8, LruKEvictionPolicy.FACTORY, 4);
+        assertEquals(4, bp.getNumPartitions());
+        SystemTestUtil.matchTuples(hf, tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A cached page is returned as the same object, whichever partition it
+     * hashes to.
+     */
+    @Test public void cachesPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES, LruKEvictionPolicy.FACTORY, 4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertSame(p, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Concurrent scans over a partitioned pool see every tuple.
+     */
+    @Test public void concurrentScans() throws Exception {
+        Database.resetBufferPool(16, LruKEvictionPolicy.FACTORY, 4);
+        final List<Throwable> errors = new ArrayList<>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    SystemTestUtil.matchTuples(hf, tuples);
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionedBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PinLatchTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        bp = Database.resetBufferPool(3, BufferPool.DEFAULT_EVICTION_POLICY, 1);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    @Test public void pinnedPagesStay() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(pid(0)));
+        for (int i = 1; i < 6; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertTrue(bp.isCached(pid(0)));
+
+        bp.unpinPage(tid, pid(0));
+        bp.unpinPage(tid, pid(0));
+        // unpinning more often than pinned is ignored
+        bp.unpinPage(tid, pid(0));
+        assertEquals(0, bp.getPinCount(pid(0)));
+        // with the other frames pinned, page 0 is the only victim left
+        bp.pinPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        assertFalse(bp.isCached(pid(0)));
+        bp.transactionComplete(tid);
+    }
+
+    @Test(expected = DbException.class)
+    public void allPinned() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            bp.pinPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+    }
+
+    @Test public void completeReleasesPins() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(1), Permissions.READ_WRITE);
+        bp.transactionComplete(tid, false);
+        assertEquals(0, bp.getPinCount(pid(0)));
+        assertEquals(0, bp.getPinCount(pid(1)));
+    }
+
+    /** A scan keeps the page it is on pinned, and only that page. */
+    @Test public void iteratorPinsCurrentPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 504; i++) {
+            assertTrue(it.hasNext());
+            it.next();
+        }
+        assertEquals(1, bp.getPinCount(pid(0)));
+        assertTrue(it.hasNext());
+        assertEquals(0, bp.getPinCount(pid(0)));
+        assertEquals(1, bp.getPinCount(pid(1)));
+        it.close();
+        assertEquals(0, bp.getPinCount(pid(1)));
+
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(504 * 6, count);
+        assertEquals(0, bp.getPinCount(pid(5)));
+        it.close();
+        bp.transactionComplete(tid);
+    }
+
+    @Test public void latchesExclude() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertNull(bp.latchPage(pid(0), Permissions.READ_ONLY));
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        Lock write = bp.latchPage(pid(0), Permissions.READ_WRITE);
+        assertNotNull(write);
+
+        CountDownLatch read = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            bp.latchPage(pid(0), Permissions.READ_ONLY).unlock();
+            read.countDown();
+        });
+        reader.start();
+        assertFalse(read.await(100, TimeUnit.MILLISECONDS));
+        write.unlock();
+        assertTrue(read.await(5, TimeUnit.SECONDS));
+        reader.join();
+
+        // shared latches do not exclude each other
+        Lock r1 = bp.latchPage(pid(0), Permissions.READ_ONLY);
+        Lock r2 = bp.latchPage(pid(0), Permissions.READ_ONLY);
+        r1.unlock();
+        r2.unlock();
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinLatchTest.class);
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+
+    /** Counts the pages the scan itself has to read. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        int readCount = 0;
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private InstrumentedHeapFile createTable(List<List<Integer>> tuples) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    /**
+     * Pages read ahead are found in the pool, so the scan reads few pages
+     * itself, and they stay cached for the next scan.
+     */
+    @Test public void scanFindsPagesCached() throws Exception {
+        Database.resetBufferPool(2 * PAGES);
+        List<List<Integer>> tuples = new ArrayList<>();
+        InstrumentedHeapFile table = createTable(tuples);
+        table.setReadAhead(true);
+
+        SystemTestUtil.matchTuples(table, tuples);
+        assertTrue("scan read " + table.readCount + " pages", table.readCount < PAGES / 2);
+
+        table.readCount = 0;
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(0, table.readCount);
+    }
+
+    /**
+     * Read-ahead into a pool much smaller than the file still returns every
+     * tuple.
+     */
+    @Test public void smallPool() throws Exception {
+        Database.resetBufferPool(8);
+        List<List<Integer>> tuples = new ArrayList<>();
+        InstrumentedHeapFile table = createTable(tuples);
+        table.setReadAhead(true);
+        SystemTestUtil.matchTuples(table, tuples);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * A pool too small to read ahead leaves the scan alone.
+     */
+    @Test public void tinyPool() throws Exception {
+        Database.resetBufferPool(4);
+        List<List<Integer>> tuples = new ArrayList<>();
+        InstrumentedHeapFile table = createTable(tuples);
+        table.setReadAhead(true);
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+    }
+
+    /**
+     * Prefetching a page that is already cached keeps the cached copy.
+     */
+    @Test public void prefetchKeepsCachedPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        List<List<Integer>> tuples = new ArrayList<>();
+        InstrumentedHeapFile table = createTable(tuples);
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        Page cached = table.readPage(pid);
+        assertEquals(1, bp.prefetchPages(Arrays.asList(cached)));
+        assertTrue(bp.isCached(pid));
+        assertEquals(0, bp.prefetchPages(Arrays.asList(table.readPage(pid))));
+    }
+
+    /**
+     * A page written after it was read ahead is not put into the pool: a
+     * newer version may have been committed and evicted meanwhile.
+     */
+    @Test public void prefetchDropsPagesWrittenSinceRead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        List<List<Integer>> tuples = new ArrayList<>();
+        InstrumentedHeapFile table = createTable(tuples);
+        long stamp = table.writeStamp();
+        HeapPageId p0 = new HeapPageId(table.getId(), 0);
+        HeapPageId p1 = new HeapPageId(table.getId(), 1);
+        List<Page> readAhead = Arrays.asList(table.readPage(p0), table.readPage(p1));
+        table.writePage(table.readPage(p0));
+        assertEquals(1, bp.prefetchPages(readAhead, table, stamp));
+        assertFalse(bp.isCached(p0));
+        assertTrue(bp.isCached(p1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
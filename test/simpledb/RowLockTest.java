@@ -0,0 +1,303 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class RowLockTest extends SimpleDbTestBase {
+    private static final int ROWS = 10;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private ExecutorService pool;
+
+    /** A one-page table whose rows are (i, 0). */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(Arrays.asList(i, 0));
+        }
+        File file = File.createTempFile("counters", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        hf = new HeapFile(file, Utility.getTupleDesc(2, "field"));
+        Database.getCatalog().addTable(hf, "counters");
+        bp = Database.getBufferPool();
+        bp.setRowLocking(hf.getId());
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @After public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    /** @return the first fields of the rows tid sees */
+    private List<Integer> scan(TransactionId tid) throws DbException, TransactionAbortedException {
+        List<Integer> rows = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            rows.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** @return row key, which the table keeps in slot key of its first page */
+    private Tuple row(TransactionId tid, int key) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        return page.getTuple(key);
+    }
+
+    /** @return the first fields of the rows of the table's first page on disk */
+    private List<Integer> onDisk() {
+        List<Integer> rows = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0))).iterator();
+        while (it.hasNext()) {
+            rows.add(((IntField) it.next().getField(0)).getValue());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> rows = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            rows.add(i);
+        }
+        return rows;
+    }
+
+    /** Transactions changing different rows of one page do not wait for each other. */
+    @Test public void differentRowsOfOnePage() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.setLockTimeout(t1, 100);
+        bp.setLockTimeout(t2, 100);
+        bp.deleteTuple(t1, row(t1, 0));
+        bp.deleteTuple(t2, row(t2, 1));
+        bp.insertTuple(t2, hf.getId(), Utility.getHeapTuple(new int[] {100, 0}));
+        bp.transactionComplete(t1);
+        // t2 does not see the row it deleted
+        List<Integer> expected = range(2, ROWS);
+        expected.add(100);
+        assertEquals(expected, scan(t2));
+        bp.transactionComplete(t2);
+
+        TransactionId t3 = new TransactionId();
+        assertEquals(expected, scan(t3));
+        bp.transactionComplete(t3);
+        assertEquals(expected, onDisk());
+    }
+
+    /** A reader waits for the row a writer deleted until the writer is done. */
+    @Test public void readerWaitsForRow() throws Exception {
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        bp.deleteTuple(writer, row(writer, 3));
+        Future<List<Integer>> f = pool.submit(() -> scan(reader));
+        try {
+            f.get(200, TimeUnit.MILLISECONDS);
+            fail("read a row another transaction deleted");
+        } catch (TimeoutException expected) {
+        }
+        bp.transactionComplete(writer);
+        List<Integer> expected = range(0, ROWS);
+        expected.remove(Integer.valueOf(3));
+        assertEquals(expected, f.get(1, TimeUnit.SECONDS));
+        bp.transactionComplete(reader);
+    }
+
+    /** A snapshot reads past a row a writer deleted, without locking it. */
+    @Test public void snapshotDoesNotWaitForRow() throws Exception {
+        bp.enableSnapshots();
+        TransactionId writer = new TransactionId();
+        bp.deleteTuple(writer, row(writer, 3));
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        Future<List<Integer>> f = pool.submit(() -> scan(reader));
+        assertEquals(range(0, ROWS), f.get(1, TimeUnit.SECONDS));
+        assertFalse(bp.holdsLock(reader, new HeapPageId(hf.getId(), 0)));
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer);
+    }
+
+    /**
+     * A commit writes the page without rows other transactions inserted, and
+     * an abort takes back only its own rows.
+     */
+    @Test public void commitAndAbortShareAPage() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        bp.insertTuple(t1, hf.getId(), Utility.getHeapTuple(new int[] {100, 0}));
+        bp.insertTuple(t2, hf.getId(), Utility.getHeapTuple(new int[] {200, 0}));
+        bp.deleteTuple(t3, row(t3, 0));
+        bp.transactionComplete(t2);
+        List<Integer> expected = range(0, ROWS);
+        expected.add(200);
+        assertEquals(expected, onDisk());
+        assertEquals(t1, bp.getPage(t1, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY).isDirty());
+
+        bp.transactionComplete(t1, false);
+        bp.transactionComplete(t3, false);
+        TransactionId t4 = new TransactionId();
+        assertEquals(expected, scan(t4));
+        bp.transactionComplete(t4);
+        assertEquals(expected, onDisk());
+    }
+
+    /** A commit logs the committed version of its pages and forces it before writing them. */
+    @Test public void commitIsLogged() throws Exception {
+        LogFile log = Database.getLogFile();
+        int records = log.getTotalRecords();
+        TransactionId t = new TransactionId();
+        bp.deleteTuple(t, row(t, 0));
+        bp.transactionComplete(t);
+        // an UPDATE record for the page and a COMMIT record
+        assertEquals(records + 2, log.getTotalRecords());
+        assertTrue(log.getForcedRecords() >= records + 2);
+        assertEquals(range(1, ROWS), onDisk());
+    }
+
+    /** A transaction that commits rows logs a single COMMIT record. */
+    @Test public void transactionLogsOneCommit() throws Exception {
+        LogFile log = Database.getLogFile();
+        int records = log.getTotalRecords();
+        Transaction t = new Transaction();
+        t.start();
+        bp.deleteTuple(t.getId(), row(t.getId(), 0));
+        t.commit();
+        // BEGIN, an UPDATE record for the page and COMMIT
+        assertEquals(records + 3, log.getTotalRecords());
+        assertFalse(log.isLive(t.getId()));
+        assertEquals(range(1, ROWS), onDisk());
+    }
+
+    /** A file whose page writes fail while fail is set. */
+    private static class FailingHeapFile extends HeapFile {
+        volatile boolean fail;
+
+        FailingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            if (fail) {
+                throw new IOException("injected write failure");
+            }
+            super.writePage(page);
+        }
+    }
+
+    /**
+     * A commit whose page write fails after its COMMIT record is forced
+     * still stands: it is not rolled back, and the page is written later.
+     */
+    @Test public void failedWriteAfterCommitStands() throws Exception {
+        FailingHeapFile failing = new FailingHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(failing, "counters");
+        hf = failing;
+        bp.setRowLocking(hf.getId());
+        TransactionId t1 = new TransactionId();
+        bp.deleteTuple(t1, row(t1, 0));
+        failing.fail = true;
+        try {
+            bp.transactionComplete(t1);
+            fail("wrote a page the file refused");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        assertEquals(range(0, ROWS), onDisk());
+
+        TransactionId t2 = new TransactionId();
+        bp.setLockTimeout(t2, 100);
+        assertEquals(range(1, ROWS), scan(t2));
+        bp.transactionComplete(t2);
+        failing.fail = false;
+        bp.flushAllPages();
+        assertEquals(range(1, ROWS), onDisk());
+    }
+
+    /**
+     * A commit that cannot read back a page it changed fails, rolls back
+     * and still releases its locks.
+     */
+    @Test public void failedCommitRollsBack() throws Exception {
+        bp = Database.resetBufferPool(1);
+        bp.setRowLocking(hf.getId());
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, row(t1, 0));
+        // t2's dirty page takes the pool's only frame
+        bp.insertTuple(t2, other.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        try {
+            bp.transactionComplete(t1);
+            fail("committed without its page");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getCause() instanceof DbException);
+        }
+        bp.transactionComplete(t2, false);
+
+        TransactionId t3 = new TransactionId();
+        bp.setLockTimeout(t3, 100);
+        assertEquals(range(0, ROWS), scan(t3));
+        bp.transactionComplete(t3);
+        assertEquals(range(0, ROWS), onDisk());
+    }
+
+    /** A transaction over the threshold locks the whole table instead. */
+    @Test public void escalation() throws Exception {
+        bp.setRowLocking(hf.getId(), ROWS / 2);
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        bp.setLockTimeout(writer, 100);
+        assertEquals(range(0, ROWS), scan(reader));
+        try {
+            bp.insertTuple(writer, hf.getId(), Utility.getHeapTuple(new int[] {100, 0}));
+            fail("inserted into a table another transaction locked");
+        } catch (TransactionAbortedException expected) {
+        }
+        bp.transactionComplete(writer, false);
+        bp.transactionComplete(reader);
+
+        // below the threshold only the rows read are locked
+        bp.setRowLocking(hf.getId(), ROWS * 2);
+        reader = new TransactionId();
+        writer = new TransactionId();
+        bp.setLockTimeout(writer, 100);
+        assertEquals(range(0, ROWS), scan(reader));
+        bp.insertTuple(writer, hf.getId(), Utility.getHeapTuple(new int[] {100, 0}));
+        bp.transactionComplete(writer);
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RowLockTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SnapshotTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, tuples);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.enableSnapshots();
+    }
+
+    private List<List<Integer>> scan(TransactionId tid) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            result.add(Arrays.asList(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue()));
+        }
+        it.close();
+        return result;
+    }
+
+    private void assertSameTuples(List<List<Integer>> expected, List<List<Integer>> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertTrue(actual.containsAll(expected));
+    }
+
+    /**
+     * A snapshot reads around a writer's locks, and keeps seeing the
+     * committed state as of its start after the writer commits.
+     */
+    @Test public void consistentWithoutLocks() throws Exception {
+        TransactionId writer = new TransactionId();
+        HeapPageId p0 = new HeapPageId(hf.getId(), 0);
+        Tuple deleted = ((HeapPage) bp.getPage(writer, p0, Permissions.READ_WRITE)).iterator().next();
+        bp.deleteTuple(writer, deleted);
+        bp.insertTuple(writer, hf.getId(), Utility.getHeapTuple(new int[] {-1, -1}));
+
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertSameTuples(tuples, scan(reader));
+        assertFalse(bp.holdsLock(reader, p0));
+
+        bp.transactionComplete(writer, true);
+        assertTrue(bp.getNumPageVersions() > 0);
+        assertSameTuples(tuples, scan(reader));
+
+        List<List<Integer>> after = new ArrayList<>(tuples);
+        after.remove(Arrays.asList(((IntField) deleted.getField(0)).getValue(),
+                ((IntField) deleted.getField(1)).getValue()));
+        after.add(Arrays.asList(-1, -1));
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertSameTuples(after, scan(later));
+
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+        assertEquals(0, bp.getNumPageVersions());
+        // readers of the latest version never needed a copy
+        TransactionId last = new TransactionId();
+        bp.beginSnapshot(last);
+        assertSameTuples(after, scan(last));
+        bp.transactionComplete(last);
+    }
+
+    /** A commit while no snapshot runs keeps no old versions. */
+    @Test public void noVersionsWithoutSnapshots() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, hf.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        bp.transactionComplete(writer, true);
+        assertEquals(0, bp.getNumPageVersions());
+    }
+
+    @Test public void readOnly() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        try {
+            bp.getPage(reader, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+            fail("snapshot wrote a page");
+        } catch (DbException expected) {
+        }
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
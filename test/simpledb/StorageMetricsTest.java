@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class StorageMetricsTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        Database.getCatalog().addTable(hf, "metrics_table");
+        bp = Database.resetBufferPool(4, BufferPool.DEFAULT_EVICTION_POLICY, 1);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    @Test public void countsPerTable() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 8; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, pid(7), Permissions.READ_ONLY);
+        StorageMetrics metrics = bp.getMetrics();
+        StorageMetrics.TableMetrics table = metrics.table(hf.getId());
+        assertEquals(8, table.getMisses());
+        assertEquals(1, table.getHits());
+        assertEquals(4, table.getEvictions());
+        assertEquals(8, table.getReads().getCount());
+        assertEquals(1.0 / 9, metrics.getHitRatio(), 1e-9);
+        assertTrue(table.getReads().getPercentileMicros(0.99) >= table.getReads().getPercentileMicros(0.5));
+        assertEquals(4, metrics.getResidentFrames());
+        bp.transactionComplete(tid);
+
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, hf.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        assertEquals(1, metrics.getDirtyPages());
+        bp.transactionComplete(writer, true);
+        assertEquals(0, metrics.getDirtyPages());
+        assertEquals(1, metrics.getPageWrites());
+
+        String report = metrics.report();
+        assertTrue(report, report.contains("metrics_table"));
+        metrics.reset();
+        assertEquals(0, metrics.getMisses());
+    }
+
+    /** The MBean follows the Database's current pool. */
+    @Test public void mbean() throws Exception {
+        StorageMetrics.registerMBean();
+        StorageMetrics.registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(StorageMetrics.OBJECT_NAME);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1L, server.getAttribute(name, "Misses"));
+        assertEquals(4, server.getAttribute(name, "Capacity"));
+        assertTrue(((String) server.invoke(name, "report", null, null)).contains("metrics_table"));
+        bp.transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(0L, server.getAttribute(name, "Misses"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StorageMetricsTest.class);
+    }
+}
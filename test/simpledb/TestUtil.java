@@ -2,6 +2,7 @@ package simpledb;
 
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
+import simpledb.systemtest.SystemTestUtil;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -383,7 +384,8 @@ public class TestUtil {
         protected void setUp() throws Exception {
             try{
             	Database.reset();
-                empty = Utility.createEmptyHeapFile(emptyFile.getAbsolutePath(), 2);
+                empty = SystemTestUtil.deleteSideFilesOnExit(
+                        Utility.createEmptyHeapFile(emptyFile.getAbsolutePath(), 2));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TransactionFootprintTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, tuples);
+        bp = Database.getBufferPool();
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    @Test public void lockIndex() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, pid(0), Permissions.READ_ONLY);
+        lm.acquireLock(t1, pid(1), Permissions.READ_WRITE);
+        lm.acquireLock(t2, pid(0), Permissions.READ_ONLY);
+        assertEquals(new HashSet<>(Arrays.asList(pid(0), pid(1))), lm.getLockedPages(t1));
+        assertEquals(new HashSet<>(Arrays.asList(t1, t2)), lm.getTransactions());
+
+        lm.releaseLock(t1, pid(0));
+        assertFalse(lm.holdsLock(t1, pid(0)));
+        assertTrue(lm.holdsLock(t2, pid(0)));
+
+        lm.releaseAllLocks(t1);
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList(t2)), lm.getTransactions());
+        // the page t1 held exclusively is free again
+        assertTrue(lm.acquireLockHelper(t2, pid(1), Permissions.READ_WRITE));
+    }
+
+    /**
+     * Committing or aborting one transaction leaves the pages dirtied by
+     * another alone, whether they were dirtied through an insert or by
+     * hand on a page locked READ_WRITE.
+     */
+    @Test public void completeOnlyOwnPages() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        HeapPage p0 = (HeapPage) bp.getPage(t1, pid(0), Permissions.READ_WRITE);
+        bp.deleteTuple(t1, p0.iterator().next());
+        HeapPage p1 = (HeapPage) bp.getPage(t1, pid(1), Permissions.READ_WRITE);
+        p1.markDirty(true, t1);
+
+        HeapPage p2 = (HeapPage) bp.getPage(t2, pid(2), Permissions.READ_WRITE);
+        Tuple deleted = p2.iterator().next();
+        bp.deleteTuple(t2, deleted);
+
+        bp.transactionComplete(t1, false);
+        assertNull(bp.getPage(t2, pid(0), Permissions.READ_ONLY).isDirty());
+        assertNull(bp.getPage(t2, pid(1), Permissions.READ_ONLY).isDirty());
+        assertEquals(t2, bp.getPage(t2, pid(2), Permissions.READ_ONLY).isDirty());
+        bp.insertTuple(t2, hf.getId(), Utility.getHeapTuple(new int[] {7, 7}));
+
+        bp.transactionComplete(t2, true);
+        assertNull(bp.getPage(new TransactionId(), pid(2), Permissions.READ_ONLY).isDirty());
+
+        tuples.remove(Arrays.asList(((IntField) deleted.getField(0)).getValue(),
+                ((IntField) deleted.getField(1)).getValue()));
+        tuples.add(Arrays.asList(7, 7));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TransactionFootprintTest.class);
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VarcharTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private File file;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.VARCHAR_TYPE}, new String[] {"id", "name"});
+        file = File.createTempFile("varchar", ".dat");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[0]);
+        hf = open();
+    }
+
+    private HeapFile open() {
+        HeapFile f = new HeapFile(file, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new VarStringField(name));
+        return t;
+    }
+
+    private List<String> scan(HeapFile f) throws Exception {
+        List<String> names = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            names.add(((StringField) it.next().getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return names;
+    }
+
+    /** Short strings pack many more tuples into a page than STRING_TYPE does. */
+    @Test public void density() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 200; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "n" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertEquals(1, hf.numPages());
+
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(200, countTuples(page));
+        assertEquals(BufferPool.getPageSize(), page.getPageData().length);
+    }
+
+    private static int countTuples(HeapPage page) {
+        int n = 0;
+        java.util.Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /** Space freed by deletes is reused once the page is written. */
+    @Test public void deleteAndReuse() throws Exception {
+        String name = "x".repeat(Type.STRING_LEN);
+        TransactionId tid = new TransactionId();
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Tuple t = tuple(i, name);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        int onFirst = 0;
+        for (Tuple t : inserted) {
+            if (t.getRecordId().getPageId().getPageNumber() == 0) {
+                onFirst++;
+            }
+        }
+        assertEquals((BufferPool.getPageSize() - 8) / (Type.STRING_LEN + 8 + 4), onFirst);
+
+        tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, inserted.get(3));
+        Database.getBufferPool().deleteTuple(tid, inserted.get(5));
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        Tuple t = tuple(-1, name);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(3, t.getRecordId().getTupleNumber());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(inserted.size() - 1, scan(open()).size());
+        assertEquals(2, hf.numPages());
+    }
+
+    /**
+     * A commit that packs a page read into an arena frame keeps the records
+     * that were not decoded yet.
+     */
+    @Test public void deleteInArenaFrame() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> inserted = new ArrayList<>();
+        for (String name : new String[] {"0" + "a".repeat(30), "1" + "b".repeat(60), "2cc"}) {
+            Tuple t = tuple(inserted.size(), name);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES, BufferPool.DEFAULT_EVICTION_POLICY, 1, true);
+        tid = new TransactionId();
+        bp.deleteTuple(tid, inserted.get(0));
+        bp.transactionComplete(tid, true);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("1" + "b".repeat(60));
+        expected.add("2cc");
+        assertEquals(expected, scan(hf));
+        // written once more, from the tuples decoded after the commit
+        tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), tuple(3, "3d"));
+        bp.transactionComplete(tid, true);
+        expected.add("3d");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<String> read = scan(hf);
+        read.sort(null);
+        assertEquals(expected, read);
+    }
+
+    @Test public void reopen() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String name = "name" + "-".repeat(i % 100) + i;
+            names.add(name);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, name));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<String> read = scan(open());
+        read.sort(null);
+        names.sort(null);
+        assertEquals(names, read);
+    }
+
+    /** Text files with varchar columns convert to slotted pages, and load from a catalog. */
+    @Test public void encodeAndLoadSchema() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File text = new File(dir, "people.txt");
+        text.deleteOnExit();
+        List<String> names = new ArrayList<>();
+        try (Writer w = new FileWriter(text)) {
+            for (int i = 0; i < 500; i++) {
+                String name = "person" + i;
+                names.add(name);
+                w.write(i + "," + name + "\n");
+            }
+        }
+        File data = new File(dir, "people.dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2, new Type[] {Type.INT_TYPE, Type.VARCHAR_TYPE});
+        // about 21 bytes per tuple with its directory entry
+        assertEquals(3L * BufferPool.getPageSize(), data.length());
+
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        try (Writer w = new FileWriter(schema)) {
+            w.write("people (id int, name varchar)\n");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+        int id = Database.getCatalog().getTableId("people");
+        assertEquals(Type.VARCHAR_TYPE, Database.getCatalog().getTupleDesc(id).getFieldType(1));
+        assertEquals(names, scan((HeapFile) Database.getCatalog().getDatabaseFile(id)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VarcharTest.class);
+    }
+}
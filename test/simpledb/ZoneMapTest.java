@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int PER_PAGE = 504;
+    private static final int PAGES = 10;
+
+    private File file;
+    private HeapFile hf;
+
+    /** An append-only table whose first field grows with every row. */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < PER_PAGE * PAGES; i++) {
+            tuples.add(Arrays.asList(i, i % 10));
+        }
+        file = File.createTempFile("events", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        hf = open();
+    }
+
+    private HeapFile open() {
+        HeapFile f = new HeapFile(file, Utility.getTupleDesc(2, "field"));
+        Database.getCatalog().addTable(f, "events");
+        return f;
+    }
+
+    /** @return the tuples the scan returns that satisfy all predicates, and the pages it read */
+    private int[] scan(HeapFile f, Predicate... predicates) throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid, null, Arrays.asList(predicates));
+        it.open();
+        int matches = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            boolean match = true;
+            for (Predicate p : predicates) {
+                match &= p.filter(t);
+            }
+            matches += match ? 1 : 0;
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        return new int[] {matches, (int) bp.getMetrics().table(f.getId()).getMisses()};
+    }
+
+    @Test public void skipsPages() throws Exception {
+        int from = PER_PAGE * 8 + 10;
+        int[] r = scan(hf, new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from)));
+        assertEquals(PER_PAGE * PAGES - from, r[0]);
+        assertEquals(2, r[1]);
+
+        r = scan(hf, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(PER_PAGE * 2)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(PER_PAGE * 3 + 5)));
+        assertEquals(PER_PAGE + 4, r[0]);
+        assertEquals(2, r[1]);
+
+        r = scan(hf, new Predicate(0, Predicate.Op.EQUALS, new IntField(-1)));
+        assertEquals(0, r[0]);
+        assertEquals(0, r[1]);
+
+        // the second field covers its whole range on every page
+        r = scan(hf, new Predicate(1, Predicate.Op.EQUALS, new IntField(3)));
+        assertEquals(PER_PAGE * PAGES / 10, r[0]);
+        assertEquals(PAGES, r[1]);
+    }
+
+    /** Inserts widen the ranges at once, and the map is saved next to the file. */
+    @Test public void insertsAndReopen() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, firstTuple(tid));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {-50, 0}));
+        DbFileIterator it = hf.iterator(tid, null,
+                Collections.singletonList(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))));
+        it.open();
+        assertTrue(it.hasNext());
+        assertEquals(new IntField(-50), it.next().getField(0));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertTrue(new File(file.getPath() + ".zm").exists());
+        HeapFile reopened = open();
+        int[] r = scan(reopened, new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(0)));
+        assertEquals(1, r[0]);
+        assertEquals(1, r[1]);
+        r = scan(reopened, new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(PER_PAGE * (PAGES - 1))));
+        assertEquals(PER_PAGE, r[0]);
+        assertEquals(1, r[1]);
+    }
+
+    /** A file the map is never needed for gets no sidecar. */
+    @Test public void loadedOnlyForPredicates() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {-50, 0}));
+        Database.getBufferPool().transactionComplete(tid);
+        scan(hf);
+        assertFalse(new File(file.getPath() + ".zm").exists());
+
+        // the insert is covered once a scan loads the map
+        int[] r = scan(hf, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        assertEquals(1, r[0]);
+        assertEquals(1, r[1]);
+    }
+
+    /**
+     * A page written while the map was not loaded is caught by its
+     * checksum, even though the sidecar looks newer than the file.
+     */
+    @Test public void staleSidecar() throws Exception {
+        scan(hf, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        hf.sync();
+        File sidecar = new File(file.getPath() + ".zm");
+        assertTrue(sidecar.exists());
+
+        File other = File.createTempFile("events", ".dat");
+        other.deleteOnExit();
+        HeapFileEncoder.convert(Collections.singletonList(Arrays.asList(-50, 0)), other, BufferPool.getPageSize(), 2);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(Files.readAllBytes(other.toPath()), 0, BufferPool.getPageSize());
+        }
+        assertTrue(sidecar.setLastModified(file.lastModified() + 60000));
+
+        int[] r = scan(open(), new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        assertEquals(1, r[0]);
+        assertEquals(1, r[1]);
+        r = scan(open(), new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(PER_PAGE * (PAGES - 1))));
+        assertEquals(PER_PAGE, r[0]);
+        assertEquals(1, r[1]);
+    }
+
+    private Tuple firstTuple(TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        return t;
+    }
+
+    /** The planner pushes filters on a table down to its scan. */
+    @Test public void plannerPushesFilters() throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "e");
+        lp.addFilter("e.field0", Predicate.Op.GREATER_THAN_OR_EQ, String.valueOf(PER_PAGE * 9));
+        lp.addProjectField("e.field0", null);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("events", new TableStats(hf.getId(), 1));
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        bp.transactionComplete(tid);
+        assertEquals(PER_PAGE, n);
+        assertEquals(1, bp.getMetrics().table(hf.getId()).getMisses());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -1,8 +1,13 @@
 package simpledb.systemtest;
 
+import java.util.Iterator;
+
+import org.junit.After;
 import org.junit.Before;
 
 import simpledb.common.Database;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 
 /**
  * Base class for all SimpleDb test classes. 
@@ -16,5 +21,19 @@ public class SimpleDbTestBase {
 	@Before	public void setUp() throws Exception {					
 		Database.reset();
 	}
+
+	/**
+	 * Delete the side files of the test's heap files on exit, since
+	 * inserts and scans create them next to the tables.
+	 */
+	@After public void deleteSideFiles() {
+		Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+		while (it.hasNext()) {
+			DbFile f = Database.getCatalog().getDatabaseFile(it.next());
+			if (f instanceof HeapFile) {
+				SystemTestUtil.deleteSideFilesOnExit((HeapFile) f);
+			}
+		}
+	}
 	
 }
@@ -38,7 +38,7 @@ public class SystemTestUtil {
             throws IOException {
         File temp = createRandomHeapFileUnopened(columns, rows, maxValue,
                 columnSpecification, tuples);
-        return Utility.openHeapFile(columns, temp);
+        return deleteSideFilesOnExit(Utility.openHeapFile(columns, temp));
     }
     
     public static HeapFile createRandomHeapFile(
@@ -54,7 +54,20 @@ public class SystemTestUtil {
             throws IOException {
         File temp = createRandomHeapFileUnopened(columns, rows, maxValue,
                 columnSpecification, tuples);
-        return Utility.openHeapFile(columns, colPrefix, temp);
+        return deleteSideFilesOnExit(Utility.openHeapFile(columns, colPrefix, temp));
+    }
+
+    /**
+     * Has the side files that inserts and scans create next to a test's
+     * heap file deleted on exit, like the temporary file itself.
+     *
+     * @return hf
+     */
+    public static HeapFile deleteSideFilesOnExit(HeapFile hf) {
+        for (File side : hf.sideFiles()) {
+            side.deleteOnExit();
+        }
+        return hf;
     }
 
     public static File createRandomHeapFileUnopened(int columns, int rows,